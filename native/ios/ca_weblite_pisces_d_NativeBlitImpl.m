@@ -0,0 +1,18 @@
+#import "ca_weblite_pisces_d_NativeBlitImpl.h"
+
+@implementation ca_weblite_pisces_d_NativeBlitImpl
+
+-(void)blendRow:(NSData*)param param1:(int)param1 param2:(int)param2 param3:(NSData*)param3 param4:(int)param4 param5:(NSData*)param5 param6:(int)param6 param7:(int)param7 param8:(int)param8 param9:(BOOL)param9{
+}
+
+-(void)blendSpan:(NSData*)param param1:(int)param1 param2:(int)param2 param3:(int)param3 param4:(int)param4 param5:(int)param5 param6:(int)param6 param7:(BOOL)param7{
+}
+
+-(void)drawRow:(NSData*)param param1:(int)param1 param2:(NSData*)param2 param3:(int)param3 param4:(int)param4 param5:(int)param5{
+}
+
+-(BOOL)isSupported{
+    return NO;
+}
+
+@end
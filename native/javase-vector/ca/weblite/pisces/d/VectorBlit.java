@@ -0,0 +1,316 @@
+package ca.weblite.pisces.d;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Blend kernels on the lanes of the JDK Vector API, loaded by the
+ * JavaSE {@link NativeBlitImpl} when this class is on the classpath.
+ * It is built apart from the library by the
+ * <code>buildVectorSE</code> target, needs JDK 17 or later, and the
+ * JVM must run with <code>--add-modules jdk.incubator.vector</code>;
+ * otherwise it fails to load and the portable loops are used.
+ *
+ * <p> Every kernel reproduces the portable loops exactly.
+ */
+public class VectorBlit implements ca.weblite.pisces.d.NativeBlit {
+
+    private static final VectorSpecies<Integer> INTS =
+        IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS =
+        FloatVector.SPECIES_PREFERRED;
+
+    /*
+     * Floats in [0, 1 << 22] are rounded to ints by adding 1 << 23,
+     * whose float bits then hold the integer plus MAGIC_BITS.  The
+     * conversion ops of the Vector API are much slower.
+     */
+    private static final float MAGIC = (float)(1 << 23);
+    private static final int MAGIC_BITS = 0x4b000000;
+    /*
+     * Floats in [0, 1 << 25] are rounded to a multiple of 4 by adding
+     * 1 << 25, whose float bits then hold a quarter of the multiple
+     * plus MAGIC25_BITS
+     */
+    private static final float MAGIC25 = (float)(1 << 25);
+    private static final int MAGIC25_BITS = 0x4c000000;
+
+    /*
+     * Coverage of the current row, and the pixels of a partial
+     * vector at its end, per thread
+     */
+    private static final ThreadLocal<int[][]> buffers =
+        new ThreadLocal<int[][]>();
+
+    public boolean isSupported() {
+        return (INTS.length() == FLOATS.length() && INTS.length() >= 4);
+    }
+
+    private static int[][] buffers(int length) {
+        int[][] b = buffers.get();
+        if (b == null || b[0].length < length + INTS.length()) {
+            b = new int[][] {
+                new int[Math.max(length, 256) + INTS.length()],
+                new int[INTS.length()],
+                new int[INTS.length()]
+            };
+            buffers.set(b);
+        }
+        return b;
+    }
+
+    public void blendRow(int[] data, int offset, int length,
+                         byte[] alpha, int alphaOffset, int[] alphaMap,
+                         int red, int green, int blue,
+                         boolean hasAlpha)
+    {
+        int[] cov = buffers(length)[0];
+        for (int i = 0; i < length; i++) {
+            cov[i] = alphaMap[alpha[alphaOffset + i] & 0xff];
+        }
+        blend(data, offset, length, cov, red, green, blue, hasAlpha);
+    }
+
+    public void blendSpan(int[] data, int offset, int length,
+                          int coverage,
+                          int red, int green, int blue,
+                          boolean hasAlpha)
+    {
+        int[] cov = buffers(length)[0];
+        for (int i = 0; i < length; i++) {
+            cov[i] = coverage;
+        }
+        blend(data, offset, length, cov, red, green, blue, hasAlpha);
+    }
+
+    private static void blend(int[] data, int offset, int length,
+                              int[] cov,
+                              int red, int green, int blue,
+                              boolean hasAlpha)
+    {
+        /*
+         * The pixels past the end of a partial vector are kept by a
+         * coverage of 0
+         */
+        int bound = INTS.loopBound(length);
+        int tail = length - bound;
+        for (int i = length; i < bound + INTS.length(); i++) {
+            cov[i] = 0;
+        }
+
+        if (hasAlpha) {
+            blend8888(data, offset, bound, cov, red, green, blue);
+        }
+        else {
+            blend888(data, offset, bound, cov, red, green, blue);
+        }
+        if (tail > 0) {
+            int[] last = buffers(0)[1];
+            System.arraycopy(data, offset + bound, last, 0, tail);
+            System.arraycopy(cov, bound, cov, 0, INTS.length());
+            if (hasAlpha) {
+                blend8888(last, 0, INTS.length(), cov, red, green, blue);
+            }
+            else {
+                blend888(last, 0, INTS.length(), cov, red, green, blue);
+            }
+            System.arraycopy(last, 0, data, offset + bound, tail);
+        }
+    }
+
+    /*
+     * Blit.blend888: red with blue, and green, in 16 bit halves
+     */
+    private static void blend888(int[] data, int offset, int length,
+                                 int[] cov,
+                                 int red, int green, int blue)
+    {
+        int cval = 0xff000000 | (red << 16) | (green << 8) | blue;
+        int crb = (red << 16) | blue;
+        int cg = green << 8;
+
+        for (int i = 0; i < length; i += INTS.length()) {
+            IntVector a = IntVector.fromArray(INTS, cov, i);
+            IntVector d = IntVector.fromArray(INTS, data, offset + i);
+
+            IntVector ia = a.neg().add(256);
+            IntVector rb = d.and(0xff00ff).mul(ia)
+                .add(a.mul(crb)).add(0x800080)
+                .lanewise(VectorOperators.LSHR, 8).and(0xff00ff);
+            IntVector g = d.and(0xff00).mul(ia)
+                .add(a.mul(cg)).add(0x8000)
+                .lanewise(VectorOperators.LSHR, 8).and(0xff00);
+            IntVector o = rb.or(g).or(0xff000000);
+
+            o = o.blend(cval, a.compare(VectorOperators.EQ, 256));
+            d.blend(o, a.compare(VectorOperators.NE, 0))
+                .intoArray(data, offset + i);
+        }
+    }
+
+    /*
+     * Blit.blend8888: the color weighs 255*a and the destination
+     * (256 - a)*dalpha, scaled by (1 << 24)/denom truncated as in the
+     * portable code.  The float quotient rounds to within one of it,
+     * and is corrected by its remainder.  The weighted sums of a
+     * channel stay below 1 << 32, so they are exact in int lanes
+     * shifted unsigned.
+     */
+    private static void blend8888(int[] data, int offset, int length,
+                                  int[] cov,
+                                  int red, int green, int blue)
+    {
+        int cval = 0xff000000 | (red << 16) | (green << 8) | blue;
+        FloatVector one24 = FloatVector.broadcast(FLOATS, (float)(1 << 24));
+
+        for (int i = 0; i < length; i += INTS.length()) {
+            IntVector a = IntVector.fromArray(INTS, cov, i);
+            IntVector d = IntVector.fromArray(INTS, data, offset + i);
+
+            IntVector wd = a.neg().add(256)
+                .mul(d.lanewise(VectorOperators.LSHR, 24));
+            IntVector ws = a.mul(255);
+            IntVector denom = wd.add(ws).max(1);
+
+            IntVector recip = toInt(one24.div(toFloat(denom)));
+            IntVector r = denom.mul(recip).neg().add(1 << 24);
+            recip = recip.sub(1, r.compare(VectorOperators.LT, 0));
+            recip = recip.add(1, r.compare(VectorOperators.GE, denom));
+
+            IntVector fa = wd.mul(recip);
+            IntVector fb = ws.mul(recip);
+            IntVector ored = d.lanewise(VectorOperators.LSHR, 16)
+                .and(0xff).mul(fa).add(fb.mul(red))
+                .lanewise(VectorOperators.LSHR, 24);
+            IntVector ogreen = d.lanewise(VectorOperators.LSHR, 8)
+                .and(0xff).mul(fa).add(fb.mul(green))
+                .lanewise(VectorOperators.LSHR, 24);
+            IntVector oblue = d.and(0xff).mul(fa).add(fb.mul(blue))
+                .lanewise(VectorOperators.LSHR, 24);
+            IntVector o = denom.lanewise(VectorOperators.LSHR, 8)
+                .lanewise(VectorOperators.LSHL, 24)
+                .or(ored.lanewise(VectorOperators.LSHL, 16))
+                .or(ogreen.lanewise(VectorOperators.LSHL, 8))
+                .or(oblue);
+
+            o = o.blend(cval, a.compare(VectorOperators.EQ, 256));
+            d.blend(o, a.compare(VectorOperators.NE, 0))
+                .intoArray(data, offset + i);
+        }
+    }
+
+    public void drawRow(int[] dst, int dstOffset,
+                        int[] src, int srcOffset,
+                        int length, int opacity)
+    {
+        int bound = INTS.loopBound(length);
+        int tail = length - bound;
+
+        draw(dst, dstOffset, src, srcOffset, bound, opacity);
+        if (tail > 0) {
+            /*
+             * Pixels past the end of a partial vector are transparent
+             * over transparent, and kept
+             */
+            int[][] b = buffers(0);
+            int[] lastDst = b[1];
+            int[] lastSrc = b[2];
+            for (int i = tail; i < INTS.length(); i++) {
+                lastDst[i] = 0;
+                lastSrc[i] = 0;
+            }
+            System.arraycopy(dst, dstOffset + bound, lastDst, 0, tail);
+            System.arraycopy(src, srcOffset + bound, lastSrc, 0, tail);
+            draw(lastDst, 0, lastSrc, 0, INTS.length(), opacity);
+            System.arraycopy(lastDst, 0, dst, dstOffset + bound, tail);
+        }
+    }
+
+    /*
+     * NativeSurface.Draw: the source weighs 255*srcA and the
+     * destination dstA*(0xff00 - srcA), scaled by (1 << 32)/denom
+     * truncated.  A drawn pixel has a denom of at least 255, so the
+     * reciprocal fits an int.  The float quotient rounded to a
+     * multiple of 4 is within 3 of it, and is corrected by its
+     * remainder as in blend8888.  The scaled weights stay below
+     * 1 << 32, and the channel sums are formed from their 16 bit
+     * halves, so that every step is exact in int lanes.
+     */
+    private static void draw(int[] dst, int dstOffset,
+                             int[] src, int srcOffset,
+                             int length, int opacity)
+    {
+        FloatVector one32 = FloatVector.broadcast(FLOATS, 4294967296f);
+
+        for (int i = 0; i < length; i += INTS.length()) {
+            IntVector s = IntVector.fromArray(INTS, src, srcOffset + i);
+            IntVector d = IntVector.fromArray(INTS, dst, dstOffset + i);
+
+            IntVector srcA = s.lanewise(VectorOperators.LSHR, 24)
+                .mul(opacity);
+            IntVector anom = srcA.mul(255);
+            IntVector bnom = d.lanewise(VectorOperators.LSHR, 24)
+                .mul(srcA.neg().add(0xff00));
+            IntVector denom = anom.add(bnom);
+            IntVector divisor = denom.max(255);
+
+            IntVector recip = one32.div(toFloat(divisor)).add(MAGIC25)
+                .reinterpretAsInts().sub(MAGIC25_BITS)
+                .lanewise(VectorOperators.LSHL, 2);
+            for (int k = 0; k < 3; k++) {
+                IntVector r = divisor.mul(recip).neg();
+                recip = recip.sub(1, r.compare(VectorOperators.LT, 0));
+                recip = recip.add(1, r.compare(VectorOperators.GE, divisor));
+            }
+
+            IntVector fa = anom.mul(recip);
+            IntVector fb = bnom.mul(recip);
+            IntVector faHi = fa.lanewise(VectorOperators.LSHR, 16);
+            IntVector faLo = fa.and(0xffff);
+            IntVector fbHi = fb.lanewise(VectorOperators.LSHR, 16);
+            IntVector fbLo = fb.and(0xffff);
+
+            IntVector ored = mix(s, d, 16, faHi, faLo, fbHi, fbLo);
+            IntVector ogreen = mix(s, d, 8, faHi, faLo, fbHi, fbLo);
+            IntVector oblue = mix(s, d, 0, faHi, faLo, fbHi, fbLo);
+            IntVector o = denom.mul(257).lanewise(VectorOperators.LSHR, 24)
+                .lanewise(VectorOperators.LSHL, 24)
+                .or(ored.lanewise(VectorOperators.LSHL, 16))
+                .or(ogreen.lanewise(VectorOperators.LSHL, 8))
+                .or(oblue);
+
+            o = o.blend(s, srcA.compare(VectorOperators.EQ, 0xff00));
+            d.blend(o, denom.compare(VectorOperators.GT, 0))
+                .intoArray(dst, dstOffset + i);
+        }
+    }
+
+    /*
+     * (fa*sc + fb*dc) >> 32 of a channel, from the 16 bit halves of
+     * fa and fb
+     */
+    private static IntVector mix(IntVector s, IntVector d, int shift,
+                                 IntVector faHi, IntVector faLo,
+                                 IntVector fbHi, IntVector fbLo)
+    {
+        IntVector sc = s.lanewise(VectorOperators.LSHR, shift).and(0xff);
+        IntVector dc = d.lanewise(VectorOperators.LSHR, shift).and(0xff);
+        IntVector hi = faHi.mul(sc).add(fbHi.mul(dc));
+        IntVector lo = faLo.mul(sc).add(fbLo.mul(dc));
+        return hi.add(lo.lanewise(VectorOperators.LSHR, 16))
+            .lanewise(VectorOperators.LSHR, 16);
+    }
+
+    private static FloatVector toFloat(IntVector v) {
+        return (FloatVector)v.convert(VectorOperators.I2F, 0);
+    }
+
+    /*
+     * Nearest int of v in [0, 1 << 22]
+     */
+    private static IntVector toInt(FloatVector v) {
+        return v.add(MAGIC).reinterpretAsInts().sub(MAGIC_BITS);
+    }
+}
@@ -0,0 +1,67 @@
+package ca.weblite.pisces.d;
+
+/**
+ * Blend kernels of the JavaSE port.  This class only uses the JDK 5
+ * API, so it builds and loads on every JavaSE port and simulator.
+ * The kernels are those of <code>VectorBlit</code>, on the lanes of
+ * the JDK Vector API, which the library does not build by default.
+ * They are loaded by name when the class is on the classpath and the
+ * JVM runs with <code>--add-modules jdk.incubator.vector</code>;
+ * otherwise this class reports no support and the portable loops are
+ * used.
+ */
+public class NativeBlitImpl implements ca.weblite.pisces.d.NativeBlit {
+
+    private static final String KERNELS = "ca.weblite.pisces.d.VectorBlit";
+
+    /*
+     * Loaded kernels, or null
+     */
+    private static final NativeBlit kernels = loadKernels();
+
+    private static NativeBlit loadKernels() {
+        try {
+            NativeBlit loaded =
+                (NativeBlit)Class.forName(KERNELS).newInstance();
+            if (loaded.isSupported()) {
+                return loaded;
+            }
+        }
+        catch (Throwable t) {
+            /*
+             * Class not on the classpath, or the Vector API module
+             * not added
+             */
+        }
+        return null;
+    }
+
+    public boolean isSupported() {
+        return (kernels != null);
+    }
+
+    public void blendRow(int[] data, int offset, int length,
+                         byte[] alpha, int alphaOffset, int[] alphaMap,
+                         int red, int green, int blue,
+                         boolean hasAlpha)
+    {
+        kernels.blendRow(data, offset, length, alpha, alphaOffset, alphaMap,
+                         red, green, blue, hasAlpha);
+    }
+
+    public void blendSpan(int[] data, int offset, int length,
+                          int coverage,
+                          int red, int green, int blue,
+                          boolean hasAlpha)
+    {
+        kernels.blendSpan(data, offset, length, coverage,
+                          red, green, blue, hasAlpha);
+    }
+
+    public void drawRow(int[] dst, int dstOffset,
+                        int[] src, int srcOffset,
+                        int length, int opacity)
+    {
+        kernels.drawRow(dst, dstOffset, src, srcOffset, length, opacity);
+    }
+}
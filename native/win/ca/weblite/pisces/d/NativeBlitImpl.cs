@@ -0,0 +1,20 @@
+using System;
+
+namespace ca.weblite.pisces.d{
+
+public class NativeBlitImpl {
+    public void blendRow(int[] param, int param1, int param2, byte[] param3, int param4, int[] param5, int param6, int param7, int param8, bool param9) {
+    }
+
+    public void blendSpan(int[] param, int param1, int param2, int param3, int param4, int param5, int param6, bool param7) {
+    }
+
+    public void drawRow(int[] param, int param1, int[] param2, int param3, int param4, int param5) {
+    }
+
+    public bool isSupported() {
+        return false;
+    }
+
+}
+}
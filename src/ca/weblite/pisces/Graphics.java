@@ -23,10 +23,14 @@
  */
 package ca.weblite.pisces;
 
+import ca.weblite.pisces.d.ByteSurface;
 import ca.weblite.pisces.d.CN1ImageSurface;
+import ca.weblite.pisces.d.MaskCache;
 import ca.weblite.pisces.d.NativeSurface;
 import ca.weblite.pisces.d.Pisces;
+import ca.weblite.pisces.d.ShortSurface;
 import ca.weblite.pisces.d.Surface;
+import ca.weblite.pisces.d.TiledSurface;
 import ca.weblite.pisces.m.Matrix;
 import ca.weblite.pisces.png.Encoder;
 
@@ -82,6 +86,24 @@ public class Graphics
         else
             throw new IllegalArgumentException();
     }
+    /**
+     * Draw on any surface, such as a {@link TiledSurface} for canvases
+     * too large to hold whole, a view of a region of a larger surface
+     * from {@link NativeSurface#createView}, drawn in place, or an
+     * opaque {@link ShortSurface} or {@link ByteSurface} in half or a
+     * quarter of the memory.
+     */
+    public Graphics(Surface.Sink sink){
+        super();
+        if (null != sink && 0 < sink.getWidth() && 0 < sink.getHeight()){
+            this.width = sink.getWidth();
+            this.height = sink.getHeight();
+            this.surface = sink;
+            this.renderer = new Pisces(sink);
+        }
+        else
+            throw new IllegalArgumentException();
+    }
 
 
     public com.codename1.ui.Image toImage(){
@@ -153,6 +175,87 @@ public class Graphics
     public final boolean getAntialiasing() {
         return this.renderer.getAntialiasing();
     }
+    /**
+     * @param quality One of <code>RendererBase.QUALITY_*</code>.
+     * @return Self for chaining.
+     */
+    public final Graphics setAntialiasingQuality(int quality) {
+        this.renderer.setAntialiasingQuality(quality);
+        return this;
+    }
+    /**
+     * @param subpixelLgPositionsX Base 2 log of the horizontal subpixel
+     * positions, 0 to <code>RendererBase.MAX_SUBPIXEL_LG_POSITIONS</code>.
+     * @param subpixelLgPositionsY Base 2 log of the vertical subpixel
+     * positions, 0 to <code>RendererBase.MAX_SUBPIXEL_LG_POSITIONS</code>.
+     * @return Self for chaining.
+     */
+    public final Graphics setAntialiasing(int subpixelLgPositionsX,
+                                          int subpixelLgPositionsY)
+    {
+        this.renderer.setAntialiasing(subpixelLgPositionsX,
+                                      subpixelLgPositionsY);
+        return this;
+    }
+    /**
+     * @param antialiasingMode One of
+     * <code>RendererBase.AA_*</code>.
+     * @return Self for chaining.
+     */
+    public final Graphics setAntialiasingMode(int antialiasingMode) {
+        this.renderer.setAntialiasingMode(antialiasingMode);
+        return this;
+    }
+    public final int getAntialiasingMode() {
+        return this.renderer.getAntialiasingMode();
+    }
+    /**
+     * With a mask cache, paths drawn or filled repeatedly are
+     * rendered from their coverage mask.  There is no mask cache by
+     * default, since a cached mask is reused at the translation
+     * rounded to a quarter pixel: a path drawn through the cache may
+     * land up to an eighth of a pixel from where it would be drawn
+     * without it.  Enabling the cache is left to applications that
+     * accept this for the speed of redrawing the same shapes, and
+     * that choose the budget and sharing of the cache.
+     *
+     * @param maskCache Mask cache, possibly shared with other
+     * graphics, or <code>null</code> to disable mask caching.
+     * @return Self for chaining.
+     */
+    public final Graphics setMaskCache(MaskCache maskCache) {
+        this.renderer.setMaskCache(maskCache);
+        return this;
+    }
+    public final MaskCache getMaskCache() {
+        return this.renderer.getMaskCache();
+    }
+    /**
+     * Paints, and paths drawn from or recorded into the mask cache,
+     * are rendered on the calling thread whatever the parallelism.
+     *
+     * @param parallelism Number of threads rasterizing large fills.
+     * @return Self for chaining.
+     */
+    public final Graphics setParallelism(int parallelism) {
+        this.renderer.setParallelism(parallelism);
+        return this;
+    }
+    public final int getParallelism() {
+        return this.renderer.getParallelism();
+    }
+    /**
+     * @param compositeRule One of
+     * <code>RendererBase.COMPOSITE_*</code>.
+     * @return Self for chaining.
+     */
+    public final Graphics setCompositeRule(int compositeRule) {
+        this.renderer.setCompositeRule(compositeRule);
+        return this;
+    }
+    public final int getCompositeRule() {
+        return this.renderer.getCompositeRule();
+    }
     public final Color getColor(){
         return this.renderer.getColor();
     }
@@ -239,9 +342,7 @@ public class Graphics
     public final Graphics draw(Path p){
         if (null != p){
             this.setStroke();
-            this.renderer.beginRendering(p.windingRule);
-            p.produce(this.renderer);
-            this.renderer.endRendering();
+            this.renderer.renderPath(p, p.windingRule);
             return this;
         }
         else
@@ -250,9 +351,7 @@ public class Graphics
     public final Graphics fill(Path p){
         if (null != p){
             this.setFill();
-            this.renderer.beginRendering(p.windingRule);
-            p.produce(this.renderer);
-            this.renderer.endRendering();
+            this.renderer.renderPath(p, p.windingRule);
             return this;
         }
         else
@@ -40,6 +40,13 @@ public class Image
     public Image(int width, int height){
         super(width,height);
     }
+    /**
+     * @param dataType One of <code>Surface.TYPE_INT_ARGB</code> and
+     * <code>Surface.TYPE_INT_ARGB_PRE</code>.
+     */
+    public Image(int width, int height, int dataType){
+        super(null,width,height,dataType);
+    }
 
 
     public Graphics createGraphics(){
@@ -23,12 +23,62 @@
  */
 package ca.weblite.pisces.d;
 
+import com.codename1.system.NativeLookup;
+
 /**
  * Blit blender used by {@link Renderer}.
+ *
+ * <p> Where the platform provides {@link NativeBlit} kernels, rows of
+ * SRC_OVER blends onto int surfaces go through them, and through the
+ * portable loops otherwise.
  */
 public class Blit {
 
-    public static final int COMPOSITE_SRC_OVER = 1;
+    public static final int COMPOSITE_SRC_OVER = RendererBase.COMPOSITE_SRC_OVER;
+
+    /*
+     * Rows shorter than this are blended by the portable loops
+     */
+    static final int MIN_NATIVE_LENGTH = 16;
+    /*
+     * Kernels of the platform, or null to use the portable loops.
+     * Looked up once, when Blit is first used.
+     */
+    private static volatile NativeBlit nativeKernels = lookupKernels();
+
+    private static NativeBlit lookupKernels() {
+        try {
+            NativeBlit kernels =
+                (NativeBlit)NativeLookup.create(NativeBlit.class);
+            if (kernels != null && kernels.isSupported()) {
+                return kernels;
+            }
+        }
+        catch (Throwable t) {
+            /*
+             * Kernels unavailable on this platform
+             */
+        }
+        return null;
+    }
+
+    /**
+     * Enable or disable the blend kernels of the platform.  They are
+     * enabled by default where supported.
+     */
+    public static void setNativeKernels(boolean enabled) {
+        nativeKernels = enabled ? lookupKernels() : null;
+    }
+    /**
+     * @return True if blends go through the kernels of the platform.
+     */
+    public static boolean hasNativeKernels() {
+        return (nativeKernels != null);
+    }
+
+    static NativeBlit getNativeKernels() {
+        return nativeKernels;
+    }
 
     /**
      * Coordinates in nominal integer format and coordinate space
@@ -46,6 +96,15 @@ public class Blit {
                           x, y, width, height, 
                           alpha, red, green, blue);
             break;
+        case TYPE_INT_ARGB_PRE:
+            int cval = premultiply((alpha << 24) | (red << 16) |
+                                   (green << 8) | blue);
+            clearRect8888((int[])imageData, imageOffset, 
+                          imageScanlineStride, imagePixelStride, 
+                          x, y, width, height, 
+                          alpha, (cval >> 16) & 0xff,
+                          (cval >> 8) & 0xff, cval & 0xff);
+            break;
         case TYPE_USHORT_565_RGB:
             clearRect565((short[])imageData, imageOffset, 
                          imageScanlineStride, imagePixelStride, 
@@ -93,14 +152,14 @@ public class Blit {
         }
         int xmask_r = x1 & SUBPIXEL_MASK_X;
         
-        int ymask_t = SUBPIXEL_POSITIONS_X - (y0 & SUBPIXEL_MASK_X);
+        int ymask_t = SUBPIXEL_POSITIONS_Y - (y0 & SUBPIXEL_MASK_Y);
         if (ymask_t == SUBPIXEL_POSITIONS_Y) {
             ymask_t = 0;
         }
         else {
             y0 += SUBPIXEL_POSITIONS_Y;
         }
-        int ymask_b = y1 & SUBPIXEL_MASK_X;
+        int ymask_b = y1 & SUBPIXEL_MASK_Y;
         
         int ix0 = x0 >> SUBPIXEL_LG_POSITIONS_X;
         int ix1 = (x1 >> SUBPIXEL_LG_POSITIONS_X) - 1;
@@ -120,6 +179,7 @@ public class Blit {
         switch(imageType){
         case TYPE_INT_RGB:
         case TYPE_INT_ARGB:
+        case TYPE_INT_ARGB_PRE:
             intData = (int[])imageData;
             intVal = 0xff000000 | (red << 16) | (green << 8) | blue;
             break;
@@ -286,6 +346,36 @@ public class Blit {
             }
             break;
 
+        case TYPE_INT_ARGB_PRE:
+            if (alphaUL > 0) {
+                blend8888Pre(intData,
+                             imageOffset +
+                             (iy0 - 1)*imageScanlineStride +
+                             (ix0 - 1)*imagePixelStride,
+                             alphaUL, red, green, blue);
+            }
+            if (alphaUR > 0) {
+                blend8888Pre(intData,
+                             imageOffset + (iy0 - 1)*imageScanlineStride +
+                             (ix1 + 1)*imagePixelStride,
+                             alphaUR, red, green, blue);
+            }
+            if (alphaLL > 0) {
+                blend8888Pre(intData,
+                             imageOffset +
+                             (iy1 + 1)*imageScanlineStride +
+                             (ix0 - 1)*imagePixelStride,
+                             alphaLL, red, green, blue);
+            }
+            if (alphaLR > 0) {
+                blend8888Pre(intData,
+                             imageOffset +
+                             (iy1 + 1)*imageScanlineStride +
+                             (ix1 + 1)*imagePixelStride,
+                             alphaLR, red, green, blue);
+            }
+            break;
+
         case TYPE_USHORT_565_RGB:
             if (alphaUL > 0) {
                 blend565(shortData,
@@ -386,6 +476,16 @@ public class Blit {
                                 alpha, alphaMap);
                 return;
 
+            case TYPE_INT_ARGB_PRE:
+                blitSrcOver8888Pre((int[])imageData, imageOffset,
+                                   imageScanlineStride, imagePixelStride,
+                                   alphaData, alphaOffset,
+                                   width, height,
+                                   minTouched, maxTouched, rowOffsets,
+                                   red, green, blue,
+                                   alpha, alphaMap);
+                return;
+
             case TYPE_USHORT_565_RGB:
                 blitSrcOver565((short[])imageData, imageOffset,
                                imageScanlineStride, imagePixelStride,
@@ -456,6 +556,17 @@ public class Blit {
                                 alphaMap);
                 return;
 
+            case TYPE_INT_ARGB_PRE:
+                blitSrcOver8888Pre((int[])imageData, imageOffset,
+                                   imageScanlineStride, imagePixelStride,
+                                   alphaData, alphaOffset,
+                                   width, height,
+                                   minTouched, maxTouched, rowOffsets,
+                                   paintData, paintOffset,
+                                   paintScanlineStride,
+                                   alphaMap);
+                return;
+
             case TYPE_USHORT_565_RGB:
                 blitSrcOver565((short[])imageData, imageOffset,
                                imageScanlineStride, imagePixelStride,
@@ -485,10 +596,307 @@ public class Blit {
     }
 
 
+    /*
+     * Composite a source over the destination with any of the
+     * Porter-Duff rules COMPOSITE_*.  The source is the flat ARGB
+     * color argb, or the ARGB pixels of paintData if it is not null.
+     * coverageMap maps the alpha data to coverage in [0, 256].
+     * Coverage acts as a clip: each pixel is interpolated between its
+     * value and the composited value.  Surfaces without alpha are
+     * opaque, and store the premultiplied result.  Premultiplied
+     * surfaces are composited in ARGB.
+     */
+    public static void blitComposite(Object imageData, int imageType,
+                                     int imageOffset,
+                                     int imageScanlineStride,
+                                     int imagePixelStride,
+                                     byte[] alphaData,
+                                     int alphaOffset,
+                                     int width, int height,
+                                     int[] minTouched, int[] maxTouched,
+                                     int[] rowOffsets,
+                                     int compositeRule,
+                                     int argb,
+                                     int[] paintData,
+                                     int paintOffset, int paintScanlineStride,
+                                     int[] coverageMap)
+    {
+        if (compositeRule < RendererBase.COMPOSITE_CLEAR ||
+            compositeRule > RendererBase.COMPOSITE_DST) {
+            throw new RuntimeException("Unknown composite rule!");
+        }
+        if (compositeRule == RendererBase.COMPOSITE_DST) {
+            return;
+        }
+        int[] intData = null;
+        short[] shortData = null;
+        byte[] byteData = null;
+        switch (imageType) {
+        case TYPE_INT_RGB:
+        case TYPE_INT_ARGB:
+        case TYPE_INT_ARGB_PRE:
+            intData = (int[])imageData;
+            break;
+        case TYPE_USHORT_565_RGB:
+            shortData = (short[])imageData;
+            break;
+        case TYPE_BYTE_GRAY:
+            byteData = (byte[])imageData;
+            break;
+        default:
+            throw new RuntimeException("Unknown image type!");
+        }
+        boolean pre = (imageType == TYPE_INT_ARGB_PRE);
+        boolean opaque = (imageType != TYPE_INT_ARGB && !pre);
+        int src = argb;
+        if (paintData == null && imageType == TYPE_BYTE_GRAY) {
+            src = toGray(src);
+        }
+
+        for (int j = 0; j < height; j++) {
+            int minX = minTouched[j];
+            int maxX = maxTouched[j];
+
+            int aidx = alphaOffset + rowOffsets[j] + minX;
+            int pidx = paintOffset + minX;
+            int iidx = imageOffset + minX*imagePixelStride;
+            int w = (maxX >= minX) ? (maxX - minX + 1) : 0;
+            if (w + minX > width) {
+                w = width - minX;
+            }
+
+            for (int i = 0; i < w;
+                 i++, aidx++, pidx++, iidx += imagePixelStride) {
+                int cov = coverageMap[alphaData[aidx] & 0xff];
+                if (cov == 0) {
+                    continue;
+                }
+                if (paintData != null) {
+                    src = paintData[pidx];
+                    if (imageType == TYPE_BYTE_GRAY) {
+                        src = toGray(src);
+                    }
+                }
+                /*
+                 * Rules ignoring the destination store straight away
+                 * under full coverage
+                 */
+                if (cov == MAX_ALPHA &&
+                    (compositeRule == RendererBase.COMPOSITE_SRC ||
+                     compositeRule == RendererBase.COMPOSITE_CLEAR))
+                {
+                    int val = (compositeRule == RendererBase.COMPOSITE_SRC) ?
+                        src : 0;
+                    if (opaque) {
+                        val = premultiply(val) | 0xff000000;
+                    }
+                    else if (pre) {
+                        val = premultiply(val);
+                    }
+                    store(intData, shortData, byteData, iidx, val);
+                    continue;
+                }
+                int dst;
+                if (intData != null) {
+                    dst = intData[iidx];
+                    if (opaque) {
+                        dst |= 0xff000000;
+                    }
+                    else if (pre) {
+                        dst = unpremultiply(dst);
+                    }
+                }
+                else if (shortData != null) {
+                    int sval = shortData[iidx];
+                    int r5 = (sval >> 11) & 0x1f;
+                    int g6 = (sval >> 5) & 0x3f;
+                    int b5 = sval & 0x1f;
+                    dst = 0xff000000 |
+                        (((r5 << 3) | (r5 >> 2)) << 16) |
+                        (((g6 << 2) | (g6 >> 4)) << 8) |
+                        ((b5 << 3) | (b5 >> 2));
+                }
+                else {
+                    int gray = byteData[iidx] & 0xff;
+                    dst = 0xff000000 | (gray << 16) | (gray << 8) | gray;
+                }
+                int val = composite(compositeRule, src, dst, cov, opaque);
+                store(intData, shortData, byteData, iidx,
+                      pre ? premultiply(val) : val);
+            }
+
+            paintOffset += paintScanlineStride;
+            imageOffset += imageScanlineStride;
+        }
+    }
+
+    /*
+     * Composite the ARGB colors src and dst, and interpolate from dst
+     * to the result by cov in [0, 256].  The result is ARGB, or
+     * opaque and premultiplied.
+     */
+    private static int composite(int rule, int src, int dst, int cov,
+                                 boolean opaque)
+    {
+        int sa = src >>> 24;
+        int da = dst >>> 24;
+        int fs, fd;
+        switch (rule) {
+        case RendererBase.COMPOSITE_CLEAR:
+            fs = 0;
+            fd = 0;
+            break;
+        case RendererBase.COMPOSITE_SRC:
+            fs = 255;
+            fd = 0;
+            break;
+        case RendererBase.COMPOSITE_SRC_OVER:
+            fs = 255;
+            fd = 255 - sa;
+            break;
+        case RendererBase.COMPOSITE_DST_OVER:
+            fs = 255 - da;
+            fd = 255;
+            break;
+        case RendererBase.COMPOSITE_SRC_IN:
+            fs = da;
+            fd = 0;
+            break;
+        case RendererBase.COMPOSITE_DST_IN:
+            fs = 0;
+            fd = sa;
+            break;
+        case RendererBase.COMPOSITE_SRC_OUT:
+            fs = 255 - da;
+            fd = 0;
+            break;
+        case RendererBase.COMPOSITE_DST_OUT:
+            fs = 0;
+            fd = 255 - sa;
+            break;
+        case RendererBase.COMPOSITE_SRC_ATOP:
+            fs = da;
+            fd = 255 - sa;
+            break;
+        case RendererBase.COMPOSITE_DST_ATOP:
+            fs = 255 - da;
+            fd = sa;
+            break;
+        case RendererBase.COMPOSITE_XOR:
+            fs = 255 - da;
+            fd = 255 - sa;
+            break;
+        default:
+            return dst;
+        }
+        /*
+         * Weights and alphas scaled by 255, premultiplied colors by
+         * 255 as well
+         */
+        int ws = fs*sa;
+        int wd = fd*da;
+        int oa = ws + wd;
+        int da255 = da*255;
+        oa = da255 + (((oa - da255)*cov) >> ALPHA_SHIFT);
+        if (oa <= 0) {
+            return opaque ? 0xff000000 : 0;
+        }
+        int result = opaque ? 0xff000000 : ((oa + 127)/255) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int sc = (src >> shift) & 0xff;
+            int dc = (dst >> shift) & 0xff;
+            int oc = (sc*ws + dc*wd + 127)/255;
+            int dpc = dc*da;
+            oc = dpc + (((oc - dpc)*cov) >> ALPHA_SHIFT);
+            if (opaque) {
+                oc = (oc + 127)/255;
+            }
+            else {
+                oc = (oc*255 + (oa >> 1))/oa;
+            }
+            if (oc > 255) {
+                oc = 255;
+            }
+            else if (oc < 0) {
+                oc = 0;
+            }
+            result |= oc << shift;
+        }
+        return result;
+    }
+
+    /*
+     * Conversions between ARGB and premultiplied ARGB
+     */
+    static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            return argb;
+        }
+        int r = (((argb >> 16) & 0xff)*a + 127)/255;
+        int g = (((argb >> 8) & 0xff)*a + 127)/255;
+        int b = ((argb & 0xff)*a + 127)/255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    static int unpremultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            return argb;
+        }
+        else if (a == 0) {
+            return 0;
+        }
+        int h = a >> 1;
+        int r = (((argb >> 16) & 0xff)*255 + h)/a;
+        int g = (((argb >> 8) & 0xff)*255 + h)/a;
+        int b = ((argb & 0xff)*255 + h)/a;
+        if (r > 255) {
+            r = 255;
+        }
+        if (g > 255) {
+            g = 255;
+        }
+        if (b > 255) {
+            b = 255;
+        }
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    static int toGray(int argb) {
+        int red = (argb >> 16) & 0xff;
+        int green = (argb >> 8) & 0xff;
+        int blue = argb & 0xff;
+        int gray = (int)(0.3f*red + 0.59f*green + 0.11f*blue + 0.5f);
+        return (argb & 0xff000000) | (gray << 16) | (gray << 8) | gray;
+    }
+
+    /*
+     * Store an ARGB result into one of the data arrays
+     */
+    private static void store(int[] intData, short[] shortData,
+                              byte[] byteData, int iidx, int argb)
+    {
+        if (intData != null) {
+            intData[iidx] = argb;
+        }
+        else if (shortData != null) {
+            shortData[iidx] =
+                (short)((convert8To5[(argb >> 16) & 0xff] << 11) |
+                        (convert8To6[(argb >> 8) & 0xff] << 5) |
+                        convert8To5[argb & 0xff]);
+        }
+        else {
+            byteData[iidx] = (byte)argb;
+        }
+    }
+
     private static final int TYPE_INT_RGB =
         Renderer.TYPE_INT_RGB;
     private static final int TYPE_INT_ARGB =
         Renderer.TYPE_INT_ARGB;
+    private static final int TYPE_INT_ARGB_PRE =
+        Renderer.TYPE_INT_ARGB_PRE;
     private static final int TYPE_USHORT_565_RGB =
         Renderer.TYPE_USHORT_565_RGB;
     private static final int TYPE_BYTE_GRAY =
@@ -577,6 +985,28 @@ public class Blit {
         }
     }
 
+    /*
+     * 8-bit blend against an ARGB color onto premultiplied ARGB.  The
+     * color scaled by aval is added to the destination scaled by the
+     * rest, without divisions.  Alpha and green, and red and blue,
+     * are blended in pairs in the 16 bit halves of one int: each half
+     * holds at most 255*256 + HALF_ALPHA, so no carry crosses them.
+     */
+    private static void blend8888Pre(int[] intData, int iidx,
+                                     int aval,
+                                     int sred, int sgreen, int sblue)
+    {
+        int ival = intData[iidx];
+        int ia = MAX_ALPHA - aval;
+
+        int ag = (((ival >>> 8) & 0xff00ff)*ia + (0xff0000 | sgreen)*aval +
+                  0x800080) & 0xff00ff00;
+        int rb = ((ival & 0xff00ff)*ia + ((sred << 16) | sblue)*aval +
+                  0x800080) >>> ALPHA_SHIFT;
+
+        intData[iidx] = ag | (rb & 0xff00ff);
+    }
+
     private static void blend565(short[] shortData, int iidx,
                                  int aval,
                                  int cred5, int cgreen6, int cblue5)
@@ -627,6 +1057,7 @@ public class Blit {
                                        int calpha, int[] alphaMap)
     {
         int cval = 0xff000000 | (cred << 16) | (cgreen << 8) | cblue;
+        NativeBlit kernels = (imagePixelStride == 1) ? nativeKernels : null;
 
         for (int j = 0; j < height; j++) {
             int minX = minTouched[j];
@@ -639,6 +1070,11 @@ public class Blit {
                 w = width - minX;
             }
 
+            if (kernels != null && w >= MIN_NATIVE_LENGTH) {
+                kernels.blendRow(intData, iidx, w, alpha, aidx, alphaMap,
+                                 cred, cgreen, cblue, false);
+                w = 0;
+            }
             for (int i = 0; i < w; i++, aidx++, iidx += imagePixelStride) {
                 int aval = alphaMap[alpha[aidx] & 0xff];
                 if (aval == 0) {
@@ -669,6 +1105,7 @@ public class Blit {
                                         int calpha, int[] alphaMap)
     {
         int cval = 0xff000000 | (cred << 16) | (cgreen << 8) | cblue;
+        NativeBlit kernels = (imagePixelStride == 1) ? nativeKernels : null;
 
         for (int j = 0; j < height; j++) {
             int minX = minTouched[j];
@@ -681,6 +1118,11 @@ public class Blit {
                 w = width - minX;
             }
 
+            if (kernels != null && w >= MIN_NATIVE_LENGTH) {
+                kernels.blendRow(intData, iidx, w, alpha, aidx, alphaMap,
+                                 cred, cgreen, cblue, true);
+                w = 0;
+            }
             for (int i = 0; i < w; i++, aidx++, iidx += imagePixelStride) {
                 int aval = alphaMap[alpha[aidx] & 0xff];
                 if (aval == 0) {
@@ -696,6 +1138,46 @@ public class Blit {
         }
     }
 
+    private static void blitSrcOver8888Pre(int[] intData,
+                                           int imageOffset,
+                                           int imageScanlineStride,
+                                           int imagePixelStride,
+                                           byte[] alpha,
+                                           int alphaOffset,
+                                           int width, int height,
+                                           int[] minTouched, int[] maxTouched,
+                                           int[] rowOffsets,
+                                           int cred, int cgreen, int cblue,
+                                           int calpha, int[] alphaMap)
+    {
+        int cval = 0xff000000 | (cred << 16) | (cgreen << 8) | cblue;
+
+        for (int j = 0; j < height; j++) {
+            int minX = minTouched[j];
+            int maxX = maxTouched[j];
+
+            int aidx = alphaOffset + rowOffsets[j] + minX;
+            int iidx = imageOffset + minX*imagePixelStride;
+            int w = (maxX >= minX) ? (maxX - minX + 1) : 0;
+            if (w + minX > width) {
+                w = width - minX;
+            }
+
+            for (int i = 0; i < w; i++, aidx++, iidx += imagePixelStride) {
+                int aval = alphaMap[alpha[aidx] & 0xff];
+                if (aval == 0) {
+                    continue;
+                } else if (aval == MAX_ALPHA) {
+                    intData[iidx] = cval;
+                } else {
+                    blend8888Pre(intData, iidx, aval, cred, cgreen, cblue);
+                }
+            }
+
+            imageOffset += imageScanlineStride;
+        }
+    }
+
     private static void blitSrcOver565(short[] shortData,
                                        int imageOffset,
                                        int imageScanlineStride,
@@ -899,6 +1381,61 @@ public class Blit {
             imageOffset += imageScanlineStride;
         }
     }
+    /*
+     * blit premultiplied 8888 w/ paint
+     */
+    private static void blitSrcOver8888Pre(int[] intData,
+                                           int imageOffset,
+                                           int imageScanlineStride,
+                                           int imagePixelStride,
+                                           byte[] alpha,
+                                           int alphaOffset,
+                                           int width, int height,
+                                           int[] minTouched, int[] maxTouched,
+                                           int[] rowOffsets,
+                                           int[] paintData,
+                                           int paintOffset,
+                                           int paintScanlineStride,
+                                           int[] alphaMap)
+    {
+        for (int j = 0; j < height; j++) {
+            int minX = minTouched[j];
+            int maxX = maxTouched[j];
+
+            int aidx = alphaOffset + rowOffsets[j] + minX;
+            int pidx = paintOffset + minX;
+            int iidx = imageOffset + minX*imagePixelStride;
+            int w = (maxX >= minX) ? (maxX - minX + 1) : 0;
+            if (w + minX > width) {
+                w = width - minX;
+            }
+            
+            for (int i = 0; i < w;
+                 i++, aidx++, pidx++, iidx += imagePixelStride) {
+                int aval = alphaMap[alpha[aidx] & 0xff];
+                int paint = paintData[pidx];
+                int calpha = (paint >> 24) & 0xff;
+                aval = (aval*calpha + 127)/255;
+
+                if (aval == 0) {
+                    continue;
+                }
+                else if (aval == MAX_ALPHA) {
+                    intData[iidx] = paint;
+                }
+                else {
+                    int cred = (paint >> 16) & 0xff;
+                    int cgreen = (paint >> 8) & 0xff;
+                    int cblue = paint & 0xff;
+                    
+                    blend8888Pre(intData, iidx, aval, cred, cgreen, cblue);
+                }
+            }
+
+            paintOffset += paintScanlineStride;
+            imageOffset += imageScanlineStride;
+        }
+    }
     /*
      * blit 565 w/ paint
      */
@@ -1025,6 +1562,146 @@ public class Blit {
         }
     }
 
+    /**
+     * Fill a horizontal span of pixels with a flat color, without an
+     * alpha plane.  aval is the coverage-scaled alpha in [0, 256];
+     * opaque spans are stored rather than blended.
+     */
+    public static void fillSpan(Object imageData, int imageType,
+                                int imageOffset,
+                                int imagePixelStride,
+                                int length,
+                                int red, int green, int blue,
+                                int aval)
+    {
+        if (aval == MIN_ALPHA) {
+            return;
+        }
+        switch(imageType){
+        case TYPE_INT_RGB:
+        case TYPE_INT_ARGB:
+        case TYPE_INT_ARGB_PRE: {
+            int[] intData = (int[])imageData;
+            NativeBlit kernels = (imagePixelStride == 1 &&
+                                  length >= MIN_NATIVE_LENGTH) ?
+                nativeKernels : null;
+            if (aval == MAX_ALPHA) {
+                int cval = 0xff000000 | (red << 16) | (green << 8) | blue;
+                for (int i = 0; i < length; i++) {
+                    intData[imageOffset] = cval;
+                    imageOffset += imagePixelStride;
+                }
+            }
+            else if (imageType == TYPE_INT_ARGB && kernels != null) {
+                /*
+                 * RGB spans of constant coverage are blended as fast
+                 * by the loop below
+                 */
+                kernels.blendSpan(intData, imageOffset, length, aval,
+                                  red, green, blue, true);
+            }
+            else if (imageType == TYPE_INT_RGB) {
+                for (int i = 0; i < length; i++) {
+                    blend888(intData, imageOffset, aval, red, green, blue);
+                    imageOffset += imagePixelStride;
+                }
+            }
+            else if (imageType == TYPE_INT_ARGB) {
+                for (int i = 0; i < length; i++) {
+                    blend8888(intData, imageOffset, aval, red, green, blue);
+                    imageOffset += imagePixelStride;
+                }
+            }
+            else {
+                for (int i = 0; i < length; i++) {
+                    blend8888Pre(intData, imageOffset, aval, red, green, blue);
+                    imageOffset += imagePixelStride;
+                }
+            }
+        }
+            break;
+        case TYPE_USHORT_565_RGB: {
+            short[] shortData = (short[])imageData;
+            if (aval == MAX_ALPHA) {
+                short cval = (short)((red << 11) | (green << 5) | blue);
+                for (int i = 0; i < length; i++) {
+                    shortData[imageOffset] = cval;
+                    imageOffset += imagePixelStride;
+                }
+            }
+            else {
+                for (int i = 0; i < length; i++) {
+                    blend565(shortData, imageOffset, aval, red, green, blue);
+                    imageOffset += imagePixelStride;
+                }
+            }
+        }
+            break;
+        case TYPE_BYTE_GRAY: {
+            byte[] byteData = (byte[])imageData;
+            int gray = (int)(0.3f*red + 0.59f*green + 0.11f*blue + 0.5f);
+            if (aval == MAX_ALPHA) {
+                byte cval = (byte)gray;
+                for (int i = 0; i < length; i++) {
+                    byteData[imageOffset] = cval;
+                    imageOffset += imagePixelStride;
+                }
+            }
+            else {
+                for (int i = 0; i < length; i++) {
+                    blend8(byteData, imageOffset, aval, gray);
+                    imageOffset += imagePixelStride;
+                }
+            }
+        }
+            break;
+        default:
+            throw new RuntimeException("Unknown image type!");
+        }
+    }
+
+    /*
+     * Blend a row of coverage encoded by PiscesCache with a flat
+     * color.  The row starts at rle[pos] and at imageOffset, and runs
+     * of full coverage have coverage fullAlpha.  Only the pixels minX
+     * to maxX of the row are written.  Each run is a span of constant
+     * coverage, filled when fully covered and opaque.
+     */
+    public static void blitRLE(Object imageData, int imageType,
+                               int imageOffset,
+                               int imagePixelStride,
+                               byte[] rle, int pos, int fullAlpha,
+                               int minX, int maxX,
+                               int red, int green, int blue,
+                               int[] alphaMap)
+    {
+        int x = 0;
+        while (x <= maxX) {
+            int header = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = rle[pos++];
+                header |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (header == 0) {
+                break;
+            }
+            int val = ((header & 1) != 0) ? fullAlpha : rle[pos++] & 0xff;
+            int end = x + (header >>> 1);
+            int x0 = (x > minX) ? x : minX;
+            int x1 = (end <= maxX) ? end : maxX + 1;
+            if (x1 > x0) {
+                fillSpan(imageData, imageType,
+                         imageOffset + x0*imagePixelStride,
+                         imagePixelStride, x1 - x0,
+                         red, green, blue, alphaMap[val]);
+            }
+            x = end;
+        }
+    }
+
     private static void blendLine(Object imageData, int imageType,
                                   int imageOffset,
                                   int imageStride,
@@ -1048,6 +1725,14 @@ public class Blit {
             }
         }
             break;
+        case TYPE_INT_ARGB_PRE: {
+            int[] intData = (int[])imageData;
+            for (int i = 0; i < length; i++) {
+                blend8888Pre(intData, imageOffset, alpha, red, green, blue);
+                imageOffset += imageStride;
+            }
+        }
+            break;
         case TYPE_USHORT_565_RGB: {
             short[] shortData = (short[])imageData;
             for (int i = 0; i < length; i++) {
@@ -1084,13 +1769,15 @@ public class Blit {
         }
     }
 
+    /*
+     * The color is in 5, 6 and 5 bits, as set by Renderer.setColor
+     */
     private static void clearRect565(short[] shortData, int imageOffset, 
                                      int imageScanlineStride, int imagePixelStride,
                                      int x, int y, int width, int height,
-                                     int calpha, int cred, int cgreen, int cblue)
+                                     int calpha, int cred5, int cgreen6, int cblue5)
     {
-        short cval = (short)((convert8To5[cred] << 11) | 
-                             (convert8To6[cgreen] << 5) | convert8To5[cblue]);
+        short cval = (short)((cred5 << 11) | (cgreen6 << 5) | cblue5);
         int scanlineSkip = imageScanlineStride - width * imagePixelStride;
         int iidx = imageOffset + y * imageScanlineStride + x * imagePixelStride;
         
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+/**
+ * An opaque BYTE GRAY {@link Surface$Sink}, in a quarter of the memory
+ * of INT ARGB, for grayscale images and masks.  Pixels read with
+ * {@link #getRGB} are opaque gray, and pixels written with
+ * {@link #setRGB} are stored as their luminance, without alpha.
+ */
+public class ByteSurface
+    extends Object
+    implements Surface.Sink.Byte
+{
+
+    private final int width;
+    private final int height;
+    private final byte[] data;
+
+
+    public ByteSurface(int width, int height) {
+        this(null, width, height);
+    }
+    public ByteSurface(byte[] data, int width, int height) {
+        super();
+        this.data = (data != null) ? data : new byte[width * height];
+        this.width = width;
+        this.height = height;
+    }
+
+
+    /**
+     * @see Surface
+     */
+    public final int getWidth() {
+        return width;
+    }
+    /**
+     * @see Surface
+     */
+    public final int getHeight() {
+        return height;
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public int getDataType(){
+
+        return TYPE_BYTE_GRAY;
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public byte[] getData() {
+
+        return data;
+    }
+    /**
+     * @see Surface
+     */
+    public final void getRGB(int[] argb, int offset, int scanLength,
+                             int x, int y, int width, int height)
+    {
+        int dstX = 0;
+        int dstY = 0;
+
+        if (x < 0) {
+            dstX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            dstY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += dstY * scanLength + dstX;
+
+            int srcOffset = y * this.width + x;
+            int srcScanRest = this.width - width;
+            int dstScanRest = scanLength - width;
+
+            for (; height > 0; --height) {
+
+                for (int w = width; w > 0; --w) {
+
+                    argb[offset++] = ToRGB(data[srcOffset++]);
+                }
+                srcOffset += srcScanRest;
+                offset += dstScanRest;
+            }
+        }
+    }
+    /**
+     * @see Surface
+     */
+    public final void setRGB(int[] argb, int offset, int scanLength,
+                             int x, int y, int width, int height)
+    {
+        int srcX = 0;
+        int srcY = 0;
+
+        if (x < 0) {
+            srcX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            srcY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += srcY * scanLength + srcX;
+
+            int dstOffset = y * this.width + x;
+            int srcScanRest = scanLength - width;
+            int dstScanRest = this.width - width;
+
+            for (; height > 0; --height) {
+
+                for (int w = width; w > 0; --w) {
+
+                    data[dstOffset++] = ToGray(argb[offset++]);
+                }
+                offset += srcScanRest;
+                dstOffset += dstScanRest;
+            }
+        }
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public void blit(Surface ps,
+                     int srcX, int srcY,
+                     int dstX, int dstY,
+                     int width, int height,
+                     float opacity)
+    {
+        int srcW = ps.getWidth();
+        int srcH = ps.getHeight();
+
+        if (srcX < 0) {
+            dstX -= srcX;
+            width += srcX;
+            srcX = 0;
+        }
+
+        if (srcY < 0) {
+            dstY -= srcY;
+            height += srcY;
+            srcY = 0;
+        }
+
+        if ((srcX + width) > srcW) {
+            width = srcW - srcX;
+        }
+
+        if ((srcY + height) > srcH) {
+            height = srcH - srcY;
+        }
+
+        if (dstX < 0) {
+            srcX -= dstX;
+            width += dstX;
+            dstX = 0;
+        }
+
+        if (dstY < 0) {
+            srcY -= dstY;
+            height += dstY;
+            dstY = 0;
+        }
+
+        if ((dstX + width) > this.width) {
+            width = this.width - dstX;
+        }
+
+        if ((dstY + height) > this.height) {
+            height = this.height - dstY;
+        }
+
+        if ((width <= 0) || (height <= 0) || (opacity == 0)) {
+
+            return;
+        }
+        else if (ps instanceof ByteSurface && opacity >= 1) {
+            /*
+             * Opaque pixels of the same type are copied
+             */
+            byte[] src = ((ByteSurface)ps).data;
+            int srcOffset = srcY * srcW + srcX;
+            int dstOffset = dstY * this.width + dstX;
+            for (; height > 0; --height) {
+                System.arraycopy(src, srcOffset, data, dstOffset, width);
+                srcOffset += srcW;
+                dstOffset += this.width;
+            }
+        }
+        else {
+            int[] srcRGB = new int[width * height];
+
+            ps.getRGB(srcRGB, 0, width, srcX, srcY, width, height);
+
+            this.blit(srcRGB, 0, width, dstX, dstY, width, height, opacity);
+        }
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public void blit(int[] argb, int offset, int scanLength,
+                     int x, int y, int width, int height, float opacity)
+    {
+        int srcX = 0;
+        int srcY = 0;
+
+        if (x < 0) {
+            srcX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            srcY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += srcY * scanLength + srcX;
+
+            int op = (int)(0x100 * opacity);
+
+            int dstOffset = y * this.width + x;
+            int srcScanRest = scanLength - width;
+            int dstScanRest = this.width - width;
+
+            for (; height > 0; --height) {
+
+                for (int w = width; w > 0; --w) {
+
+                    int srcVal = argb[offset++];
+                    int srcA = (((srcVal >> 24) & 0xff) * op) >> 8;
+
+                    if (srcA == 0xff) {
+
+                        data[dstOffset] = ToGray(srcVal);
+                    }
+                    else if (srcA != 0) {
+
+                        data[dstOffset] =
+                            ToGray(Blend(srcVal, ToRGB(data[dstOffset]), srcA));
+                    }
+                    dstOffset++;
+                }
+                offset += srcScanRest;
+                dstOffset += dstScanRest;
+            }
+        }
+    }
+    /**
+     * Opaque ARGB value of a gray pixel
+     */
+    private static int ToRGB(byte bval) {
+        int gray = bval & 0xff;
+        return (0xff000000 | (gray << 16) | (gray << 8) | gray);
+    }
+    /**
+     * Gray pixel of an ARGB value, without its alpha
+     */
+    private static byte ToGray(int argb) {
+        return (byte)Blit.toGray(argb);
+    }
+    /**
+     * Blend of the colors of src over the opaque dst, src weighing
+     * alpha in [0, 255]
+     */
+    private static int Blend(int src, int dst, int alpha) {
+        int gray = ((Blit.toGray(src) & 0xff) * alpha +
+                    (dst & 0xff) * (255 - alpha) + 127) / 255;
+        return (0xff000000 | (gray << 16) | (gray << 8) | gray);
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+
+/**
+ * Least recently used cache of coverage masks used by {@link
+ * Pisces#renderPath(PathStore,int)}.
+ *
+ * <p> A mask is keyed by a copy of everything its coverage depends
+ * on: the path segments, and the renderer state given by {@link
+ * Pisces} (transform, fill or stroke parameters, antialiasing and
+ * winding rule).  A lookup matches only if all of these are equal, so
+ * a stale mask is never returned.  Paint and color are not part of
+ * the key, since a mask may be rendered with any paint.  Neither is
+ * the integer part of the translation: masks are stored unclipped
+ * and moved to where they are drawn.
+ *
+ * <p> A path is cached the second time it is seen, so that paths
+ * drawn once do not displace the others.  Masks are evicted least
+ * recently used first once their size exceeds the budget.
+ *
+ * <p> A cache may be shared by several <code>Pisces</code> instances,
+ * on different threads.  Its masks are immutable and are drawn without
+ * holding its lock.
+ * Its masks may be saved with {@link #write(DataOutputStream)} and
+ * loaded at the next start with {@link #read(DataInputStream)}.
+ */
+public final class MaskCache {
+
+    /**
+     * Version of the format written by {@link #write(DataOutputStream)}
+     */
+    public static final int FORMAT_VERSION = 1;
+    /*
+     * "PMCH"
+     */
+    private static final int MAGIC = 0x504d4348;
+
+    public static final int DEFAULT_BUDGET = 1024*1024;
+    /*
+     * Number of recently missed keys remembered for admission
+     */
+    private static final int SEEN_SIZE = 64;
+    /*
+     * Estimated size of the objects of an entry besides its arrays
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+
+    private final Hashtable<Key,Entry> entries = new Hashtable<Key,Entry>();
+    /*
+     * Entries from most to least recently used
+     */
+    private Entry head, tail;
+
+    private int budget;
+    private int size = 0;
+
+    private final int[] seen = new int[SEEN_SIZE];
+    private int seenNext = 0;
+
+    private final Key probe = new Key();
+
+
+    public MaskCache() {
+        this(DEFAULT_BUDGET);
+    }
+    /**
+     * @param budget Maximum size of the cached masks and their keys,
+     * in bytes
+     */
+    public MaskCache(int budget) {
+        super();
+        setBudget(budget);
+    }
+
+
+    public synchronized void setBudget(int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Invalid budget");
+        }
+        this.budget = budget;
+        evict();
+    }
+    public synchronized int getBudget() {
+        return budget;
+    }
+    /**
+     * @return Size of the cached masks and their keys, in bytes
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+    public synchronized int getCount() {
+        return entries.size();
+    }
+    public synchronized void clear() {
+        entries.clear();
+        head = tail = null;
+        size = 0;
+        for (int i = 0; i < SEEN_SIZE; i++) {
+            seen[i] = 0;
+        }
+    }
+
+    /**
+     * Write the cached masks and their keys to a stream, least
+     * recently used first.
+     */
+    public synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(entries.size());
+        for (Entry entry = tail; entry != null; entry = entry.prev) {
+            entry.key.write(out);
+            entry.mask.write(out);
+        }
+    }
+    /**
+     * Add the masks written by {@link #write(DataOutputStream)} to
+     * this cache, as the most recently used.  Masks beyond the budget
+     * are evicted as they are added.
+     *
+     * @exception IllegalArgumentException The data is not a mask
+     * cache of this format version.
+     */
+    public synchronized void read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Unrecognized mask cache format");
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported mask cache format version "+version);
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Key key = Key.read(in);
+            put(key, PiscesMask.read(in));
+        }
+    }
+
+    /*
+     * Look up the mask of a path rendered with the given state
+     */
+    synchronized PiscesMask get(PathStore path, double[] state, int stateLen)
+    {
+        probe.set(path, state, stateLen);
+        Entry entry = entries.get(probe);
+        probe.clear();
+        if (entry == null) {
+            return null;
+        }
+        unlink(entry);
+        link(entry);
+        return entry.mask;
+    }
+
+    /*
+     * True if the path was missed recently, false after remembering it
+     */
+    synchronized boolean admit(PathStore path, double[] state, int stateLen) {
+        int hash = Key.hash(path, state, stateLen);
+        for (int i = 0; i < SEEN_SIZE; i++) {
+            if (seen[i] == hash) {
+                seen[i] = 0;
+                return true;
+            }
+        }
+        seen[seenNext] = hash;
+        seenNext = (seenNext + 1) % SEEN_SIZE;
+        return false;
+    }
+
+    synchronized void put(PathStore path, double[] state, int stateLen,
+                          PiscesMask mask)
+    {
+        Key key = new Key();
+        key.copy(path, state, stateLen);
+        put(key, mask);
+    }
+
+    private void put(Key key, PiscesMask mask) {
+        Entry entry = new Entry(key, mask);
+        if (entry.size > budget) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            unlink(old);
+            size -= old.size;
+        }
+        link(entry);
+        size += entry.size;
+        evict();
+    }
+
+    private void evict() {
+        while (size > budget && tail != null) {
+            Entry entry = tail;
+            unlink(entry);
+            entries.remove(entry.key);
+            size -= entry.size;
+        }
+    }
+
+    private void link(Entry entry) {
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        head = entry;
+        if (tail == null) {
+            tail = entry;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        }
+        else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        else {
+            tail = entry.prev;
+        }
+        entry.prev = entry.next = null;
+    }
+
+
+    private static final class Entry {
+
+        final Key key;
+        final PiscesMask mask;
+        final int size;
+        Entry prev, next;
+
+        Entry(Key key, PiscesMask mask) {
+            this.key = key;
+            this.mask = mask;
+            this.size = key.size() + mask.size() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /*
+     * Path segments and renderer state.  Lookups use a key referring
+     * to the arrays of the path, stored keys hold copies.
+     */
+    private static final class Key {
+
+        private byte[] types;
+        private int typesLen;
+        private double[] data;
+        private int dataLen;
+        private double[] state;
+        private int stateLen;
+        private int hash;
+
+        void set(PathStore path, double[] state, int stateLen) {
+            this.types = path.getTypes();
+            this.typesLen = path.getTypesLength();
+            this.data = path.getData();
+            this.dataLen = path.getDataLength();
+            this.state = state;
+            this.stateLen = stateLen;
+            this.hash = hash(types, typesLen, data, dataLen, state, stateLen);
+        }
+
+        void copy(PathStore path, double[] state, int stateLen) {
+            set(path, state, stateLen);
+            byte[] types = new byte[typesLen];
+            System.arraycopy(this.types, 0, types, 0, typesLen);
+            double[] data = new double[dataLen];
+            System.arraycopy(this.data, 0, data, 0, dataLen);
+            double[] copy = new double[stateLen];
+            System.arraycopy(state, 0, copy, 0, stateLen);
+            this.types = types;
+            this.data = data;
+            this.state = copy;
+        }
+
+        void clear() {
+            this.types = null;
+            this.data = null;
+            this.state = null;
+        }
+
+        int size() {
+            return typesLen + 8*dataLen + 8*stateLen;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(typesLen);
+            out.write(types, 0, typesLen);
+            out.writeInt(dataLen);
+            for (int i = 0; i < dataLen; i++) {
+                out.writeDouble(data[i]);
+            }
+            out.writeInt(stateLen);
+            for (int i = 0; i < stateLen; i++) {
+                out.writeDouble(state[i]);
+            }
+        }
+
+        static Key read(DataInputStream in) throws IOException {
+            Key key = new Key();
+            key.typesLen = readLength(in);
+            key.types = new byte[key.typesLen];
+            in.readFully(key.types);
+            key.dataLen = readLength(in);
+            key.data = new double[key.dataLen];
+            for (int i = 0; i < key.dataLen; i++) {
+                key.data[i] = in.readDouble();
+            }
+            key.stateLen = readLength(in);
+            key.state = new double[key.stateLen];
+            for (int i = 0; i < key.stateLen; i++) {
+                key.state[i] = in.readDouble();
+            }
+            key.hash = hash(key.types, key.typesLen, key.data, key.dataLen,
+                            key.state, key.stateLen);
+            return key;
+        }
+
+        private static int readLength(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IllegalArgumentException("Mask cache format error");
+            }
+            return length;
+        }
+
+        static int hash(PathStore path, double[] state, int stateLen) {
+            return hash(path.getTypes(), path.getTypesLength(),
+                        path.getData(), path.getDataLength(),
+                        state, stateLen);
+        }
+
+        private static int hash(byte[] types, int typesLen,
+                                double[] data, int dataLen,
+                                double[] state, int stateLen)
+        {
+            int h = typesLen;
+            for (int i = 0; i < typesLen; i++) {
+                h = 31*h + types[i];
+            }
+            for (int i = 0; i < dataLen; i++) {
+                h = 31*h + hash(data[i]);
+            }
+            for (int i = 0; i < stateLen; i++) {
+                h = 31*h + hash(state[i]);
+            }
+            return h;
+        }
+
+        private static int hash(double value) {
+            long bits = Double.doubleToLongBits(value);
+            return (int)(bits ^ (bits >>> 32));
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key)o;
+            if (hash != that.hash ||
+                typesLen != that.typesLen ||
+                dataLen != that.dataLen ||
+                stateLen != that.stateLen)
+            {
+                return false;
+            }
+            for (int i = 0; i < typesLen; i++) {
+                if (types[i] != that.types[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < dataLen; i++) {
+                if (Double.doubleToLongBits(data[i]) !=
+                    Double.doubleToLongBits(that.data[i])) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < stateLen; i++) {
+                if (Double.doubleToLongBits(state[i]) !=
+                    Double.doubleToLongBits(that.state[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import com.codename1.system.NativeInterface;
+
+/**
+ * Blend kernels of the platform, used by {@link Blit} and
+ * {@link NativeSurface} in place of their portable loops where
+ * supported.  Each kernel blends one row of consecutive pixels.
+ *
+ * @see Blit#setNativeKernels(boolean)
+ */
+public interface NativeBlit extends NativeInterface {
+
+    /**
+     * SRC_OVER blend of a flat color onto length pixels of data.  The
+     * coverage of each pixel is alphaMap[alpha[alphaOffset + i] &amp;
+     * 0xff], in [0, 256].
+     *
+     * @param hasAlpha True for ARGB pixels, false for RGB pixels
+     */
+    public void blendRow(int[] data, int offset, int length,
+                         byte[] alpha, int alphaOffset, int[] alphaMap,
+                         int red, int green, int blue,
+                         boolean hasAlpha);
+
+    /**
+     * SRC_OVER blend of a flat color onto length pixels of data, all
+     * with the same coverage, in [0, 256].
+     *
+     * @param hasAlpha True for ARGB pixels, false for RGB pixels
+     */
+    public void blendSpan(int[] data, int offset, int length,
+                          int coverage,
+                          int red, int green, int blue,
+                          boolean hasAlpha);
+
+    /**
+     * SRC_OVER blend of length ARGB pixels of src onto the ARGB pixels
+     * of dst.
+     *
+     * @param opacity Opacity of src, in [0, 256]
+     */
+    public void drawRow(int[] dst, int dstOffset,
+                        int[] src, int srcOffset,
+                        int length, int opacity);
+}
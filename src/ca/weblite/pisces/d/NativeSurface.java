@@ -24,7 +24,10 @@
 package ca.weblite.pisces.d;
 
 /**
- * An INT ARGB {@link Surface$Sink}.
+ * An INT ARGB {@link Surface$Sink}, with pixels optionally
+ * premultiplied by their alpha.  Premultiplied pixels blend without
+ * divisions, and are converted only when read or written as ARGB
+ * with {@link #getRGB} and {@link #setRGB}.
  */
 public class NativeSurface 
     extends Object
@@ -35,16 +38,50 @@ public class NativeSurface
     private final int width;
     private final int height;
     private final int[] data;
+    private final int dataType;
+    /*
+     * Position of the first pixel in data, and distance between rows
+     */
+    private final int offset;
+    private final int scanLength;
 
 
     public NativeSurface(int width, int height) {
         this(null, width, height);
     }
     public NativeSurface(int[] data, int width, int height) {
+        this(data, width, height, TYPE_INT_ARGB);
+    }
+    /**
+     * @param dataType One of <code>TYPE_INT_ARGB</code> and
+     * <code>TYPE_INT_ARGB_PRE</code>.
+     * @exception IllegalArgumentException Unsupported data type.
+     */
+    public NativeSurface(int[] data, int width, int height, int dataType) {
         super();
+        if (dataType != TYPE_INT_ARGB && dataType != TYPE_INT_ARGB_PRE) {
+            throw new IllegalArgumentException("Unsupported data type");
+        }
         this.data = (data != null) ? data : new int[width * height];
         this.width = width;
         this.height = height;
+        this.dataType = dataType;
+        this.offset = 0;
+        this.scanLength = width;
+    }
+    /*
+     * View of a region of the parent surface
+     */
+    private NativeSurface(NativeSurface parent,
+                          int x, int y, int width, int height)
+    {
+        super();
+        this.data = parent.data;
+        this.width = width;
+        this.height = height;
+        this.dataType = parent.dataType;
+        this.offset = parent.offset + y * parent.scanLength + x;
+        this.scanLength = parent.scanLength;
     }
 
     
@@ -66,7 +103,10 @@ public class NativeSurface
      */
     public int getDataType(){
 
-        return TYPE_INT_ARGB;
+        return dataType;
+    }
+    public final boolean isPremultiplied() {
+        return (dataType == TYPE_INT_ARGB_PRE);
     }    
     /**
      * @see Surface$Sink
@@ -75,6 +115,36 @@ public class NativeSurface
 
         return data;
     }
+    /**
+     * @return Index of the pixel at (0, 0) in the data array.  Zero,
+     * except in views.
+     */
+    public final int getOffset() {
+        return offset;
+    }
+    /**
+     * @return Distance between rows in the data array.  The width,
+     * except in views.
+     */
+    public final int getScanLength() {
+        return scanLength;
+    }
+    /**
+     * A surface over a region of this one, sharing its pixels.  What
+     * is drawn on the view is drawn in place on this surface, and the
+     * view clips to its own bounds.
+     *
+     * @exception IllegalArgumentException Region not within this
+     * surface.
+     */
+    public NativeSurface createView(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width < 0 || height < 0 ||
+            width > this.width - x || height > this.height - y)
+        {
+            throw new IllegalArgumentException("Invalid view");
+        }
+        return new NativeSurface(this, x, y, width, height);
+    }
     /**
      * @see Surface
      */
@@ -82,8 +152,8 @@ public class NativeSurface
                              int x, int y, int width, int height)
     {
         if ((argb == data) &&
-            (offset == 0) &&
-            (scanLength == this.width) &&
+            (offset == this.offset) &&
+            (scanLength == this.scanLength) &&
             (x == 0) && (y == 0) && 
             (width == this.width) &&
             (height == this.height))
@@ -119,8 +189,13 @@ public class NativeSurface
                 offset += dstY * scanLength + dstX;    
 
                 Copy(argb, offset, scanLength, 
-                     data, y * this.width + x, this.width, 
+                     data, this.offset + y * this.scanLength + x,
+                     this.scanLength,
                      width, height);
+
+                if (dataType == TYPE_INT_ARGB_PRE) {
+                    Convert(argb, offset, scanLength, width, height, false);
+                }
             }
         }
     }
@@ -131,8 +206,8 @@ public class NativeSurface
                              int x, int y, int width, int height)
     {
         if ((argb == data) &&
-            (offset == 0) &&
-            (scanLength == this.width) &&
+            (offset == this.offset) &&
+            (scanLength == this.scanLength) &&
             (x == 0) && (y == 0) &&
             (width == this.width) &&
             (height == this.height))
@@ -167,9 +242,16 @@ public class NativeSurface
 
                 offset += srcY * scanLength + srcX;    
 
-                Copy(data, y * this.width + x, this.width,
+                Copy(data, this.offset + y * this.scanLength + x,
+                     this.scanLength,
                      argb, offset, scanLength, 
                      width, height);
+
+                if (dataType == TYPE_INT_ARGB_PRE) {
+                    Convert(data, this.offset + y * this.scanLength + x,
+                            this.scanLength,
+                            width, height, true);
+                }
             }
         }
     }
@@ -212,12 +294,14 @@ public class NativeSurface
 
             return;
 
-        else if (ps instanceof NativeSurface) {
+        else if (ps instanceof NativeSurface &&
+                 ((NativeSurface)ps).dataType == this.dataType) {
 
             NativeSurface ns = (NativeSurface)ps;                
 
-            this.blit( ns.getData(), srcY * srcW + srcX, srcW, dstX, dstY, 
-                       width, height, opacity);
+            this.blit( ns.data, ns.offset + srcY * ns.scanLength + srcX,
+                       ns.scanLength, dstX, dstY, 
+                       width, height, opacity, true);
         }
         else {
             if (dstX < 0) {
@@ -256,6 +340,17 @@ public class NativeSurface
      */
     public void blit(int[] argb, int offset, int scanLength, 
                      int x, int y, int width, int height, float opacity)
+    {
+        this.blit(argb, offset, scanLength, x, y, width, height, opacity,
+                  false);
+    }
+    /*
+     * Blit pixels in ARGB, or in the data type of this surface if
+     * native is true
+     */
+    private void blit(int[] argb, int offset, int scanLength, 
+                      int x, int y, int width, int height, float opacity,
+                      boolean nativeType)
     {
         int srcX = 0;
         int srcY = 0;
@@ -284,18 +379,27 @@ public class NativeSurface
 
             offset += srcY * scanLength + srcX;
 
-            Draw(data, y * this.width + x, this.width,
-                 argb, offset, scanLength, 
-                 width, height, opacity);
+            if (dataType == TYPE_INT_ARGB_PRE) {
+                DrawPre(data, this.offset + y * this.scanLength + x,
+                        this.scanLength,
+                        argb, offset, scanLength, 
+                        width, height, opacity, nativeType);
+            }
+            else {
+                Draw(data, this.offset + y * this.scanLength + x,
+                     this.scanLength,
+                     argb, offset, scanLength, 
+                     width, height, opacity);
+            }
         }
     }
     
     /**
      * Pixel copy procedure
      */
-    private static void Copy(int[] dstRGB, int dstOffset, int dstScanLength,
-                             int[] srcRGB, int srcOffset, int srcScanLength,
-                             int width, int height)
+    static void Copy(int[] dstRGB, int dstOffset, int dstScanLength,
+                     int[] srcRGB, int srcOffset, int srcScanLength,
+                     int width, int height)
     {
         int srcScanRest = srcScanLength - width;
         int dstScanRest = dstScanLength - width;
@@ -313,17 +417,27 @@ public class NativeSurface
     /**
      * Pixel copy / alpha- blend procedure
      */
-    private static void Draw(int[] dstRGB, int dstOffset, int dstScanLength,
-                             int[] srcRGB, int srcOffset, int srcScanLength,
-                             int width, int height, float opacity)
+    static void Draw(int[] dstRGB, int dstOffset, int dstScanLength,
+                     int[] srcRGB, int srcOffset, int srcScanLength,
+                     int width, int height, float opacity)
     {
         int srcScanRest = srcScanLength - width;
         int dstScanRest = dstScanLength - width;
 
         int op = (int)(0x100 * opacity);
 
+        NativeBlit kernels = (width >= Blit.MIN_NATIVE_LENGTH) ?
+            Blit.getNativeKernels() : null;
+
         for (; height > 0; --height) {
 
+            if (kernels != null) {
+                kernels.drawRow(dstRGB, dstOffset, srcRGB, srcOffset,
+                                width, op);
+                srcOffset += srcScanLength;
+                dstOffset += dstScanLength;
+                continue;
+            }
             for (int w = width; w > 0; --w) {
 
                 int srcA = ((srcRGB[srcOffset] >> 24) & 0xff) * op;
@@ -371,4 +485,88 @@ public class NativeSurface
             dstOffset += dstScanRest;
         }
     }
+    /**
+     * Pixel conversion procedure, to premultiplied ARGB or back
+     */
+    static void Convert(int[] rgb, int offset, int scanLength,
+                        int width, int height, boolean premultiply)
+    {
+        int scanRest = scanLength - width;
+
+        for (; height > 0; --height) {
+
+            for (int w = width; w > 0; --w) {
+
+                int val = rgb[offset];
+                rgb[offset++] = premultiply ? Blit.premultiply(val) :
+                    Blit.unpremultiply(val);
+            }
+            offset += scanRest;
+        }
+    }
+    /**
+     * Pixel copy / alpha- blend procedure onto premultiplied pixels.
+     * The source is scaled by its alpha and added to the destination
+     * scaled by the rest, without divisions.
+     */
+    static void DrawPre(int[] dstRGB, int dstOffset, int dstScanLength,
+                        int[] srcRGB, int srcOffset, int srcScanLength,
+                        int width, int height, float opacity,
+                        boolean srcPremultiplied)
+    {
+        int srcScanRest = srcScanLength - width;
+        int dstScanRest = dstScanLength - width;
+
+        int op = (int)(0x100 * opacity);
+
+        for (; height > 0; --height) {
+
+            for (int w = width; w > 0; --w) {
+
+                int srcVal = srcRGB[srcOffset++];
+                int srcA = ((srcVal >> 24) & 0xff) * op;
+
+                if (srcA == 0xff00) {
+
+                    dstRGB[dstOffset] = srcVal;
+                }
+                else if (srcA != 0) {
+                    /*
+                     * Color weight of the source in 16 bits, so
+                     * that (c * f) >> 16 scales c by its alpha and
+                     * the opacity
+                     */
+                    int f = srcPremultiplied ? (op << 8) :
+                        srcA + (srcA >> 8);
+                    int sa = (srcA + 0x80) >> 8;
+                    int fd = (255 - sa) * 257;
+
+                    int dstVal = dstRGB[dstOffset];
+
+                    int oalpha = sa +
+                        (((dstVal >>> 24) * fd + 0x8000) >> 16);
+
+                    int ored = ((((srcVal >> 16) & 0xff) * f + 0x8000) >> 16) +
+                        ((((dstVal >> 16) & 0xff) * fd + 0x8000) >> 16);
+
+                    int ogreen = ((((srcVal >> 8) & 0xff) * f + 0x8000) >> 16) +
+                        ((((dstVal >> 8) & 0xff) * fd + 0x8000) >> 16);
+
+                    int oblue = (((srcVal & 0xff) * f + 0x8000) >> 16) +
+                        (((dstVal & 0xff) * fd + 0x8000) >> 16);
+
+                    if (oalpha > 255) {
+                        oalpha = 255;
+                    }
+                    dstRGB[dstOffset] = ((oalpha << 24) | 
+                                         (Math.min(ored, oalpha) << 16) |
+                                         (Math.min(ogreen, oalpha) << 8) | 
+                                         Math.min(oblue, oalpha));
+                }
+                ++dstOffset;
+            }
+            srcOffset += srcScanRest;
+            dstOffset += dstScanRest;
+        }
+    }
 }
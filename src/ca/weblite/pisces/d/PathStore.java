@@ -239,6 +239,21 @@ public class PathStore
     }
     public void dispose(){
     }
+    /*
+     * Segment types and coordinates, for mask cache keys
+     */
+    byte[] getTypes() {
+        return pathTypes;
+    }
+    int getTypesLength() {
+        return tindex;
+    }
+    double[] getData() {
+        return pathData;
+    }
+    int getDataLength() {
+        return dindex;
+    }
     protected void ensureCapacity(int elements) {
 
         final int grow = (elements<<1);
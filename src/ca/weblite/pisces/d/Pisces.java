@@ -79,6 +79,10 @@ public final class Pisces
     }
 
     private static final double acv = 0.22385762508460333;
+    /*
+     * Number of sub-pixel positions a cached mask is reused at
+     */
+    private static final int MASK_PHASES = 4;
 
 
     private Surface.Sink surface;
@@ -133,6 +137,12 @@ public final class Pisces
     private Transformer strokeTransformer = new Transformer();
 
     private boolean antialiasingOn = true;
+    private int antialiasingLgX = RendererBase.DEFAULT_SUBPIXEL_LG_POSITIONS_X;
+    private int antialiasingLgY = RendererBase.DEFAULT_SUBPIXEL_LG_POSITIONS_Y;
+    private int antialiasingMode = RendererBase.AA_SUPERSAMPLE;
+
+    private MaskCache maskCache = null;
+    private double[] maskKeyState = new double[32];
 
 
     public Pisces(Surface.Sink surface){
@@ -142,12 +152,23 @@ public final class Pisces
             this.width = surface.getWidth();
             this.height = surface.getHeight();
             /*
-             * offset = 0
-             * scanlineStride = surface.getWidth()
+             * offset = 0, or that of a view
+             * scanlineStride = surface.getWidth(), or that of a view
              * pixelStride = 1
              */
-            this.rdr = new Renderer(surface.getData(), this.width, this.height,
-                                    0, this.width, 1, surface.getDataType());
+            if (surface instanceof TiledSurface){
+                this.rdr = new Renderer((TiledSurface)surface);
+            }
+            else if (surface instanceof NativeSurface){
+                NativeSurface ns = (NativeSurface)surface;
+                this.rdr = new Renderer(ns.getData(), this.width, this.height,
+                                        ns.getOffset(), ns.getScanLength(), 1,
+                                        ns.getDataType());
+            }
+            else {
+                this.rdr = new Renderer(surface.getData(), this.width, this.height,
+                                        0, this.width, 1, surface.getDataType());
+            }
 
             this.invalidate();
             this.setFill();
@@ -258,15 +279,135 @@ public final class Pisces
     {
         this.surface.blit(argb,offset,scan,x,y,w,h,opacity);
     }
+    /**
+     * Turning antialiasing back on restores the most recent quality
+     * level other than <code>RendererBase.QUALITY_NONE</code>.
+     */
     public void setAntialiasing(boolean antialiasingOn) {
-        this.antialiasingOn = antialiasingOn;
-        int samples = antialiasingOn ? 3 : 0;
-        this.rdr.setAntialiasing(samples, samples);
-        this.invalidate();
+        if (antialiasingOn) {
+            this.setAntialiasing(antialiasingLgX, antialiasingLgY);
+        }
+        else {
+            this.setAntialiasing(RendererBase.QUALITY_NONE,
+                                 RendererBase.QUALITY_NONE);
+        }
     }
     public boolean getAntialiasing() {
         return this.antialiasingOn;
     }
+    /**
+     * @param quality One of RendererBase.QUALITY_*
+     */
+    public void setAntialiasingQuality(int quality) {
+        switch (quality) {
+        case RendererBase.QUALITY_NONE:
+        case RendererBase.QUALITY_4X4:
+        case RendererBase.QUALITY_8X8:
+        case RendererBase.QUALITY_16X16:
+            this.setAntialiasing(quality, quality);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown antialiasing quality");
+        }
+    }
+    /**
+     * Set the number of subpixel positions per axis, as base 2 logs
+     * from 0 to RendererBase.MAX_SUBPIXEL_LG_POSITIONS.  The axes may
+     * differ, e.g. (2, 4) samples 4 columns by 16 rows.
+     */
+    public void setAntialiasing(int subpixelLgPositionsX,
+                                int subpixelLgPositionsY)
+    {
+        if (subpixelLgPositionsX < 0 ||
+            subpixelLgPositionsX > RendererBase.MAX_SUBPIXEL_LG_POSITIONS ||
+            subpixelLgPositionsY < 0 ||
+            subpixelLgPositionsY > RendererBase.MAX_SUBPIXEL_LG_POSITIONS)
+        {
+            throw new IllegalArgumentException("Invalid antialiasing level");
+        }
+        this.antialiasingOn = (subpixelLgPositionsX != 0 ||
+                               subpixelLgPositionsY != 0);
+        if (antialiasingOn) {
+            this.antialiasingLgX = subpixelLgPositionsX;
+            this.antialiasingLgY = subpixelLgPositionsY;
+        }
+        this.rdr.setAntialiasingMode(antialiasingOn ? antialiasingMode :
+                                     RendererBase.AA_SUPERSAMPLE);
+        this.rdr.setAntialiasing(subpixelLgPositionsX, subpixelLgPositionsY);
+        this.invalidate();
+    }
+    public int getSubpixelLgPositionsX() {
+        return this.rdr.getSubpixelLgPositionsX();
+    }
+    public int getSubpixelLgPositionsY() {
+        return this.rdr.getSubpixelLgPositionsY();
+    }
+    /**
+     * Select how coverage is computed while antialiasing is on.
+     * @param antialiasingMode One of RendererBase.AA_*
+     */
+    public void setAntialiasingMode(int antialiasingMode) {
+        if (antialiasingMode != RendererBase.AA_SUPERSAMPLE &&
+            antialiasingMode != RendererBase.AA_EXACT_AREA)
+        {
+            throw new IllegalArgumentException("Unknown antialiasing mode");
+        }
+        this.antialiasingMode = antialiasingMode;
+        this.rdr.setAntialiasingMode(antialiasingOn ? antialiasingMode :
+                                     RendererBase.AA_SUPERSAMPLE);
+        this.invalidate();
+    }
+    public int getAntialiasingMode() {
+        return this.antialiasingMode;
+    }
+    /**
+     * @param scanMode One of RendererBase.SCAN_*
+     */
+    public void setScanMode(int scanMode) {
+        this.rdr.setScanMode(scanMode);
+    }
+    public int getScanMode() {
+        return this.rdr.getScanMode();
+    }
+    /**
+     * Sets the number of threads used to rasterize large filled
+     * primitives with a flat color.  Each thread renders separate
+     * bands of rows, with the same result as a single thread.  The
+     * threads besides the calling one are kept between primitives,
+     * and end when idle for a second or on {@link #dispose()}.
+     * Default is 1, rendering on the calling thread only.
+     *
+     * <p> Only primitives of at least
+     * <code>Renderer.MIN_PARALLEL_EDGES</code> edges, and twice
+     * <code>Renderer.MIN_PARALLEL_BAND_ROWS</code> rows, are split;
+     * any composite rule may be.  The rest are rendered serially on
+     * the calling thread: primitives with a paint, primitives
+     * recorded into a {@link PiscesCache}, and everything drawn from
+     * a cache or mask, including paths drawn or recorded through the
+     * mask cache.  The speedup on several cores has not been
+     * measured.
+     *
+     * @param parallelism Number of threads, at least 1
+     */
+    public void setParallelism(int parallelism) {
+        this.rdr.setParallelism(parallelism);
+    }
+    public int getParallelism() {
+        return this.rdr.getParallelism();
+    }
+    /**
+     * Sets the Porter-Duff rule compositing drawn primitives with the
+     * destination.  Default is COMPOSITE_SRC_OVER.
+     *
+     * @param compositeRule One of RendererBase.COMPOSITE_*
+     * @exception IllegalArgumentException Unknown composite rule.
+     */
+    public void setCompositeRule(int compositeRule) {
+        this.rdr.setCompositeRule(compositeRule);
+    }
+    public int getCompositeRule() {
+        return this.rdr.getCompositeRule();
+    }
     public Color getColor(){
         return this.color;
     }
@@ -548,6 +689,184 @@ public final class Pisces
         else 
             this.renderPath(commands, coords, windingRule);
     }
+    /**
+     * Sets the mask cache used by {@link #renderPath(PathStore,int)}.
+     * There is none by default, since cached masks are drawn at the
+     * translation rounded to a quarter pixel, which moves paths from
+     * where they are drawn uncached.
+     *
+     * @param maskCache Mask cache, possibly shared with other
+     * instances, or <code>null</code> for no caching.
+     */
+    public void setMaskCache(MaskCache maskCache) {
+        this.maskCache = maskCache;
+    }
+    public MaskCache getMaskCache() {
+        return this.maskCache;
+    }
+    /**
+     * Render a cached mask moved by (dx, dy) pixels, clipped to the
+     * current clip rectangle and the destination image bounds.  A
+     * mask rendered without clipping may be drawn anywhere this way,
+     * and a cache recorded at any antialiasing level or mode is drawn
+     * as it was recorded.
+     *
+     * @param cache Valid rendering cache.
+     * @param dx Horizontal offset in pixels.
+     * @param dy Vertical offset in pixels.
+     */
+    public void renderFromCache(PiscesCache cache, int dx, int dy) {
+        this.renderMask(cache.getMask(), dx, dy);
+    }
+    /**
+     * Render a mask moved by (dx, dy) pixels, clipped to the current
+     * clip rectangle and the destination image bounds.  Masks are
+     * immutable, and may be rendered by several instances at once.
+     *
+     * @param mask Mask to render.
+     * @param dx Horizontal offset in pixels.
+     * @param dy Vertical offset in pixels.
+     */
+    public void renderMask(PiscesMask mask, int dx, int dy) {
+        double minX = Math.max(0, this.bbMinX);
+        double minY = Math.max(0, this.bbMinY);
+        double maxX = Math.min(this.width, this.bbMaxX);
+        double maxY = Math.min(this.height, this.bbMaxY);
+        int x0 = (int)Math.floor(minX);
+        int y0 = (int)Math.floor(minY);
+        this.rdr.renderFromMask(mask, dx, dy, x0, y0,
+                                (int)Math.ceil(maxX) - x0,
+                                (int)Math.ceil(maxY) - y0);
+    }
+    /**
+     * Render a path with the current fill or stroke.  When a mask
+     * cache is set, the coverage mask of a path drawn repeatedly is
+     * rendered from the cache.  The cache is keyed by the path and
+     * every setting affecting its coverage, so it needs no manual
+     * invalidation.
+     *
+     * <p> Masks are keyed by the translation of the transform
+     * rounded to a quarter pixel, modulo one pixel, and are drawn
+     * moved to the integer part of the translation.  A shape drawn
+     * at different positions, as a marker or glyph, is rasterized
+     * once per sub-pixel phase, and may be drawn up to an eighth of
+     * a pixel from its exact position.  Masks cut by the clip are not
+     * cached.
+     *
+     * @param path Path to render
+     * @param windingRule Render fill rule, one of WIND_*.
+     */
+    public void renderPath(PathStore path, int windingRule) {
+        MaskCache masks = this.maskCache;
+        Matrix t = this.transform;
+        double minX = Math.max(0, this.bbMinX);
+        double minY = Math.max(0, this.bbMinY);
+        double maxX = Math.min(this.width, this.bbMaxX);
+        double maxY = Math.min(this.height, this.bbMaxY);
+        /*
+         * Masks are only reused inside the fixed point range, and
+         * under a clip of whole pixels
+         */
+        if (masks == null ||
+            Math.abs(t.m02) > Renderer.MAX_FIXED_COORD ||
+            Math.abs(t.m12) > Renderer.MAX_FIXED_COORD ||
+            minX != Math.floor(minX) || minY != Math.floor(minY) ||
+            maxX != Math.floor(maxX) || maxY != Math.floor(maxY))
+        {
+            this.beginRendering(windingRule);
+            path.produce(this);
+            this.endRendering();
+            return;
+        }
+
+        double qx = Math.floor(t.m02*MASK_PHASES + 0.5)/MASK_PHASES;
+        double qy = Math.floor(t.m12*MASK_PHASES + 0.5)/MASK_PHASES;
+        int dx = (int)Math.floor(qx);
+        int dy = (int)Math.floor(qy);
+
+        int stateLen = this.maskKeyState(windingRule, qx - dx, qy - dy);
+        double[] state = this.maskKeyState;
+        PiscesMask mask = masks.get(path, state, stateLen);
+        if (mask != null) {
+            this.rdr.renderFromMask(mask, dx, dy,
+                                     (int)minX, (int)minY,
+                                     (int)(maxX - minX), (int)(maxY - minY));
+        }
+        else if (masks.admit(path, state, stateLen)) {
+            PiscesCache cache = new PiscesCache();
+            this.rdr.setCache(cache);
+            try {
+                this.beginRendering(windingRule);
+                path.produce(this);
+                this.endRendering();
+            }
+            finally {
+                this.rdr.setCache(null);
+            }
+            if (cache.isValid() && !cache.clipped) {
+                masks.put(path, state, stateLen,
+                          cache.getMask().translate(-dx, -dy));
+            }
+        }
+        else {
+            this.beginRendering(windingRule);
+            path.produce(this);
+            this.endRendering();
+        }
+    }
+    /*
+     * Store the state determining the coverage of a path into
+     * maskKeyState, and return its length.  The translation is
+     * given by its sub-pixel phase.
+     */
+    private int maskKeyState(int windingRule, double phaseX, double phaseY) {
+        int len = 17;
+        if (!this.isPathFilled && this.dashArray != null) {
+            len += this.dashArray.length;
+        }
+        if (this.maskKeyState.length < len) {
+            this.maskKeyState = new double[len];
+        }
+        double[] state = this.maskKeyState;
+        Matrix t = this.transform;
+
+        if (this.externalConsumer == this.strokerP) {
+            state[0] = 1;
+        }
+        else if (this.externalConsumer == this.textFillerP) {
+            state[0] = 2;
+        }
+        else {
+            state[0] = 0;
+        }
+        state[1] = windingRule;
+        state[2] = t.m00;
+        state[3] = t.m01;
+        state[4] = phaseX;
+        state[5] = t.m10;
+        state[6] = t.m11;
+        state[7] = phaseY;
+        state[8] = this.rdr.getSubpixelLgPositionsX();
+        state[9] = this.rdr.getSubpixelLgPositionsY();
+        state[10] = this.rdr.getAntialiasingMode();
+        if (this.isPathFilled) {
+            return 11;
+        }
+        state[11] = this.lineWidth;
+        state[12] = this.capStyle;
+        state[13] = this.joinStyle;
+        state[14] = this.miterLimit;
+        state[15] = this.dashPhase;
+        if (this.dashArray == null) {
+            state[16] = -1;
+        }
+        else {
+            state[16] = this.dashArray.length;
+            System.arraycopy(this.dashArray, 0, state, 17,
+                             this.dashArray.length);
+        }
+        return len;
+    }
     /**
      * Returns a bounding box containing all pixels drawn during the
      * rendering of the most recent primitive
@@ -23,14 +23,28 @@
  */
 package ca.weblite.pisces.d;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Fixed point rendering cache used by {@link Renderer}.
  *
+ * <p> The coverage of each row is run-length encoded as a list of
+ * runs ending with a zero byte.  A run starts with its length shifted
+ * left by one, as a varint of seven bits per byte, lowest first.  The
+ * low bit set marks a run of full coverage, otherwise the coverage
+ * value follows in one byte.  A row equal to the row above shares its
+ * data.
+ *
+ * <p> Once rendered, the cache provides its coverage as an immutable
+ * {@link PiscesMask}, which may be shared between threads.  A cache may
+ * be saved with {@link #write(DataOutputStream)} and loaded with
+ * {@link #read(DataInputStream)}, in the format of {@link PiscesMask}.
  */
 public final class PiscesCache {
 
-    private static final float ROWAA_RLE_FACTOR = 1.2f;
-    private static final float TOUCHED_FACTOR = 1.2f;
+    private static final int MIN_ROWAA_RLE_LEN = 64;
     private static final int MIN_TOUCHED_LEN = 32;
 
 
@@ -46,11 +60,47 @@ public final class PiscesCache {
     int alphaHeight = 0;
 
     int[] minTouched = null;
+    /*
+     * Coverage value encoded by the full coverage token
+     */
+    int fullAlpha = 255;
+    /*
+     * Length of the data of the last row
+     */
+    private int lastRowLength = 0;
+    /*
+     * Mask sharing the sealed data, once requested
+     */
+    private PiscesMask mask = null;
+    /*
+     * True if the clip of the primitive cut its coverage
+     */
+    boolean clipped = false;
 
     
     public PiscesCache() {
         super();
     }
+    /*
+     * A valid cache holding the data of a mask
+     */
+    private PiscesCache(PiscesMask mask) {
+        super();
+        this.bboxX0 = mask.bboxX0;
+        this.bboxY0 = mask.bboxY0;
+        this.bboxX1 = mask.bboxX1;
+        this.bboxY1 = mask.bboxY1;
+        this.alphaWidth = mask.alphaWidth;
+        this.alphaHeight = mask.alphaHeight;
+        this.fullAlpha = mask.fullAlpha;
+        this.clipped = mask.clipped;
+        this.rowAARLE = mask.rowAARLE;
+        this.alphaRLELength = mask.rowAARLE.length;
+        this.minTouched = mask.minTouched;
+        this.rowOffsetsRLE = mask.rowOffsetsRLE;
+        this.mask = mask;
+        this.isValid = true;
+    }
 
 
     public synchronized boolean isValid() {
@@ -65,30 +115,133 @@ public final class PiscesCache {
 
         minTouched = null;
         rowOffsetsRLE = null;
+        lastRowLength = 0;
+        mask = null;
 
+        clipped = false;
         isValid = false;
     }
 
-    void addRLERun(byte val, int runLen) {
-        reallocRowAARLE(alphaRLELength + 2);
-        rowAARLE[alphaRLELength++] = val;
-        rowAARLE[alphaRLELength++] = (byte)runLen;
+    /**
+     * Returns the coverage recorded by this cache as an immutable
+     * mask.  The mask shares the data of the cache.
+     *
+     * @exception IllegalStateException The cache is not valid.
+     */
+    public synchronized PiscesMask getMask() {
+        if (!isValid) {
+            throw new IllegalStateException("Cache is not valid");
+        }
+        if (mask == null) {
+            mask = new PiscesMask(bboxX0, bboxY0, bboxX1, bboxY1,
+                                  alphaHeight, fullAlpha, clipped,
+                                  rowAARLE, minTouched, rowOffsetsRLE);
+        }
+        return mask;
     }
 
+    /**
+     * Write the mask to a stream.  A cache not yet rendered into is
+     * written invalid.
+     */
+    public synchronized void write(DataOutputStream out) throws IOException {
+        PiscesMask.write(out, isValid ? getMask() : null);
+    }
+    /**
+     * Read a mask written by {@link #write(DataOutputStream)} or
+     * {@link PiscesMask#write(DataOutputStream)}.  The data is read
+     * into arrays of its exact size.
+     *
+     * @exception IllegalArgumentException The data is not a mask of
+     * this format version.
+     */
+    public static PiscesCache read(DataInputStream in) throws IOException {
+        PiscesMask mask = PiscesMask.readMask(in);
+        if (mask == null) {
+            return new PiscesCache();
+        }
+        return new PiscesCache(mask);
+    }
+
+    /*
+     * Trim the mask data to its size once recording is finished
+     */
+    synchronized void seal() {
+        if (rowAARLE != null && rowAARLE.length > alphaRLELength) {
+            byte[] tmp = new byte[alphaRLELength];
+            System.arraycopy(rowAARLE, 0, tmp, 0, alphaRLELength);
+            rowAARLE = tmp;
+        }
+        if (minTouched != null && minTouched.length > alphaHeight) {
+            int[] tmp = new int[alphaHeight];
+            System.arraycopy(minTouched, 0, tmp, 0, alphaHeight);
+            minTouched = tmp;
+            tmp = new int[alphaHeight];
+            System.arraycopy(rowOffsetsRLE, 0, tmp, 0, alphaHeight);
+            rowOffsetsRLE = tmp;
+        }
+    }
+
+    /*
+     * Append a run of runLen pixels of coverage val to the current row
+     */
+    void addRun(int val, int runLen) {
+        reallocRowAARLE(alphaRLELength + 6);
+        int header = runLen << 1;
+        if (val == fullAlpha) {
+            header |= 1;
+        }
+        while (header >= 0x80) {
+            rowAARLE[alphaRLELength++] = (byte)(header | 0x80);
+            header >>>= 7;
+        }
+        rowAARLE[alphaRLELength++] = (byte)header;
+        if (val != fullAlpha) {
+            rowAARLE[alphaRLELength++] = (byte)val;
+        }
+    }
+
+    /*
+     * End the row whose runs were appended from offset, starting at
+     * image x coordinate minX.  Empty rows have minX =
+     * Integer.MAX_VALUE.
+     */
     void addRow(int minX, int offset) {
+        reallocRowAARLE(alphaRLELength + 1);
+        rowAARLE[alphaRLELength++] = 0;
+        int length = alphaRLELength - offset;
+
+        if (alphaHeight > 0 &&
+            minTouched[alphaHeight - 1] == minX &&
+            lastRowLength == length &&
+            equalRows(rowOffsetsRLE[alphaHeight - 1], offset, length))
+        {
+            alphaRLELength = offset;
+            offset = rowOffsetsRLE[alphaHeight - 1];
+        }
+        lastRowLength = length;
+
         reallocRowInfo(alphaHeight + 1);
         minTouched[alphaHeight] = minX;
         rowOffsetsRLE[alphaHeight] = offset;
         ++alphaHeight;
     }
+
+    private boolean equalRows(int offset0, int offset1, int length) {
+        for (int i = 0; i < length; i++) {
+            if (rowAARLE[offset0 + i] != rowAARLE[offset1 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
     private void reallocRowAARLE(int newLength) {
         if (rowAARLE == null) {
-            rowAARLE = new byte[newLength];
+            rowAARLE = new byte[Math.max(newLength, MIN_ROWAA_RLE_LEN)];
         } else if (rowAARLE.length < newLength) {
-            int len = Math.max(newLength,
-                               (int)(rowAARLE.length*ROWAA_RLE_FACTOR));
+            int len = Math.max(newLength, 2*rowAARLE.length);
             byte[] newRowAARLE = new byte[len];
-            System.arraycopy(rowAARLE, 0, newRowAARLE, 0, rowAARLE.length);
+            System.arraycopy(rowAARLE, 0, newRowAARLE, 0, alphaRLELength);
             rowAARLE = newRowAARLE;
         }
     }
@@ -98,14 +251,12 @@ public final class PiscesCache {
             minTouched = new int[len];
             rowOffsetsRLE = new int[len];
         } else if (minTouched.length < newHeight) {
-            int len = Math.max(newHeight,
-                               (int)(minTouched.length*TOUCHED_FACTOR));
+            int len = Math.max(newHeight, 2*minTouched.length);
             int[] newMinTouched = new int[len];
             int[] newRowOffsetsRLE = new int[len];
-            System.arraycopy(minTouched, 0, newMinTouched, 0,
-                             minTouched.length);
+            System.arraycopy(minTouched, 0, newMinTouched, 0, alphaHeight);
             System.arraycopy(rowOffsetsRLE, 0, newRowOffsetsRLE, 0,
-                             rowOffsetsRLE.length);
+                             alphaHeight);
             minTouched = newMinTouched;
             rowOffsetsRLE = newRowOffsetsRLE;
         }
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved. 
+ *  
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License version 
+ * 2 only, as published by the Free Software Foundation. 
+ *  
+ * This program is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License version 2 for more details (a copy is 
+ * included at /legal/license.txt). 
+ *  
+ * You should have received a copy of the GNU General Public License 
+ * version 2 along with this work; if not, write to the Free Software 
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 
+ * 02110-1301 USA 
+ *  
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa 
+ * Clara, CA 95054 or visit www.sun.com if you need additional 
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Immutable coverage mask, as recorded by a {@link PiscesCache}.
+ *
+ * <p> A mask never changes once created, so any number of renderers
+ * may draw it at the same time, from any thread, without locking.
+ * Masks are obtained from {@link PiscesCache#getMask()}, read from a
+ * stream, or found in a {@link MaskCache}, and drawn with {@link
+ * Pisces#renderMask(PiscesMask,int,int)}.
+ *
+ * <p> The coverage is stored in the encoding of {@link PiscesCache}.
+ */
+public final class PiscesMask {
+
+    /**
+     * Version of the format written by {@link #write(DataOutputStream)}
+     */
+    public static final int FORMAT_VERSION = 1;
+    /*
+     * "PMSK"
+     */
+    private static final int MAGIC = 0x504d534b;
+
+    private static final byte[] NO_RLE = new byte[0];
+    private static final int[] NO_ROWS = new int[0];
+
+
+    final int bboxX0, bboxY0, bboxX1, bboxY1;
+    final int alphaWidth, alphaHeight;
+    /*
+     * Coverage value encoded by the full coverage token
+     */
+    final int fullAlpha;
+    /*
+     * True if the clip of the primitive cut its coverage
+     */
+    final boolean clipped;
+    /*
+     * Run-length encoded rows, the image x coordinate of the start of
+     * each row, or Integer.MAX_VALUE for empty rows, and the offset
+     * of the data of each row
+     */
+    final byte[] rowAARLE;
+    final int[] minTouched;
+    final int[] rowOffsetsRLE;
+
+
+    /*
+     * The arrays are taken over by the mask, and must not be
+     * modified afterwards
+     */
+    PiscesMask(int bboxX0, int bboxY0, int bboxX1, int bboxY1,
+               int alphaHeight, int fullAlpha, boolean clipped,
+               byte[] rowAARLE, int[] minTouched, int[] rowOffsetsRLE)
+    {
+        super();
+        this.bboxX0 = bboxX0;
+        this.bboxY0 = bboxY0;
+        this.bboxX1 = bboxX1;
+        this.bboxY1 = bboxY1;
+        this.alphaWidth = bboxX1 - bboxX0;
+        this.alphaHeight = alphaHeight;
+        this.fullAlpha = fullAlpha;
+        this.clipped = clipped;
+        this.rowAARLE = (rowAARLE == null) ? NO_RLE : rowAARLE;
+        this.minTouched = (minTouched == null) ? NO_ROWS : minTouched;
+        this.rowOffsetsRLE = (rowOffsetsRLE == null) ? NO_ROWS : rowOffsetsRLE;
+    }
+
+
+    public int getX() {
+        return bboxX0;
+    }
+    public int getY() {
+        return bboxY0;
+    }
+    public int getWidth() {
+        return alphaWidth;
+    }
+    public int getHeight() {
+        return alphaHeight;
+    }
+
+    /**
+     * Write the mask to a stream.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        write(out, this);
+    }
+    /**
+     * Read a mask written by {@link #write(DataOutputStream)}.  The
+     * data is read into arrays of its exact size.
+     *
+     * @exception IllegalArgumentException The data is not a mask of
+     * this format version, or a row of it does not decode inside the
+     * data and the bounds of the mask.
+     */
+    public static PiscesMask read(DataInputStream in) throws IOException {
+        PiscesMask mask = readMask(in);
+        if (mask == null) {
+            throw new IllegalArgumentException("Mask is not valid");
+        }
+        return mask;
+    }
+
+    /*
+     * Write a mask, or a missing mask as invalid
+     */
+    static void write(DataOutputStream out, PiscesMask mask)
+        throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeBoolean(mask != null);
+        if (mask == null) {
+            out.writeBoolean(false);
+            for (int i = 0; i < 8; i++) {
+                out.writeInt(0);
+            }
+            return;
+        }
+        out.writeBoolean(mask.clipped);
+        out.writeInt(mask.bboxX0);
+        out.writeInt(mask.bboxY0);
+        out.writeInt(mask.bboxX1);
+        out.writeInt(mask.bboxY1);
+        out.writeInt(mask.alphaWidth);
+        out.writeInt(mask.alphaHeight);
+        out.writeInt(mask.fullAlpha);
+        out.writeInt(mask.rowAARLE.length);
+        out.write(mask.rowAARLE, 0, mask.rowAARLE.length);
+        for (int j = 0; j < mask.alphaHeight; j++) {
+            out.writeInt(mask.minTouched[j]);
+            out.writeInt(mask.rowOffsetsRLE[j]);
+        }
+    }
+    /*
+     * Read a mask, or null for an invalid one
+     */
+    static PiscesMask readMask(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Unrecognized mask format");
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported mask format version "+version);
+        }
+        boolean valid = in.readBoolean();
+        boolean clipped = in.readBoolean();
+        int bboxX0 = in.readInt();
+        int bboxY0 = in.readInt();
+        int bboxX1 = in.readInt();
+        int bboxY1 = in.readInt();
+        int width = in.readInt();
+        int height = in.readInt();
+        int fullAlpha = in.readInt();
+        int length = in.readInt();
+        if (height < 0 || length < 0 ||
+            (valid && (fullAlpha < 1 || fullAlpha > 255)) ||
+            width != bboxX1 - bboxX0 ||
+            (length > 0 && height == 0))
+        {
+            throw new IllegalArgumentException("Mask format error");
+        }
+        byte[] rle = new byte[length];
+        in.readFully(rle);
+        if (length > 0 && rle[length - 1] != 0) {
+            throw new IllegalArgumentException("Mask format error");
+        }
+        int[] rowX = new int[height];
+        int[] offsets = new int[height];
+        for (int j = 0; j < height; j++) {
+            rowX[j] = in.readInt();
+            int offset = in.readInt();
+            /*
+             * Rows start inside the bounding box, or are empty, and
+             * their runs end inside the data and the bounding box
+             */
+            int room;
+            if (rowX[j] == Integer.MAX_VALUE) {
+                room = 0;
+            }
+            else if (rowX[j] >= bboxX0 && rowX[j] < bboxX1) {
+                room = bboxX1 - rowX[j];
+            }
+            else {
+                room = -1;
+            }
+            if (offset < 0 || offset >= length || room < 0 ||
+                !validRow(rle, offset, room))
+            {
+                throw new IllegalArgumentException("Mask format error");
+            }
+            offsets[j] = offset;
+        }
+        if (!valid) {
+            return null;
+        }
+        return new PiscesMask(bboxX0, bboxY0, bboxX1, bboxY1,
+                              height, fullAlpha, clipped,
+                              rle, rowX, offsets);
+    }
+
+    /*
+     * True if the row of the run-length encoded data from pos ends
+     * inside the data, after runs of at most room pixels in total
+     */
+    private static boolean validRow(byte[] rle, int pos, int room) {
+        while (true) {
+            int header = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (pos >= rle.length || shift > 28) {
+                    return false;
+                }
+                b = rle[pos++];
+                header |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (header == 0) {
+                return true;
+            }
+            if ((header & 1) == 0 && pos++ >= rle.length) {
+                return false;
+            }
+            room -= header >>> 1;
+            if (room < 0) {
+                return false;
+            }
+        }
+    }
+
+    /*
+     * Estimated size of the mask data in bytes
+     */
+    int size() {
+        return rowAARLE.length + 4*(minTouched.length + rowOffsetsRLE.length);
+    }
+
+    /*
+     * The mask moved by (dx, dy) pixels, sharing its coverage
+     */
+    PiscesMask translate(int dx, int dy) {
+        int[] rowX = new int[alphaHeight];
+        for (int j = 0; j < alphaHeight; j++) {
+            rowX[j] = minTouched[j];
+            if (rowX[j] != Integer.MAX_VALUE) {
+                rowX[j] += dx;
+            }
+        }
+        return new PiscesMask(bboxX0 + dx, bboxY0 + dy,
+                              bboxX1 + dx, bboxY1 + dy,
+                              alphaHeight, fullAlpha, clipped,
+                              rowAARLE, rowX, rowOffsetsRLE);
+    }
+
+    /*
+     * Expand row j into dst from dstOffset, returning the number of
+     * pixels written
+     */
+    int decodeRow(int j, byte[] dst, int dstOffset) {
+        byte[] rle = rowAARLE;
+        int pos = rowOffsetsRLE[j];
+        int idx = dstOffset;
+        while (true) {
+            int header = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = rle[pos++];
+                header |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (header == 0) {
+                break;
+            }
+            byte val = ((header & 1) != 0) ?
+                (byte)fullAlpha : rle[pos++];
+            for (int end = idx + (header >>> 1); idx < end; idx++) {
+                dst[idx] = val;
+            }
+        }
+        return idx - dstOffset;
+    }
+}
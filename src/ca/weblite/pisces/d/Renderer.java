@@ -47,14 +47,72 @@ public final class Renderer
      */
     public static final int DEFAULT_INDICES_SIZE = 8192;
     public static final int DEFAULT_CROSSINGS_SIZE = 32*1024;
+    public static final int DEFAULT_BUCKETS_SIZE = 1024;
+    public static final int INITIAL_ACTIVE_EDGES = 64;
+    /*
+     * Crossing rows longer than this are radix sorted rather than
+     * insertion sorted
+     */
+    public static final int MAX_INSERTION_SORT = 32;
 
     public static final int NUM_ALPHA_ROWS = 8;
+    /*
+     * Largest coordinate, in pixels, entered into the S15.16 edge list
+     * as is.  Segments reaching further are clipped to the drawing
+     * region first.
+     */
+    public static final double MAX_FIXED_COORD = 32000.0;
+    /*
+     * Drawing regions reaching beyond MAX_FIXED_COORD are rendered in
+     * tiles of at most this many pixels on a side
+     */
+    public static final int MAX_FIXED_EXTENT = 16384;
+    /*
+     * Segments whose S15.16 ends differ by more than an int holds are
+     * split into pieces of at most this span
+     */
+    private static final long MAX_FIXED_SPAN = 1L << 30;
+
+    /*
+     * Smallest edge count, and smallest number of pixel rows per
+     * band, for which a primitive is rendered by several threads
+     */
+    public static final int MIN_PARALLEL_EDGES = 512;
+    public static final int MIN_PARALLEL_BAND_ROWS = 32;
+    /*
+     * Number of bands per thread, so that threads finishing sparse
+     * bands early can take over the remaining ones
+     */
+    public static final int BANDS_PER_THREAD = 4;
+    /*
+     * Time after which an idle band thread ends
+     */
+    private static final long BAND_WORKER_IDLE_MILLIS = 1000;
+
+    private static final int WIDE_MOVE_TO = 0;
+    private static final int WIDE_LINE_TO = 1;
+    private static final int WIDE_CLOSE = 2;
 
     private static final int PAINT_FLAT_COLOR = 0;
     private static final int PAINT_TEXTURE = 1;
 
     private static final int MIN_QUAD_OPT_WIDTH = ToFixed(100);
 
+    /*
+     * Edge record layout.  Each edge occupies EDGE_STRIDE ints of the
+     * edge list:
+     *
+     *   x0, y0, x1, y1      endpoints, S15.16, y0 < y1
+     *   orientation         +1 or -1
+     *   nextY               next subpixel scanline to scan convert
+     *   currXHi, currXLo    x at nextY, S15.32 split into two ints
+     *   stepXHi, stepXLo    x increment per subpixel scanline, S15.32
+     */
+    private static final int EDGE_STRIDE = 10;
+    private static final int EDGE_NEXT_Y = 5;
+    private static final int EDGE_CURR_X = 6;
+    private static final int EDGE_STEP_X = 8;
+
     /*
      * Antialiasing (supersample coordinate space definition).
      */
@@ -65,6 +123,8 @@ public final class Renderer
     private int SUBPIXEL_POSITIONS_X;
     private int SUBPIXEL_POSITIONS_Y;
     private int MAX_AA_ALPHA;
+    private int WIDE_AA_SHIFT;
+    private boolean wideAA;
     private int MAX_AA_ALPHA_DENOM;
     private int HALF_MAX_AA_ALPHA_DENOM;
     private int XSHIFT;
@@ -101,10 +161,41 @@ public final class Renderer
      * Position of most recent 'moveTo' command
      */
     private int sx0, sy0;
+    /*
+     * Unclipped current position and position of the most recent
+     * 'moveTo', relative to the origin of the drawing region
+     */
+    private double px0, py0, psx0, psy0;
+    /*
+     * Drawing region grown by a pixel, relative to its origin.
+     * Segments are clamped to it when clipped.
+     */
+    private double guardMinX, guardMinY, guardMaxX, guardMaxY;
+    /*
+     * Wide coordinate data.  When the drawing region does not fit the
+     * S15.16 range, the path is recorded as (op, x, y) triples and
+     * replayed once per tile, with the origin moved to the tile corner.
+     */
+    private boolean wideBounds = false;
+    private double wideMinX, wideMinY, wideMaxX, wideMaxY;
+    private double[] widePath;
+    private int widePathLen;
+    private int originX, originY;
+    /*
+     * Tiled surface drawn on, or null.  Primitives are then drawn as
+     * wide ones, with each tile of the surface as a wide tile.
+     */
+    private TiledSurface tiles;
+    private double[] clipParams = new double[4];
     /*
      * Buffer to be filled with one row's worth of alpha values
      */
     private byte[] rowAA = null;
+    /*
+     * Coverage accumulator used instead of rowAA when a pixel holds more
+     * than 255 samples.  Rows are scaled into rowAA as they are emitted.
+     */
+    private short[] rowAAWide = null;
 
     private int[] paintBuffer = null;
     private int paintBufferOffset;
@@ -127,9 +218,24 @@ public final class Renderer
      * Map from [0, MAX_AA_ALPHA] to [0, 256]
      * Used to normalize alpha processing to 8 bits
      */
-    private int[] alphaMap = new int[16*16 + 1];
+    private int[] alphaMap;
+    /*
+     * Map from [0, MAX_AA_ALPHA] to coverage in [0, 256], and the flat
+     * color as 8 bit ARGB, for the composite rules other than
+     * COMPOSITE_SRC_OVER
+     */
+    private int[] coverageMap;
+    private int cargb;
+    /*
+     * Maps for masks whose coverage is in [0, maskMapsFullAlpha], with
+     * the alpha they were made for
+     */
+    private int[] maskAlphaMap;
+    private int[] maskCoverageMap;
+    private int maskMapsFullAlpha;
+    private int maskMapsAlpha;
 
-    private int compositeRule = Blit.COMPOSITE_SRC_OVER;
+    private int compositeRule = COMPOSITE_SRC_OVER;
     /*
      * Track the number of vertical extrema of the incoming edge list
      * in order to determine the maximum number of crossings of a
@@ -138,6 +244,12 @@ public final class Renderer
     private int firstOrientation = 0;
     private int lastOrientation = 0;
     private int flips = 0;
+    /*
+     * Number of subpaths with at least one non horizontal edge.  A
+     * single closed subpath with two flips is monotone in y, so every
+     * scanline crosses it exactly twice.
+     */
+    private int contours = 0;
     /*
      * Parameters for emitRow
      */
@@ -147,15 +259,57 @@ public final class Renderer
     private int[] minTouched = new int[NUM_ALPHA_ROWS];
     private int[] maxTouched = new int[NUM_ALPHA_ROWS];
     private int[] rowOffsets = new int[NUM_ALPHA_ROWS];
+    /*
+     * Interval of each emitted row whose pixels are fully covered,
+     * empty if max < min.  Edge pixels of rows with such an interval
+     * are blitted around it using the split touched bounds.
+     */
+    private int[] fullMinTouched = new int[NUM_ALPHA_ROWS];
+    private int[] fullMaxTouched = new int[NUM_ALPHA_ROWS];
+    private int[] edgeMinTouched = new int[NUM_ALPHA_ROWS];
+    private int[] edgeMaxTouched = new int[NUM_ALPHA_ROWS];
+    private boolean rowsHaveFull;
+    /*
+     * Full coverage interval [fullL, fullR) of the current pixel row,
+     * intersected over the fullSubrows subpixel rows seen so far, and
+     * the best candidate [subFullL, subFullR) of the current subpixel row
+     */
+    private int fullL, fullR, fullSubrows;
+    private int subFullL, subFullR;
     private int currX, currY;
     private int currImageOffset;
     /*
      * Edge data is in S15.16 format
      */
-    private int[] edges = new int[5*INITIAL_EDGES];
+    private int[] edges = new int[EDGE_STRIDE*INITIAL_EDGES];
     private int edgeIdx = 0;
     private int edgeMinY = Integer.MAX_VALUE;
     private int edgeMaxY = Integer.MIN_VALUE;
+    /*
+     * Active edge table.  Edges are bucketed by the pixel row
+     * (relative to boundsMinY) of their first subpixel scanline.
+     * Bucket heads and links hold (edge index + 1), zero ends a chain.
+     */
+    private int scanMode = SCAN_ACTIVE_EDGES;
+    private int[] edgeBuckets = new int[DEFAULT_BUCKETS_SIZE];
+    private int edgeBucketMin = Integer.MAX_VALUE;
+    private int edgeBucketMax = Integer.MIN_VALUE;
+    private int edgeBucketNext;
+    private int[] edgeLinks = new int[INITIAL_EDGES];
+    private int[] activeEdges = new int[INITIAL_ACTIVE_EDGES];
+    private int numActiveEdges = 0;
+    /*
+     * True while every edge of the current primitive is vertical
+     */
+    private boolean rectilinear = true;
+    /*
+     * Rectilinear engine scratchpad: packed (x << 1) | orientation
+     * crossings of the current band, and its [x0, x1) spans relative to
+     * rasterMinX, in subpixels
+     */
+    private int[] bandCrossings = new int[INITIAL_ACTIVE_EDGES];
+    private int[] bandSpans = new int[INITIAL_ACTIVE_EDGES];
+    private int numBandSpans;
     /*
      * Crossing list data
      */
@@ -168,6 +322,49 @@ public final class Renderer
     private int crossingMaxXEntries;
     private int numCrossings = 0;
     private boolean crossingsSorted = false;
+    /*
+     * Crossings of a y monotone primitive, two per subpixel scanline
+     * of the strip in arrival order
+     */
+    private int[] convexCrossings;
+    private boolean convexScan = false;
+    /*
+     * Radix sort scratchpad
+     */
+    private int[] sortBuffer;
+    private int[] sortCounts = new int[256];
+    /*
+     * Exact area coverage data.  Each cell of the accumulation row
+     * holds the change in signed coverage from the previous pixel.
+     */
+    private int antialiasingMode = AA_SUPERSAMPLE;
+    private float[] areaAcc;
+    private double[] areaSlopes;
+    private int areaWidth;
+    private int areaMinCell;
+    private int areaMaxCell;
+
+    /*
+     * Band rendering.  Each thread renders whole bands of pixel rows
+     * with a renderer of its own, holding a copy of the edge list.
+     * Threads other than the calling one are kept between primitives.
+     */
+    private int parallelism = 1;
+    private Renderer[] bandRenderers;
+    private BandWorker[] bandWorkers;
+    private int[] bandOrder;
+    private int nextBand;
+    private int numBands;
+    private int bandMinRow;
+    private int bandRows;
+    private RuntimeException bandFailure;
+    /*
+     * X extent of the edges of the whole primitive, used by exact
+     * area bands to accumulate rows from the same origin
+     */
+    private boolean areaExtentsSet;
+    private int areaEdgeMinX;
+    private int areaEdgeMaxX;
 
     private int crossingY;
     private int crossingRowCount;
@@ -192,15 +389,33 @@ public final class Renderer
         setAntialiasing(DEFAULT_SUBPIXEL_LG_POSITIONS_X,
                         DEFAULT_SUBPIXEL_LG_POSITIONS_Y);
     }
+    /**
+     * Renderer drawing on the tiles of a surface.  Tiles are allocated
+     * as they are first drawn.
+     */
+    public Renderer(TiledSurface surface) {
+        this(null, surface.getWidth(), surface.getHeight(),
+             0, surface.getTileSize(), 1, surface.getDataType());
+        this.tiles = surface;
+    }
 
 
     public void dispose(){
         this.cache = null;
         this.paint = null;
+        stopBandWorkers(0);
+        this.bandRenderers = null;
     }
     public void setAntialiasing(int subpixelLgPositionsX,
                                 int subpixelLgPositionsY)
     {
+        if (subpixelLgPositionsX < 0 ||
+            subpixelLgPositionsX > MAX_SUBPIXEL_LG_POSITIONS ||
+            subpixelLgPositionsY < 0 ||
+            subpixelLgPositionsY > MAX_SUBPIXEL_LG_POSITIONS)
+        {
+            throw new IllegalArgumentException("Invalid antialiasing level");
+        }
         this.SUBPIXEL_LG_POSITIONS_X = subpixelLgPositionsX;
         this.SUBPIXEL_LG_POSITIONS_Y = subpixelLgPositionsY;
 
@@ -212,8 +427,13 @@ public final class Renderer
             1 << (SUBPIXEL_LG_POSITIONS_X);
         this.SUBPIXEL_POSITIONS_Y =
             1 << (SUBPIXEL_LG_POSITIONS_Y);
-        this.MAX_AA_ALPHA =
-            (SUBPIXEL_POSITIONS_X*SUBPIXEL_POSITIONS_Y);
+        // Sample counts that do not fit a byte are accumulated in
+        // rowAAWide and scaled to 0..255
+        int samples = SUBPIXEL_POSITIONS_X*SUBPIXEL_POSITIONS_Y;
+        this.wideAA = (antialiasingMode != AA_EXACT_AREA && samples > 255);
+        this.WIDE_AA_SHIFT = SUBPIXEL_LG_POSITIONS_X + SUBPIXEL_LG_POSITIONS_Y;
+        this.MAX_AA_ALPHA = (antialiasingMode == AA_EXACT_AREA || wideAA) ?
+            255 : samples;
         this.MAX_AA_ALPHA_DENOM = 255*MAX_AA_ALPHA;
         this.HALF_MAX_AA_ALPHA_DENOM = MAX_AA_ALPHA_DENOM/2;
         this.XSHIFT = 16 - SUBPIXEL_LG_POSITIONS_X;
@@ -233,10 +453,58 @@ public final class Renderer
         return SUBPIXEL_LG_POSITIONS_Y;
     }
 
+    public void setScanMode(int scanMode) {
+        switch (scanMode) {
+        case SCAN_STRIPS:
+        case SCAN_ACTIVE_EDGES:
+            this.scanMode = scanMode;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown scan mode");
+        }
+    }
+
+    public int getScanMode() {
+        return scanMode;
+    }
+
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism");
+        }
+        this.parallelism = parallelism;
+        if (bandRenderers != null && bandRenderers.length > parallelism) {
+            this.bandRenderers = null;
+        }
+        stopBandWorkers(parallelism - 1);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setAntialiasingMode(int antialiasingMode) {
+        switch (antialiasingMode) {
+        case AA_SUPERSAMPLE:
+        case AA_EXACT_AREA:
+            this.antialiasingMode = antialiasingMode;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown antialiasing mode");
+        }
+        // Coverage values of the area mode range over 0..255
+        setAntialiasing(SUBPIXEL_LG_POSITIONS_X, SUBPIXEL_LG_POSITIONS_Y);
+    }
+
+    public int getAntialiasingMode() {
+        return antialiasingMode;
+    }
+
     public void setColor(int red, int green, int blue, int alpha) {
         switch(imageType){
         case TYPE_INT_RGB:
         case TYPE_INT_ARGB:
+        case TYPE_INT_ARGB_PRE:
         case TYPE_BYTE_GRAY:
             this.cred = red;
             this.cgreen = green;
@@ -250,6 +518,7 @@ public final class Renderer
         }
 
         this.calpha = alpha;
+        this.cargb = (alpha << 24) | (red << 16) | (green << 8) | blue;
         this.createAlphaMap(alpha);
 
         this.paint = null;
@@ -261,6 +530,32 @@ public final class Renderer
         this.createAlphaMap(255);
         this.paintMode = PAINT_TEXTURE;
     }
+
+    /**
+     * @exception IllegalArgumentException Unknown composite rule.
+     */
+    public void setCompositeRule(int compositeRule) {
+        if (compositeRule < COMPOSITE_CLEAR ||
+            compositeRule > COMPOSITE_DST) {
+            throw new IllegalArgumentException("Unknown composite rule");
+        }
+        this.compositeRule = compositeRule;
+    }
+
+    public int getCompositeRule() {
+        return compositeRule;
+    }
+
+    /*
+     * True if drawing composites as COMPOSITE_SRC_OVER, which has the
+     * fast blits.  COMPOSITE_SRC of an opaque flat color is the same.
+     */
+    private boolean blendsSrcOver() {
+        return (compositeRule == COMPOSITE_SRC_OVER ||
+                (compositeRule == COMPOSITE_SRC &&
+                 paintMode == PAINT_FLAT_COLOR &&
+                 calpha == 255));
+    }
     public void getBoundingBox(double[] bbox) {
         bbox[0] = bboxX0;
         bbox[1] = bboxY0;
@@ -270,9 +565,36 @@ public final class Renderer
     public void beginRendering(double boundsX, double boundsY,
                                double boundsWidth, double boundsHeight,
                                int windingRule)
+    {
+        this.originX = this.originY = 0;
+        this.wideBounds = (tiles != null ||
+                           boundsX < -MAX_FIXED_COORD ||
+                           boundsY < -MAX_FIXED_COORD ||
+                           boundsX + boundsWidth > MAX_FIXED_COORD ||
+                           boundsY + boundsHeight > MAX_FIXED_COORD);
+        if (wideBounds) {
+            this.wideMinX = boundsX;
+            this.wideMinY = boundsY;
+            this.wideMaxX = boundsX + boundsWidth;
+            this.wideMaxY = boundsY + boundsHeight;
+            this.windingRule = windingRule;
+            this.widePathLen = 0;
+            return;
+        }
+        beginFixedRendering(boundsX, boundsY, boundsWidth, boundsHeight,
+                            windingRule);
+    }
+    /*
+     * Start a primitive over a drawing region given relative to the
+     * current origin, inside the S15.16 range
+     */
+    private void beginFixedRendering(double boundsX, double boundsY,
+                                     double boundsWidth, double boundsHeight,
+                                     int windingRule)
     {
         lastOrientation = 0;
         flips = 0;
+        contours = 0;
 
         resetEdges();
 
@@ -285,16 +607,121 @@ public final class Renderer
         this.boundsMaxX = ToFixed(boundsX + boundsWidth);
         this.boundsMaxY = ToFixed(boundsY + boundsHeight);
         this.windingRule = windingRule;
+        this.guardMinX = boundsX - 1;
+        this.guardMinY = boundsY - 1;
+        this.guardMaxX = boundsX + boundsWidth + 1;
+        this.guardMaxY = boundsY + boundsHeight + 1;
+
+        int rows = (boundsMaxY >> 16) - (boundsMinY >> 16) + 1;
+        if (rows > edgeBuckets.length) {
+            this.edgeBuckets = new int[rows];
+        }
     }
     public void moveTo(double x0, double y0) {
+        if (wideBounds) {
+            addWidePathOp(WIDE_MOVE_TO, x0, y0);
+            return;
+        }
+        x0 -= originX;
+        y0 -= originY;
+        this.psx0 = this.px0 = x0;
+        this.psy0 = this.py0 = y0;
+        if (!isFixedCoord(x0, y0)) {
+            x0 = clampGuardX(x0);
+            y0 = clampGuardY(y0);
+        }
 
         this.sx0 = this.x0 = ToFixed(x0);
         this.sy0 = this.y0 = ToFixed(y0);
         this.lastOrientation = 0;
     }
     public void lineTo(double x1, double y1) {
+        if (wideBounds) {
+            addWidePathOp(WIDE_LINE_TO, x1, y1);
+            return;
+        }
+        clipLineTo(x1 - originX, y1 - originY);
+    }
+    /*
+     * Add a segment from the unclipped current position.  Segments
+     * leaving the S15.16 range are split where they cross the guard
+     * rectangle and each piece is clamped to it: pieces beside the
+     * drawing region become vertical edges along its sides, which
+     * keep their contribution to the winding count, and pieces above
+     * or below it become horizontal and are dropped.
+     */
+    private void clipLineTo(double x1, double y1) {
+        double xa = px0;
+        double ya = py0;
+        this.px0 = x1;
+        this.py0 = y1;
+        if (isFixedCoord(xa, ya) && isFixedCoord(x1, y1)) {
+            addLineTo(x1, y1);
+            return;
+        }
+
+        double dx = x1 - xa;
+        double dy = y1 - ya;
+        double[] t = clipParams;
+        int n = 0;
+        if ((xa - guardMinX)*(x1 - guardMinX) < 0) {
+            t[n++] = (guardMinX - xa)/dx;
+        }
+        if ((xa - guardMaxX)*(x1 - guardMaxX) < 0) {
+            t[n++] = (guardMaxX - xa)/dx;
+        }
+        if ((ya - guardMinY)*(y1 - guardMinY) < 0) {
+            t[n++] = (guardMinY - ya)/dy;
+        }
+        if ((ya - guardMaxY)*(y1 - guardMaxY) < 0) {
+            t[n++] = (guardMaxY - ya)/dy;
+        }
+        for (int i = 1; i < n; i++) {
+            double ti = t[i];
+            int j = i - 1;
+            for (; j >= 0 && t[j] > ti; j--) {
+                t[j + 1] = t[j];
+            }
+            t[j + 1] = ti;
+        }
+
+        for (int i = 0; i < n; i++) {
+            addLineTo(clampGuardX(xa + t[i]*dx), clampGuardY(ya + t[i]*dy));
+        }
+        addLineTo(clampGuardX(x1), clampGuardY(y1));
+    }
+
+    private boolean isFixedCoord(double x, double y) {
+        return (x >= -MAX_FIXED_COORD && x <= MAX_FIXED_COORD &&
+                y >= -MAX_FIXED_COORD && y <= MAX_FIXED_COORD);
+    }
+
+    private double clampGuardX(double x) {
+        return (x < guardMinX) ? guardMinX : (x > guardMaxX) ? guardMaxX : x;
+    }
+
+    private double clampGuardY(double y) {
+        return (y < guardMinY) ? guardMinY : (y > guardMaxY) ? guardMaxY : y;
+    }
+
+    private void addLineTo(double x1, double y1) {
         final int _x1 = ToFixed(x1);
         final int _y1 = ToFixed(y1);
+        /*
+         * Both ends may lie inside the S15.16 range and still be too
+         * far apart for the differences taken by the edge list, which
+         * would overflow.  Such segments are added in pieces.
+         */
+        long span = Math.max(Math.abs((long)_x1 - x0),
+                             Math.abs((long)_y1 - y0));
+        if (span > Integer.MAX_VALUE) {
+            int pieces = (int)((span + MAX_FIXED_SPAN - 1)/MAX_FIXED_SPAN);
+            double xa = x0/65536.0;
+            double ya = y0/65536.0;
+            for (int i = 1; i < pieces; i++) {
+                addLineTo(xa + (x1 - xa)*i/pieces, ya + (y1 - ya)*i/pieces);
+            }
+        }
         /*
          * Ignore horizontal lines
          * Next line will count flip
@@ -308,6 +735,7 @@ public final class Renderer
             int orientation = (y0 < _y1) ? 1 : -1;
             if (lastOrientation == 0) {
                 firstOrientation = orientation;
+                ++contours;
             }
             else if (orientation != lastOrientation) {
                 ++flips;
@@ -324,12 +752,61 @@ public final class Renderer
     }
 
     public void clearRect(double x, double y, double w, double h) {
+        if (tiles != null) {
+            clearTiles((int)x, (int)y, (int)w, (int)h);
+            return;
+        }
         Blit.clearRect(imageData, imageType, 
                        imageOffset, imageScanlineStride, imagePixelStride,
                        (int)x, (int)y, (int)w, (int)h, 
                        calpha, cred, cgreen, cblue);
     }
+    /*
+     * Clear a rectangle of the tiled surface.  Tiles covered whole
+     * take the cleared value and release their pixels.
+     */
+    private void clearTiles(int x, int y, int w, int h) {
+        int x1 = Math.min(x + w, width);
+        int y1 = Math.min(y + h, height);
+        x = Math.max(x, 0);
+        y = Math.max(y, 0);
+
+        int[] value = null;
+        int T = tiles.getTileSize();
+        for (int ty = y - y % T; ty < y1; ty += T) {
+            int cy0 = Math.max(y, ty);
+            int cy1 = Math.min(y1, ty + T);
+
+            for (int tx = x - x % T; tx < x1; tx += T) {
+                int cx0 = Math.max(x, tx);
+                int cx1 = Math.min(x1, tx + T);
+
+                if (cx0 == tx && (cx1 == tx + T || cx1 == width) &&
+                    cy0 == ty && (cy1 == ty + T || cy1 == height))
+                {
+                    if (value == null) {
+                        value = new int[1];
+                        Blit.clearRect(value, imageType, 0, 1, 1,
+                                       0, 0, 1, 1,
+                                       calpha, cred, cgreen, cblue);
+                    }
+                    tiles.fillTile(tx/T, ty/T, value[0]);
+                }
+                else {
+                    int[] tile = tiles.openTile(tx/T, ty/T);
+                    Blit.clearRect(tile, imageType, 0, T, 1,
+                                   cx0 - tx, cy0 - ty, cx1 - cx0, cy1 - cy0,
+                                   calpha, cred, cgreen, cblue);
+                    tiles.closeTile(tx/T, ty/T, tile, true);
+                }
+            }
+        }
+    }
     public void close() {
+        if (wideBounds) {
+            addWidePathOp(WIDE_CLOSE, 0, 0);
+            return;
+        }
 
         int orientation = lastOrientation;
         if (y0 != sy0) {
@@ -338,126 +815,853 @@ public final class Renderer
         if (orientation != firstOrientation) {
             ++flips;
         }
-        lineTo(ToFloat(this.sx0), ToFloat(this.sy0));
+        clipLineTo(psx0, psy0);
     }
 
     public void endRendering() {
+        if (wideBounds) {
+            renderWide();
+            return;
+        }
         _endRendering();
 
         if (cache != null) {
-            cache.bboxX0 = bboxX0;
-            cache.bboxY0 = bboxY0;
-            cache.bboxX1 = bboxX1;
-            cache.bboxY1 = bboxY1;
+            // The rows recorded give the vertical extent of the mask
+            if (cache.alphaHeight > 0 && bboxX1 > bboxX0) {
+                cache.bboxX0 = bboxX0;
+                cache.bboxX1 = bboxX1;
+                cache.bboxY1 = cache.bboxY0 + cache.alphaHeight;
+            }
+            else {
+                cache.alphaHeight = 0;
+                cache.bboxX0 = cache.bboxY0 = 0;
+                cache.bboxX1 = cache.bboxY1 = -1;
+            }
+            cache.alphaWidth = cache.bboxX1 - cache.bboxX0;
+            cache.clipped = isClipped();
+            cache.seal();
 
             cache.isValid = true;
         }
     }
 
-    public void setCache(PiscesCache cache) {
-        this.cache = cache;
+    /*
+     * True if an edge of the primitive leaves the drawing region, so
+     * that its coverage may have been cut
+     */
+    private boolean isClipped() {
+        if (edgeMinY < boundsMinY || edgeMaxY > boundsMaxY) {
+            return true;
+        }
+        for (int i = 0; i < edgeIdx; i += EDGE_STRIDE) {
+            int x0 = edges[i];
+            int x1 = edges[i + 2];
+            if (x0 < boundsMinX || x0 > boundsMaxX ||
+                x1 < boundsMinX || x1 > boundsMaxX) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public void renderFromCache(PiscesCache cache) {
-        this.alphaWidth = cache.alphaWidth;
-        int alphaHeight = cache.alphaHeight;
-
-        int bufLen = NUM_ALPHA_ROWS*alphaWidth;
-        if (this.rowAA == null || this.rowAA.length < bufLen) {
-            this.rowAA = new byte[bufLen];
+    private void addWidePathOp(int op, double x, double y) {
+        if (widePath == null || widePath.length < widePathLen + 3) {
+            double[] tmp = new double[Math.max(2*widePathLen + 3,
+                                               3*INITIAL_EDGES)];
+            if (widePath != null) {
+                System.arraycopy(widePath, 0, tmp, 0, widePathLen);
+            }
+            this.widePath = tmp;
         }
+        widePath[widePathLen++] = op;
+        widePath[widePathLen++] = x;
+        widePath[widePathLen++] = y;
+    }
 
-        // Decode run-length encoded alpha mask data
-        // The data for row j begins at cache.rowOffsetsRLE[j]
-        // and is encoded as a set of 2-byte pairs (val, runLen)
-        // terminated by a (0, 0) pair.
-
-        int currX = cache.bboxX0;
-        int currY = cache.bboxY0;
-        currImageOffset = imageOffset +
-            currY*imageScanlineStride +
-            currX*imagePixelStride;
-        
-        int idx = 0;
-        for (int j = 0; j < alphaHeight; j++) {
-            int jj = j & (NUM_ALPHA_ROWS - 1);
+    /*
+     * Render the recorded path tile by tile.  Each tile moves the
+     * origin and the image offset to its corner so that its edges
+     * stay within the S15.16 range.  On a tiled surface the tiles are
+     * those of the surface, and each is drawn on its own pixels.  The
+     * coverage is not cached.
+     */
+    private void renderWide() {
+        this.wideBounds = false;
+        PiscesCache savedCache = this.cache;
+        Object savedImageData = this.imageData;
+        int savedImageOffset = this.imageOffset;
+        this.cache = null;
 
-            rowOffsets[jj] = idx - cache.minTouched[j];
+        int minX = (int)Math.floor(wideMinX);
+        int minY = (int)Math.floor(wideMinY);
+        int maxX = (int)Math.ceil(wideMaxX);
+        int maxY = (int)Math.ceil(wideMaxY);
+        int step = MAX_FIXED_EXTENT;
+        if (tiles != null) {
+            step = tiles.getTileSize();
+            /*
+             * Tiles outside the path cannot be drawn, and need not
+             * be allocated
+             */
+            double pathMinX = Double.MAX_VALUE;
+            double pathMinY = Double.MAX_VALUE;
+            double pathMaxX = -Double.MAX_VALUE;
+            double pathMaxY = -Double.MAX_VALUE;
+            for (int i = 0; i < widePathLen; i += 3) {
+                if ((int)widePath[i] != WIDE_CLOSE) {
+                    pathMinX = Math.min(pathMinX, widePath[i + 1]);
+                    pathMinY = Math.min(pathMinY, widePath[i + 2]);
+                    pathMaxX = Math.max(pathMaxX, widePath[i + 1]);
+                    pathMaxY = Math.max(pathMaxY, widePath[i + 2]);
+                }
+            }
+            minX = Math.max(Math.max(minX, 0),
+                            (int)Math.floor(Math.max(pathMinX, -1)));
+            minY = Math.max(Math.max(minY, 0),
+                            (int)Math.floor(Math.max(pathMinY, -1)));
+            maxX = Math.min(Math.min(maxX, width),
+                            (int)Math.ceil(Math.min(pathMaxX, width)) + 1);
+            maxY = Math.min(Math.min(maxY, height),
+                            (int)Math.ceil(Math.min(pathMaxY, height)) + 1);
+            minX -= minX % step;
+            minY -= minY % step;
+        }
+        int x0 = Integer.MAX_VALUE;
+        int y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE;
+        int y1 = Integer.MIN_VALUE;
+
+        for (int ty = minY; ty < maxY; ty += step) {
+            for (int tx = minX; tx < maxX; tx += step) {
+                double tileMinX = Math.max(wideMinX, tx);
+                double tileMinY = Math.max(wideMinY, ty);
+                double tileMaxX = Math.min(wideMaxX, tx + step);
+                double tileMaxY = Math.min(wideMaxY, ty + step);
+                if (tileMinX >= tileMaxX || tileMinY >= tileMaxY) {
+                    continue;
+                }
 
-            int pos = cache.rowOffsetsRLE[j];
-            int len = 0;
+                this.originX = tx;
+                this.originY = ty;
+                if (tiles != null) {
+                    this.imageData = tiles.openTile(tx/step, ty/step);
+                    this.imageOffset = 0;
+                }
+                else {
+                    this.imageOffset = savedImageOffset +
+                        ty*imageScanlineStride + tx*imagePixelStride;
+                }
+                beginFixedRendering(tileMinX - tx, tileMinY - ty,
+                                    tileMaxX - tileMinX, tileMaxY - tileMinY,
+                                    windingRule);
+                for (int i = 0; i < widePathLen; i += 3) {
+                    int op = (int)widePath[i];
+                    if (op == WIDE_MOVE_TO) {
+                        moveTo(widePath[i + 1], widePath[i + 2]);
+                    }
+                    else if (op == WIDE_LINE_TO) {
+                        lineTo(widePath[i + 1], widePath[i + 2]);
+                    }
+                    else {
+                        close();
+                    }
+                }
+                _endRendering();
 
-            while (true) {
-                byte val = cache.rowAARLE[pos];
-                int runLen = cache.rowAARLE[pos + 1] & 0xff;
-                if (runLen == 0) {
-                    break;
+                boolean drawn = (bboxX1 > bboxX0 && bboxY1 > bboxY0);
+                if (tiles != null) {
+                    tiles.closeTile(tx/step, ty/step, (int[])imageData, drawn);
                 }
-                for (int i = 0; i < runLen; i++) {
-                    rowAA[idx++] = val;
+                if (drawn) {
+                    x0 = Math.min(x0, bboxX0 + tx);
+                    y0 = Math.min(y0, bboxY0 + ty);
+                    x1 = Math.max(x1, bboxX1 + tx);
+                    y1 = Math.max(y1, bboxY1 + ty);
                 }
-                len += runLen;
-                pos += 2;
             }
+        }
 
-            minTouched[jj] = cache.minTouched[j];
-            if (len == 0) {
-                // Empty rows have minX = Integer.MAX_VALUE,
-                // maxX = Integer.MIN_VALUE
-                maxTouched[jj] = Integer.MIN_VALUE;
-            } else {
-                maxTouched[jj] = cache.minTouched[j] + len - 1;
+        this.originX = this.originY = 0;
+        this.imageData = savedImageData;
+        this.imageOffset = savedImageOffset;
+        this.cache = savedCache;
+        if (widePath != null && widePath.length > DEFAULT_CROSSINGS_SIZE) {
+            this.widePath = null;
+        }
+
+        if (x1 > x0 && y1 > y0) {
+            bboxX0 = x0;
+            bboxY0 = y0;
+            bboxX1 = x1;
+            bboxY1 = y1;
+        }
+        else {
+            bboxX0 = bboxY0 = 0;
+            bboxX1 = bboxY1 = -1;
+        }
+    }
+
+    /*
+     * Render the primitive in bands of pixel rows on up to
+     * 'parallelism' threads, the calling thread included.  Returns
+     * false if the primitive is too short to be worth splitting.
+     */
+    private boolean renderBands() {
+        int minY = (edgeMinY > boundsMinY) ? edgeMinY : boundsMinY;
+        int maxY = (edgeMaxY < boundsMaxY) ? edgeMaxY : boundsMaxY;
+        int minRow = minY >> 16;
+        int rows = ((maxY - 1) >> 16) - minRow + 1;
+        int threads = Math.min(parallelism, rows/MIN_PARALLEL_BAND_ROWS);
+        if (threads < 2) {
+            return false;
+        }
+
+        if (bandRenderers == null || bandRenderers.length < threads) {
+            Renderer[] tmp = new Renderer[parallelism];
+            if (bandRenderers != null) {
+                System.arraycopy(bandRenderers, 0, tmp, 0,
+                                 bandRenderers.length);
             }
+            this.bandRenderers = tmp;
+        }
 
-            // Perform blitting after NUM_ALPHA_ROWS rows have
-            // been decoded, or when we reach the last row
-            if ((jj == NUM_ALPHA_ROWS - 1) || (j == alphaHeight - 1)) {
-                emitRows(jj + 1);
-                currImageOffset += (jj + 1)*imageScanlineStride;
-                idx = 0;
+        this.numBands = Math.min(threads*BANDS_PER_THREAD,
+                                 rows/MIN_PARALLEL_BAND_ROWS);
+        this.bandRows = (rows + numBands - 1)/numBands;
+        this.bandMinRow = minRow;
+        this.nextBand = 0;
+        this.bandFailure = null;
+
+        if (bandWorkers == null || bandWorkers.length < threads - 1) {
+            BandWorker[] tmp = new BandWorker[parallelism - 1];
+            if (bandWorkers != null) {
+                System.arraycopy(bandWorkers, 0, tmp, 0,
+                                 bandWorkers.length);
+            }
+            this.bandWorkers = tmp;
+        }
+
+        Band[] tasks = new Band[threads];
+        for (int i = 0; i < threads; i++) {
+            if (bandRenderers[i] == null) {
+                bandRenderers[i] = new Renderer(imageData, width, height,
+                                                imageOffset,
+                                                imageScanlineStride,
+                                                imagePixelStride,
+                                                imageType);
             }
+            bandRenderers[i].copySettings(this);
+            tasks[i] = new Band(bandRenderers[i]);
+            if (i > 0) {
+                BandWorker worker = bandWorkers[i - 1];
+                if (worker == null || !worker.start(tasks[i])) {
+                    worker = new BandWorker();
+                    worker.start(tasks[i]);
+                    bandWorkers[i - 1] = worker;
+                }
+            }
+        }
+        tasks[0].run();
 
+        boolean interrupted = false;
+        for (int i = 1; i < threads; i++) {
+            if (bandWorkers[i - 1].await()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (bandFailure != null) {
+            RuntimeException e = bandFailure;
+            this.bandFailure = null;
+            throw e;
         }
 
-        // Update the bounding box for possible retrieval via getBoundingBox
-        this.bboxX0 = cache.bboxX0;
-        this.bboxY0 = cache.bboxY0;
-        this.bboxX1 = cache.bboxX1;
-        this.bboxY1 = cache.bboxY1;
-    }
-    public Renderer clone(){
-        return (Renderer)super.clone();
+        int x0 = Integer.MAX_VALUE;
+        int y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE;
+        int y1 = Integer.MIN_VALUE;
+        for (int i = 0; i < threads; i++) {
+            Band band = tasks[i];
+            if (band.bboxX1 > band.bboxX0 && band.bboxY1 > band.bboxY0) {
+                x0 = Math.min(x0, band.bboxX0);
+                y0 = Math.min(y0, band.bboxY0);
+                x1 = Math.max(x1, band.bboxX1);
+                y1 = Math.max(y1, band.bboxY1);
+            }
+        }
+        if (x1 > x0 && y1 > y0) {
+            bboxX0 = x0;
+            bboxY0 = y0;
+            bboxX1 = x1;
+            bboxY1 = y1;
+        }
+        else {
+            bboxX0 = bboxY0 = 0;
+            bboxX1 = bboxY1 = -1;
+        }
+        return true;
     }
+
     /*
-     * Create a lookup table indexed from 0 to MAX_AA_ALPHA, inclusive,
-     * containing normalized values for (index*alpha).  Normalization
-     * maps a value from 0 to MAX_AA_ALPHA*alpha into the range 0 to 256.
+     * Stop the band worker threads beyond the first 'keep'
      */
-    private void createAlphaMap(int alpha) {
-
-        alpha *= 256;
+    private void stopBandWorkers(int keep) {
+        BandWorker[] workers = this.bandWorkers;
+        if (workers == null || workers.length <= keep) {
+            return;
+        }
+        for (int i = keep; i < workers.length; i++) {
+            if (workers[i] != null) {
+                workers[i].stop();
+            }
+        }
+        if (keep == 0) {
+            this.bandWorkers = null;
+        }
+        else {
+            BandWorker[] tmp = new BandWorker[keep];
+            System.arraycopy(workers, 0, tmp, 0, keep);
+            this.bandWorkers = tmp;
+        }
+    }
 
-        for (int index = 0; index <= MAX_AA_ALPHA; index++) {
+    /*
+     * Hand out the next band to render, or -1 when none are left
+     */
+    private synchronized int claimBand() {
+        if (bandFailure != null || nextBand >= numBands) {
+            return -1;
+        }
+        return nextBand++;
+    }
 
-            alphaMap[index] = ((index*alpha + HALF_MAX_AA_ALPHA_DENOM)/
-                               MAX_AA_ALPHA_DENOM);
+    private synchronized void bandFailed(RuntimeException e) {
+        if (bandFailure == null) {
+            this.bandFailure = e;
         }
     }
+
     /*
-     * Scan convert a single edge
+     * Take over the drawing settings of the renderer handing out bands
      */
-    private void computeCrossingsForEdge(int index,
-                                         int boundsMinY, int boundsMaxY)
-    {
-        int iy0 = edges[index + 1];
-        int iy1 = edges[index + 3];
-
-        // Clip to valid Y range
-        int clipy0 = (iy0 > boundsMinY) ? iy0 : boundsMinY;
-        int clipy1 = (iy1 < boundsMaxY) ? iy1 : boundsMaxY;
+    private void copySettings(Renderer src) {
+        this.cred = src.cred;
+        this.cgreen = src.cgreen;
+        this.cblue = src.cblue;
+        this.calpha = src.calpha;
+        this.cargb = src.cargb;
+        this.paint = src.paint;
+        this.paintMode = src.paintMode;
+        this.compositeRule = src.compositeRule;
+        this.scanMode = src.scanMode;
+        this.antialiasingMode = src.antialiasingMode;
+        setAntialiasing(src.SUBPIXEL_LG_POSITIONS_X,
+                        src.SUBPIXEL_LG_POSITIONS_Y);
+    }
 
-        int minY = ((clipy0 + HYSTEP) & YMASK) + HYSTEP;
-        int maxY = ((clipy1 - HYSTEP) & YMASK) + HYSTEP;
+    /*
+     * Render pixel rows [row0, row1) of the edge list of 'src'
+     */
+    private void renderBand(Renderer src, int row0, int row1) {
+        resetEdges();
+        this.imageData = src.imageData;
+        this.imageOffset = src.imageOffset;
+        this.imageScanlineStride = src.imageScanlineStride;
+        this.originX = src.originX;
+        this.originY = src.originY;
+        this.windingRule = src.windingRule;
+        this.flips = src.flips;
+        this.contours = src.contours;
+        this.boundsMinX = src.boundsMinX;
+        this.boundsMaxX = src.boundsMaxX;
+        this.boundsMinY = Math.max(src.boundsMinY, row0 << 16);
+        this.boundsMaxY = Math.min(src.boundsMaxY, row1 << 16);
+
+        int rows = (boundsMaxY >> 16) - (boundsMinY >> 16) + 1;
+        if (rows > edgeBuckets.length) {
+            this.edgeBuckets = new int[rows];
+        }
+        if (edges.length < src.edgeIdx) {
+            this.edges = new int[src.edgeIdx];
+        }
+        this.edgeMinY = src.edgeMinY;
+        this.edgeMaxY = src.edgeMaxY;
+        this.rectilinear = src.rectilinear;
+
+        boolean area = (antialiasingMode == AA_EXACT_AREA);
+        int srcScanY = src.scanStartY();
+        int scanY = scanStartY();
+        int numEdges = src.edgeIdx/EDGE_STRIDE;
+        if (bandOrder == null || bandOrder.length < numEdges) {
+            this.bandOrder = new int[numEdges];
+        }
+        int[] order = bandOrder;
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        /*
+         * Copy the edges overlapping the band in the order the whole
+         * primitive activates them, bucket by bucket and in path
+         * order within a bucket, so that rows add up the same
+         */
+        int[] srcEdges = src.edges;
+        int index = 0;
+        for (int b = src.edgeBucketMin; b <= src.edgeBucketMax; b++) {
+            int count = 0;
+            for (int link = src.edgeBuckets[b]; link != 0;
+                 link = src.edgeLinks[(link - 1)/EDGE_STRIDE])
+            {
+                order[count++] = link - 1;
+            }
+            while (count > 0) {
+                int i = order[--count];
+                int x0 = srcEdges[i];
+                int x1 = srcEdges[i + 2];
+                minX = Math.min(minX, Math.min(x0, x1));
+                maxX = Math.max(maxX, Math.max(x0, x1));
+
+                int y0 = srcEdges[i + 1];
+                if (srcEdges[i + 3] < boundsMinY || y0 > boundsMaxY) {
+                    continue;
+                }
+                System.arraycopy(srcEdges, i, edges, index, EDGE_STRIDE);
+                edges[index + EDGE_NEXT_Y] = Integer.MIN_VALUE;
+                int eminY;
+                if (area) {
+                    eminY = y0;
+                }
+                else {
+                    eminY = ((y0 + HYSTEP) & YMASK);
+                    seedEdge(index, srcScanY, scanY);
+                }
+                bucketEdge(index, eminY);
+                index += EDGE_STRIDE;
+            }
+        }
+        this.edgeIdx = index;
+        this.areaExtentsSet = true;
+        this.areaEdgeMinX = minX;
+        this.areaEdgeMaxX = maxX;
+        if (edgeIdx == 0) {
+            bboxX0 = bboxY0 = 0;
+            bboxX1 = bboxY1 = -1;
+            return;
+        }
+
+        _endRendering();
+    }
+
+    /*
+     * First subpixel scanline scan converted by the renderer, S15.16
+     */
+    private int scanStartY() {
+        int minY = (edgeMinY > boundsMinY) ? edgeMinY : boundsMinY;
+        return ((minY >> YSHIFT) & ~SUBPIXEL_MASK_Y) << YSHIFT;
+    }
+
+    /*
+     * Start a band edge where the whole primitive reaches it, by
+     * stepping from its first crossing at or below srcScanY to the
+     * first at or below scanY.  Computing the crossing at scanY
+     * afresh would round differently.
+     */
+    private void seedEdge(int index, int srcScanY, int scanY) {
+        int iy0 = edges[index + 1];
+        int first = ((((iy0 > srcScanY) ? iy0 : srcScanY) + HYSTEP) & YMASK) +
+            HYSTEP;
+        int y = ((((iy0 > scanY) ? iy0 : scanY) + HYSTEP) & YMASK) + HYSTEP;
+        if (y > first) {
+            long lx = crossingAt(index, first) +
+                ((y - first)/YSTEP)*getLong(index + EDGE_STEP_X);
+            edges[index + EDGE_NEXT_Y] = y;
+            setLong(index + EDGE_CURR_X, lx);
+        }
+    }
+
+    /*
+     * Band rendering task of one thread
+     */
+    private class Band implements Runnable {
+        private final Renderer rdr;
+        int bboxX0 = Integer.MAX_VALUE;
+        int bboxY0 = Integer.MAX_VALUE;
+        int bboxX1 = Integer.MIN_VALUE;
+        int bboxY1 = Integer.MIN_VALUE;
+
+        Band(Renderer rdr) {
+            this.rdr = rdr;
+        }
+
+        public void run() {
+            try {
+                int band;
+                while ((band = claimBand()) >= 0) {
+                    int row0 = bandMinRow + band*bandRows;
+                    rdr.renderBand(Renderer.this, row0, row0 + bandRows);
+                    if (rdr.bboxX1 > rdr.bboxX0 && rdr.bboxY1 > rdr.bboxY0) {
+                        bboxX0 = Math.min(bboxX0, rdr.bboxX0);
+                        bboxY0 = Math.min(bboxY0, rdr.bboxY0);
+                        bboxX1 = Math.max(bboxX1, rdr.bboxX1);
+                        bboxY1 = Math.max(bboxY1, rdr.bboxY1);
+                    }
+                }
+            } catch (RuntimeException e) {
+                bandFailed(e);
+            }
+        }
+    }
+
+    /*
+     * Thread running band tasks.  It waits for the next task between
+     * primitives, and ends once idle for BAND_WORKER_IDLE_MILLIS so
+     * that it never outlives its renderer for long.
+     */
+    private static final class BandWorker implements Runnable {
+        private Runnable task;
+        private boolean stopped;
+
+        BandWorker() {
+            new Thread(this, "Pisces band renderer").start();
+        }
+
+        /*
+         * Hand the worker a task, or return false if it has ended
+         */
+        synchronized boolean start(Runnable task) {
+            if (stopped) {
+                return false;
+            }
+            this.task = task;
+            notifyAll();
+            return true;
+        }
+
+        /*
+         * Wait for the task to complete.  Returns true if the waiting
+         * thread was interrupted meanwhile.
+         */
+        synchronized boolean await() {
+            boolean interrupted = false;
+            while (task != null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            return interrupted;
+        }
+
+        synchronized void stop() {
+            this.stopped = true;
+            notifyAll();
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Runnable next;
+                    synchronized (this) {
+                        long deadline = System.currentTimeMillis() +
+                            BAND_WORKER_IDLE_MILLIS;
+                        while (task == null && !stopped) {
+                            long idle = deadline - System.currentTimeMillis();
+                            if (idle <= 0) {
+                                this.stopped = true;
+                                return;
+                            }
+                            try {
+                                wait(idle);
+                            } catch (InterruptedException e) {
+                            }
+                        }
+                        if (task == null) {
+                            return;
+                        }
+                        next = task;
+                    }
+                    try {
+                        next.run();
+                    }
+                    finally {
+                        synchronized (this) {
+                            this.task = null;
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+            finally {
+                synchronized (this) {
+                    this.stopped = true;
+                }
+            }
+        }
+    }
+
+    public void setCache(PiscesCache cache) {
+        this.cache = cache;
+    }
+
+    public void renderFromCache(PiscesCache cache) {
+        renderFromMask(cache.getMask(), 0, 0, 0, 0, width, height);
+    }
+
+    /*
+     * Render a mask moved by (dx, dy) pixels, clipped to the given
+     * pixel bounds and to the image.  The mask is only read, so other
+     * renderers may draw it concurrently.  Its coverage is mapped from
+     * [0, mask.fullAlpha], so masks recorded at any antialiasing level
+     * or mode may be drawn.
+     *
+     * @exception IllegalArgumentException Mask coverage out of range.
+     */
+    public void renderFromMask(PiscesMask mask, int dx, int dy,
+                               int boundsX, int boundsY,
+                               int boundsWidth, int boundsHeight)
+    {
+        if (mask.fullAlpha < 1 || mask.fullAlpha > 255) {
+            throw new IllegalArgumentException("Invalid mask coverage");
+        }
+        int[] savedAlphaMap = this.alphaMap;
+        int[] savedCoverageMap = this.coverageMap;
+        if (mask.fullAlpha != MAX_AA_ALPHA) {
+            useMaskAlphaMaps(mask.fullAlpha);
+        }
+        try {
+            drawMask(mask, dx, dy,
+                     boundsX, boundsY, boundsWidth, boundsHeight);
+        }
+        finally {
+            this.alphaMap = savedAlphaMap;
+            this.coverageMap = savedCoverageMap;
+        }
+    }
+    /*
+     * Use alpha and coverage maps from [0, fullAlpha], the coverage
+     * range of a mask recorded at another antialiasing level.  The
+     * maps are kept for the next mask of the same range and color.
+     */
+    private void useMaskAlphaMaps(int fullAlpha) {
+        int alpha = (paintMode == PAINT_FLAT_COLOR) ? calpha : 255;
+        if (maskAlphaMap == null ||
+            maskMapsFullAlpha != fullAlpha || maskMapsAlpha != alpha)
+        {
+            int[] am = new int[fullAlpha + 1];
+            int[] cm = new int[fullAlpha + 1];
+            fillAlphaMaps(am, cm, fullAlpha, alpha);
+            this.maskAlphaMap = am;
+            this.maskCoverageMap = cm;
+            this.maskMapsFullAlpha = fullAlpha;
+            this.maskMapsAlpha = alpha;
+        }
+        this.alphaMap = maskAlphaMap;
+        this.coverageMap = maskCoverageMap;
+    }
+    private void drawMask(PiscesMask mask, int dx, int dy,
+                          int boundsX, int boundsY,
+                          int boundsWidth, int boundsHeight)
+    {
+        if (tiles == null) {
+            renderMask(mask, dx, dy,
+                       boundsX, boundsY, boundsWidth, boundsHeight);
+            return;
+        }
+        /*
+         * Drawn tile by tile, with the image offset moved so that
+         * surface coordinates fall in the tile
+         */
+        Object savedImageData = this.imageData;
+        int x0 = Math.max(Math.max(boundsX, 0), mask.bboxX0 + dx);
+        int y0 = Math.max(Math.max(boundsY, 0), mask.bboxY0 + dy);
+        int x1 = Math.min(Math.min(boundsX + boundsWidth, width),
+                          mask.bboxX0 + dx + mask.alphaWidth);
+        int y1 = Math.min(Math.min(boundsY + boundsHeight, height),
+                          mask.bboxY0 + dy + mask.alphaHeight);
+
+        int T = tiles.getTileSize();
+        for (int ty = y0 - y0 % T; ty < y1; ty += T) {
+            for (int tx = x0 - x0 % T; tx < x1; tx += T) {
+                int[] tile = tiles.openTile(tx/T, ty/T);
+                this.imageData = tile;
+                this.imageOffset = -(ty*T + tx);
+                int cx0 = Math.max(x0, tx);
+                int cy0 = Math.max(y0, ty);
+                renderMask(mask, dx, dy, cx0, cy0,
+                           Math.min(x1, tx + T) - cx0,
+                           Math.min(y1, ty + T) - cy0);
+                tiles.closeTile(tx/T, ty/T, tile, bboxX1 > bboxX0);
+            }
+        }
+        this.imageData = savedImageData;
+        this.imageOffset = 0;
+
+        if (x0 < x1 && y0 < y1) {
+            this.bboxX0 = x0;
+            this.bboxY0 = y0;
+            this.bboxX1 = x1;
+            this.bboxY1 = y1;
+        }
+        else {
+            bboxX0 = bboxY0 = 0;
+            bboxX1 = bboxY1 = -1;
+        }
+    }
+    private void renderMask(PiscesMask mask, int dx, int dy,
+                            int boundsX, int boundsY,
+                            int boundsWidth, int boundsHeight)
+    {
+        int x0 = mask.bboxX0 + dx;
+        int y0 = mask.bboxY0 + dy;
+        int clipX0 = Math.max(Math.max(boundsX, 0), x0);
+        int clipY0 = Math.max(Math.max(boundsY, 0), y0);
+        int clipX1 = Math.min(Math.min(boundsX + boundsWidth, width),
+                              x0 + mask.alphaWidth);
+        int clipY1 = Math.min(Math.min(boundsY + boundsHeight, height),
+                              y0 + mask.alphaHeight);
+        if (clipX0 >= clipX1 || clipY0 >= clipY1) {
+            bboxX0 = bboxY0 = 0;
+            bboxX1 = bboxY1 = -1;
+            return;
+        }
+        int minX = clipX0 - x0;
+        int maxX = clipX1 - x0 - 1;
+        int j0 = clipY0 - y0;
+        int j1 = clipY1 - y0;
+
+        // Update the bounding box for possible retrieval via getBoundingBox
+        this.bboxX0 = clipX0;
+        this.bboxY0 = clipY0;
+        this.bboxX1 = clipX1;
+        this.bboxY1 = clipY1;
+
+        // Flat colors are blended run by run, straight from the
+        // run-length encoded data
+        if (paintMode == PAINT_FLAT_COLOR &&
+            blendsSrcOver())
+        {
+            int offset = imageOffset + clipY0*imageScanlineStride;
+            for (int j = j0; j < j1; j++) {
+                if (mask.minTouched[j] != Integer.MAX_VALUE) {
+                    int rowX = mask.minTouched[j] + dx;
+                    int rowMinX = rowX - x0;
+                    Blit.blitRLE(imageData, imageType,
+                                 offset + rowX*imagePixelStride,
+                                 imagePixelStride,
+                                 mask.rowAARLE, mask.rowOffsetsRLE[j],
+                                 mask.fullAlpha,
+                                 minX - rowMinX, maxX - rowMinX,
+                                 cred, cgreen, cblue, alphaMap);
+                }
+                offset += imageScanlineStride;
+            }
+            return;
+        }
+        prepareAlphaRows(mask.alphaWidth);
+
+        // Decode run-length encoded alpha mask data.  Rows start at
+        // image x coordinate mask.minTouched[j], and are clipped to
+        // the columns [minX, maxX] of the mask.
+
+        this.currX = x0;
+        this.currY = clipY0;
+        this.currImageOffset = imageOffset +
+            currY*imageScanlineStride +
+            currX*imagePixelStride;
+        this.rowsHaveFull = false;
+        
+        int idx = 0;
+        for (int j = j0; j < j1; j++) {
+            int jj = (j - j0) & (NUM_ALPHA_ROWS - 1);
+
+            int start = idx;
+            idx += mask.decodeRow(j, rowAA, idx);
+
+            int rowMinX = mask.minTouched[j] - mask.bboxX0;
+            int rowMaxX = rowMinX + idx - start - 1;
+            if (idx == start || rowMinX > maxX || rowMaxX < minX) {
+                // Empty rows have minX = Integer.MAX_VALUE,
+                // maxX = Integer.MIN_VALUE
+                minTouched[jj] = Integer.MAX_VALUE;
+                maxTouched[jj] = Integer.MIN_VALUE;
+                rowOffsets[jj] = start;
+            } else {
+                minTouched[jj] = (rowMinX > minX) ? rowMinX : minX;
+                maxTouched[jj] = (rowMaxX < maxX) ? rowMaxX : maxX;
+                rowOffsets[jj] = start - rowMinX;
+            }
+
+            // Perform blitting after NUM_ALPHA_ROWS rows have
+            // been decoded, or when we reach the last row.  Rows
+            // may be clipped, so all the decoded data is cleared.
+            if ((jj == NUM_ALPHA_ROWS - 1) || (j == j1 - 1)) {
+                emitRows(jj + 1);
+                for (int i = 0; i < idx; i++) {
+                    rowAA[i] = 0;
+                }
+                currY += jj + 1;
+                currImageOffset += (jj + 1)*imageScanlineStride;
+                idx = 0;
+            }
+
+        }
+    }
+
+    public Renderer clone(){
+        Renderer clone = (Renderer)super.clone();
+        clone.bandRenderers = null;
+        clone.bandWorkers = null;
+        return clone;
+    }
+    /*
+     * Create a lookup table indexed from 0 to MAX_AA_ALPHA, inclusive,
+     * containing normalized values for (index*alpha).  Normalization
+     * maps a value from 0 to MAX_AA_ALPHA*alpha into the range 0 to 256.
+     */
+    private void createAlphaMap(int alpha) {
+        if (alphaMap == null || alphaMap.length != MAX_AA_ALPHA + 1) {
+            alphaMap = new int[MAX_AA_ALPHA + 1];
+        }
+
+        if (coverageMap == null || coverageMap.length != MAX_AA_ALPHA + 1) {
+            coverageMap = new int[MAX_AA_ALPHA + 1];
+        }
+
+        fillAlphaMaps(alphaMap, coverageMap, MAX_AA_ALPHA, alpha);
+    }
+    private static void fillAlphaMaps(int[] alphaMap, int[] coverageMap,
+                                      int maxAlpha, int alpha)
+    {
+        int denom = 255*maxAlpha;
+        int half = denom/2;
+
+        alpha *= 256;
+
+        for (int index = 0; index <= maxAlpha; index++) {
+
+            alphaMap[index] = ((index*alpha + half)/denom);
+            coverageMap[index] = ((index*255*256 + half)/denom);
+        }
+    }
+    /*
+     * Scan convert a single edge.  The edge keeps its current x and
+     * next scanline between strips so that crossings advance by
+     * addition; x is only recomputed when scan conversion does not
+     * resume where it stopped.
+     */
+    private void computeCrossingsForEdge(int index,
+                                         int boundsMinY, int boundsMaxY)
+    {
+        int iy0 = edges[index + 1];
+        int iy1 = edges[index + 3];
+
+        // Clip to valid Y range
+        int clipy0 = (iy0 > boundsMinY) ? iy0 : boundsMinY;
+        int clipy1 = (iy1 < boundsMaxY) ? iy1 : boundsMaxY;
+
+        int minY = ((clipy0 + HYSTEP) & YMASK) + HYSTEP;
+        int maxY = ((clipy1 - HYSTEP) & YMASK) + HYSTEP;
         /*
          * IMPL_NOTE - If line falls outside the valid X range, could
          * draw a vertical line instead
@@ -472,39 +1676,77 @@ public final class Renderer
             /*
              * Scan convert line using a DDA approach
              */
-            int ix0 = edges[index];
-            int ix1 = edges[index + 2];
-            int dx = ix1 - ix0;
-            int dy = iy1 - iy0;
-            /*
-             * Compute first crossing point at y = minY
-             */
+            long lx;
+            if (edges[index + EDGE_NEXT_Y] == minY) {
+                lx = getLong(index + EDGE_CURR_X);
+            }
+            else {
+                /*
+                 * Compute first crossing point at y = minY
+                 */
+                lx = crossingAt(index, minY);
+            }
+            long xstep = getLong(index + EDGE_STEP_X);
             int orientation = edges[index + 4];
-            int y = minY;
-            long lx = (long)(y - iy0)*dx/dy + ix0;
-            this.addCrossing(y >> YSHIFT, (int)(lx >> XSHIFT), orientation);
+            int shift = XSHIFT + 16;
             /*
-             * Advance y to next scanline, exit if past endpoint
+             * For each scanline, emit the crossing and add xstep to
+             * lx and YSTEP to y
              */
-            y += YSTEP;
-            if (y > maxY) {
-                return;
+            int y = minY;
+            if (convexScan) {
+                int[] crossings = convexCrossings;
+                for (; y <= maxY; y += YSTEP) {
+                    int x = (int)(lx >> shift);
+                    if (x < crossingMinX) {
+                        crossingMinX = x;
+                    }
+                    if (x > crossingMaxX) {
+                        crossingMaxX = x;
+                    }
+                    int slot = ((y >> YSHIFT) - crossingMinY) << 1;
+                    if (crossings[slot] == Integer.MIN_VALUE) {
+                        crossings[slot] = x;
+                    }
+                    else {
+                        crossings[slot + 1] = x;
+                    }
+                    lx += xstep;
+                }
             }
             else {
-                /*
-                 * Compute xstep only if additional scanlines are crossed
-                 * For each scanline, add xstep to lx and YSTEP to y and
-                 * emit the new crossing
-                 */
-                long xstep = ((long)YSTEP*dx)/dy;
                 for (; y <= maxY; y += YSTEP) {
+                    this.addCrossing(y >> YSHIFT, (int)(lx >> shift),
+                                     orientation);
                     lx += xstep;
-                    this.addCrossing(y >> YSHIFT, (int)(lx >> XSHIFT), orientation);
                 }
             }
+
+            edges[index + EDGE_NEXT_Y] = y;
+            setLong(index + EDGE_CURR_X, lx);
         }
     }
 
+    /*
+     * x of an edge at scanline y, S15.32
+     */
+    private long crossingAt(int index, int y) {
+        int ix0 = edges[index];
+        int iy0 = edges[index + 1];
+        int dy = edges[index + 3] - iy0;
+        long num = (long)(y - iy0)*(edges[index + 2] - ix0);
+        return ((long)ix0 << 16) + ((num/dy) << 16) + ((num%dy) << 16)/dy;
+    }
+
+    private long getLong(int index) {
+        return ((long)edges[index] << 32) | (edges[index + 1] & 0xffffffffL);
+    }
+
+    private void setLong(int index, long value) {
+        edges[index] = (int)(value >> 32);
+        edges[index + 1] = (int)value;
+    }
+
     private void computeBounds() {
         rasterMinX = crossingMinX & ~SUBPIXEL_MASK_X;
         rasterMaxX = crossingMaxX | SUBPIXEL_MASK_X;
@@ -544,22 +1786,36 @@ public final class Renderer
             bboxX1 = bboxY1 = -1;
             return;
         }
+        /*
+         * Large primitives may be split into bands rendered by
+         * several threads.  Paints may keep state between calls and
+         * the cache is filled row by row, so both are rendered here.
+         */
+        if (parallelism > 1 &&
+            edgeIdx >= MIN_PARALLEL_EDGES*EDGE_STRIDE &&
+            paintMode == PAINT_FLAT_COLOR &&
+            cache == null &&
+            renderBands()) {
+            return;
+        }
         /*
          * Special case for filling a single rect with a flat, opaque color
          */
         if (paintMode == PAINT_FLAT_COLOR &&
             calpha == 255 &&
-            edgeIdx == 10 &&
+            blendsSrcOver() &&
+            cache == null &&
+            edgeIdx == 2*EDGE_STRIDE &&
             edges[0] == edges[2] &&
-            edges[1] == edges[6] &&
-            edges[3] == edges[8] &&
-            edges[5] == edges[7] &&
-            Math.abs(edges[0] - edges[5]) > MIN_QUAD_OPT_WIDTH)
+            edges[1] == edges[EDGE_STRIDE + 1] &&
+            edges[3] == edges[EDGE_STRIDE + 3] &&
+            edges[EDGE_STRIDE] == edges[EDGE_STRIDE + 2] &&
+            Math.abs(edges[0] - edges[EDGE_STRIDE]) > MIN_QUAD_OPT_WIDTH)
         {
 
             int x0 = edges[0] >> XSHIFT;
             int y0 = edges[1] >> YSHIFT;
-            int x1 = edges[5] >> XSHIFT;
+            int x1 = edges[EDGE_STRIDE] >> XSHIFT;
             int y1 = edges[3] >> YSHIFT;
             
             if (x0 > x1) {
@@ -603,6 +1859,11 @@ public final class Renderer
             return;
         }
 
+        if (antialiasingMode == AA_EXACT_AREA) {
+            renderArea();
+            return;
+        }
+
         int minY = (edgeMinY > boundsMinY) ? edgeMinY : boundsMinY;
         int maxY = (edgeMaxY < boundsMaxY) ? edgeMaxY : boundsMaxY;
 
@@ -634,6 +1895,11 @@ public final class Renderer
             bboxY0 = iminY >> SUBPIXEL_LG_POSITIONS_Y;
             bboxY1 = (imaxY + SUBPIXEL_POSITIONS_Y - 1) >> SUBPIXEL_LG_POSITIONS_Y;
 
+            if (rectilinear) {
+                renderRectilinear(iminY, imaxY);
+                return;
+            }
+
             // Compute number of rows that can be processing using
             // a crossings table no larger than DEFAULT_CROSSINGS_SIZE.
             // However, we must process at least one row, so we grow the table
@@ -642,50 +1908,51 @@ public final class Renderer
             int rows = DEFAULT_CROSSINGS_SIZE/(flips*SUBPIXEL_POSITIONS_Y);
             rows = Math.min(rows, yextent);
             rows = Math.max(rows, 1);
-            for (int i = iminY; i <= imaxY; i += rows*SUBPIXEL_POSITIONS_Y) {
-                // Compute index of last scanline to be processed in this pass
-                int last = Math.min(i + rows*SUBPIXEL_POSITIONS_Y - 1, imaxY);
-                setCrossingsExtents(i, last, flips);
+
+            // Without subpixels, flat colors are filled span by span
+            // unless the coverage is needed for the cache
+            boolean aliased = (SUBPIXEL_LG_POSITIONS_X == 0 &&
+                               SUBPIXEL_LG_POSITIONS_Y == 0 &&
+                               paintMode == PAINT_FLAT_COLOR &&
+                               cache == null &&
+                               blendsSrcOver());
+            // A y monotone primitive has a single span per scanline,
+            // so its crossings need neither a table nor sorting
+            boolean convex = (flips == 2 && contours == 1 &&
+                              scanMode == SCAN_ACTIVE_EDGES && !aliased);
+
+            this.convexScan = convex;
+            this.numActiveEdges = 0;
+            this.edgeBucketNext = edgeBucketMin;
+            for (int i = iminY; i <= imaxY; ) {
+                // Compute index of last scanline to be processed in this
+                // pass.  Strips end on a pixel row boundary, so that no
+                // pixel row is emitted by two strips.
+                int last = Math.min((i & ~SUBPIXEL_MASK_Y) +
+                                    rows*SUBPIXEL_POSITIONS_Y - 1, imaxY);
+                int next = last + 1;
 
                 int bminY = i << YSHIFT;
                 int bmaxY = (last << YSHIFT) | ~YMASK;
 
-                // Process edges from the edge list
-                int maxIdx = edgeIdx;
-                for (int index = 0; index < maxIdx; index += 5) {
-                    // Test y1 < min:
-                    //
-                    // If edge lies entirely above current strip,
-                    // discard it
-                    if (edges[index + 3] < bminY) {
-                        // Overwrite the edge with the last edge
-                        edgeIdx -= 5;
-                        int fidx = edgeIdx;
-                        int tidx = index;
-                        edges[tidx++] = edges[fidx++];
-                        edges[tidx++] = edges[fidx++];
-                        edges[tidx++] = edges[fidx++];
-                        edges[tidx++] = edges[fidx++];
-                        edges[tidx  ] = edges[fidx  ];
-
-                        maxIdx -= 5;
-                        index -= 5;
-                        continue;
-                    }
-
-                    // Test y0 > max:
-                    //
-                    // If edge lies entirely below current strip,
-                    // skip it for now
-                    if (edges[index + 1] > bmaxY) {
-                        continue;
-                    }
-
-                    computeCrossingsForEdge(index, bminY, bmaxY);
+                if (convex) {
+                    setConvexExtents(i, last);
+                    addActiveEdges(last >> SUBPIXEL_LG_POSITIONS_Y);
+                    computeCrossingsForActiveEdges(bminY, bmaxY);
+                }
+                else if (scanMode == SCAN_ACTIVE_EDGES) {
+                    setCrossingsExtents(i, last, flips);
+                    addActiveEdges(last >> SUBPIXEL_LG_POSITIONS_Y);
+                    computeCrossingsForActiveEdges(bminY, bmaxY);
+                }
+                else {
+                    setCrossingsExtents(i, last, flips);
+                    computeCrossingsForEdgeList(bminY, bmaxY);
                 }
 
                 computeBounds();
                 if (rasterMaxX < rasterMinX) {
+                    i = next;
                     continue;
                 }
 
@@ -694,17 +1961,331 @@ public final class Renderer
                 bboxX1 = Math.max(bboxX1,
                                   (rasterMaxX + SUBPIXEL_POSITIONS_X - 1)
                                   >> SUBPIXEL_LG_POSITIONS_X);
-                renderStrip();
+                if (convex) {
+                    renderStripConvex();
+                }
+                else if (aliased) {
+                    renderStripAliased();
+                }
+                else {
+                    renderStrip();
+                }
+                i = next;
+            }
+
+            // Free up any unusually large scratchpad memory used by the
+            // preceding primitive
+            this.convexScan = false;
+            crossingListFinished();
+        }
+    }
+    /*
+     * Scan convert every edge of the edge list that overlaps the
+     * strip, discarding edges that lie entirely above it
+     */
+    private void computeCrossingsForEdgeList(int bminY, int bmaxY) {
+        int maxIdx = edgeIdx;
+        for (int index = 0; index < maxIdx; index += EDGE_STRIDE) {
+            // Test y1 < min:
+            //
+            // If edge lies entirely above current strip,
+            // discard it
+            if (edges[index + 3] < bminY) {
+                // Overwrite the edge with the last edge
+                edgeIdx -= EDGE_STRIDE;
+                System.arraycopy(edges, edgeIdx, edges, index, EDGE_STRIDE);
+
+                maxIdx -= EDGE_STRIDE;
+                index -= EDGE_STRIDE;
+                continue;
+            }
+
+            // Test y0 > max:
+            //
+            // If edge lies entirely below current strip,
+            // skip it for now
+            if (edges[index + 1] > bmaxY) {
+                continue;
+            }
+
+            computeCrossingsForEdge(index, bminY, bmaxY);
+        }
+    }
+    /*
+     * Move the edges of every bucket up to and including pixel row
+     * 'row' into the active edge list.  Buckets are chained most
+     * recent first, so each chain is stored back to front in order to
+     * keep the edges in path order.  Path order tends to produce
+     * crossings that are already sorted.
+     */
+    private void addActiveEdges(int row) {
+        int last = Math.min(row - (boundsMinY >> 16), edgeBucketMax);
+        for (; edgeBucketNext <= last; edgeBucketNext++) {
+            int count = 0;
+            for (int link = edgeBuckets[edgeBucketNext]; link != 0;
+                 link = edgeLinks[(link - 1)/EDGE_STRIDE])
+            {
+                count++;
+            }
+            if (count == 0) {
+                continue;
+            }
+
+            int newLen = numActiveEdges + count;
+            if (activeEdges.length < newLen) {
+                int[] tmp = new int[Math.max(2*activeEdges.length, newLen)];
+                System.arraycopy(activeEdges, 0, tmp, 0, numActiveEdges);
+                this.activeEdges = tmp;
+            }
+
+            int i = newLen;
+            for (int link = edgeBuckets[edgeBucketNext]; link != 0;
+                 link = edgeLinks[(link - 1)/EDGE_STRIDE])
+            {
+                activeEdges[--i] = link - 1;
+            }
+            numActiveEdges = newLen;
+        }
+    }
+    /*
+     * Scan convert the active edges over the strip.  Edges ending
+     * within the strip are retired from the active edge list, which
+     * is compacted in place to preserve the order of the survivors.
+     */
+    private void computeCrossingsForActiveEdges(int bminY, int bmaxY) {
+        int live = 0;
+        for (int i = 0; i < numActiveEdges; i++) {
+            int index = activeEdges[i];
+
+            computeCrossingsForEdge(index, bminY, bmaxY);
+
+            if (edges[index + 3] > bmaxY) {
+                activeEdges[live++] = index;
+            }
+        }
+        numActiveEdges = live;
+    }
+
+    /*
+     * Render a primitive made only of vertical edges.  Between the
+     * subpixel rows where edges start or end, the spans inside the
+     * path do not change, so each band of rows is scan converted once
+     * and its spans are accumulated once per pixel row, weighted by the
+     * number of its subpixel rows in that pixel row.  Coverage is the
+     * same as with per-subpixel-row scan conversion.
+     */
+    private void renderRectilinear(int iminY, int imaxY) {
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        for (int index = 0; index < edgeIdx; index += EDGE_STRIDE) {
+            int x = edges[index] >> XSHIFT;
+            minX = (x < minX) ? x : minX;
+            maxX = (x > maxX) ? x : maxX;
+        }
+        crossingMinX = minX;
+        crossingMaxX = maxX;
+        crossingMinY = iminY;
+        crossingMaxY = imaxY;
+        computeBounds();
+        if (rasterMaxX < rasterMinX) {
+            return;
+        }
+        bboxX0 = rasterMinX >> SUBPIXEL_LG_POSITIONS_X;
+        bboxX1 = (rasterMaxX + SUBPIXEL_POSITIONS_X - 1)
+            >> SUBPIXEL_LG_POSITIONS_X;
+
+        prepareAlphaRows((rasterMaxX - rasterMinX + 1) >>
+                         SUBPIXEL_LG_POSITIONS_X);
+
+        this.currY = rasterMinY >> SUBPIXEL_LG_POSITIONS_Y;
+        this.currX = rasterMinX >> SUBPIXEL_LG_POSITIONS_X;
+        this.currImageOffset = imageOffset +
+            currY*imageScanlineStride +
+            currX*imagePixelStride;
+        this.rowAAOffset = 0;
+        this.rowNum = 0;
+
+        this.numActiveEdges = 0;
+        this.edgeBucketNext = edgeBucketMin;
+        boolean bandValid = false;
+        int bandEnd = 0;
+
+        for (int rowTop = rasterMinY; rowTop <= rasterMaxY;
+             rowTop += SUBPIXEL_POSITIONS_Y)
+        {
+            int rowEnd = Math.min(rowTop + SUBPIXEL_POSITIONS_Y,
+                                  rasterMaxY + 1);
+            int added = numActiveEdges;
+            addActiveEdges(rowTop >> SUBPIXEL_LG_POSITIONS_Y);
+            if (numActiveEdges != added) {
+                bandValid = false;
+            }
+
+            int rowMinX = Integer.MAX_VALUE;
+            int rowMaxX = Integer.MIN_VALUE;
+            fullSubrows = 0;
+
+            int y = rowTop;
+            while (y < rowEnd) {
+                if (!bandValid || y >= bandEnd) {
+                    bandEnd = computeBand(y, iminY, imaxY);
+                    bandValid = true;
+                }
+                int end = (bandEnd < rowEnd) ? bandEnd : rowEnd;
+                int count = end - y;
+
+                int[] spans = bandSpans;
+                int widest = 0;
+                for (int i = 0; i < numBandSpans; i += 2) {
+                    int x0 = spans[i];
+                    int x1 = spans[i + 1];
+                    accumulateSpan(x0, x1, count);
+
+                    int l = x0 >> SUBPIXEL_LG_POSITIONS_X;
+                    int r = (x1 - 1) >> SUBPIXEL_LG_POSITIONS_X;
+                    rowMinX = (l < rowMinX) ? l : rowMinX;
+                    rowMaxX = (r > rowMaxX) ? r : rowMaxX;
+
+                    // A band spanning the whole pixel row gives the
+                    // full coverage interval
+                    if (count == SUBPIXEL_POSITIONS_Y) {
+                        l = (x0 + SUBPIXEL_MASK_X) >> SUBPIXEL_LG_POSITIONS_X;
+                        r = x1 >> SUBPIXEL_LG_POSITIONS_X;
+                        if (r - l > widest) {
+                            widest = r - l;
+                            fullL = l;
+                            fullR = r;
+                            fullSubrows = SUBPIXEL_POSITIONS_Y;
+                        }
+                    }
+                }
+                y = end;
+            }
+
+            emitRow(rowMinX, rowMaxX);
+        }
+
+        // Emit last bunch of rows
+        flushRows();
+    }
+
+    /*
+     * Compute the spans of subpixel row y from the active edges, and
+     * return the first row after y where an active edge starts or
+     * ends.  Edges ending before y are retired.
+     */
+    private int computeBand(int y, int iminY, int imaxY) {
+        int bandEnd = imaxY + 1;
+        int numCrossings = 0;
+        if (bandCrossings.length < numActiveEdges) {
+            bandCrossings = new int[Math.max(2*bandCrossings.length,
+                                             numActiveEdges)];
+        }
+        int[] crossings = bandCrossings;
+
+        int live = 0;
+        for (int i = 0; i < numActiveEdges; i++) {
+            int index = activeEdges[i];
+            int first = (edges[index + 1] + HYSTEP) >> YSHIFT;
+            int last = (edges[index + 3] - HYSTEP) >> YSHIFT;
+            first = (first > iminY) ? first : iminY;
+            if (last < y) {
+                continue;
+            }
+            activeEdges[live++] = index;
+
+            if (first > y) {
+                bandEnd = (first < bandEnd) ? first : bandEnd;
+            }
+            else {
+                bandEnd = (last + 1 < bandEnd) ? last + 1 : bandEnd;
+                int x = (edges[index] >> XSHIFT) << 1;
+                crossings[numCrossings++] =
+                    (edges[index + 4] == 1) ? (x | 0x1) : x;
+            }
+        }
+        numActiveEdges = live;
+
+        sortCrossings(crossings, 0, numCrossings);
+
+        // Mask to determine the relevant bit of the crossing sum
+        // 0x1 if EVEN_ODD, all bits if NON_ZERO
+        int mask = (windingRule == WIND_EVEN_ODD) ? 0x1 : ~0x0;
+        if (bandSpans.length < numCrossings + 2) {
+            bandSpans = new int[2*numCrossings + 2];
+        }
+        int[] spans = bandSpans;
+        int n = 0;
+        int sum = 0;
+        int prev = rasterMinX;
+        for (int i = 0; i < numCrossings; i++) {
+            int crxo = crossings[i];
+            int crx = crxo >> 1;
+            if ((sum & mask) != 0) {
+                int x0 = prev > rasterMinX ? prev : rasterMinX;
+                int x1 =  crx < rasterMaxX ?  crx : rasterMaxX;
+                if (x1 > x0) {
+                    x0 -= rasterMinX;
+                    x1 -= rasterMinX;
+                    if (n > 0 && spans[n - 1] == x0) {
+                        spans[n - 1] = x1;
+                    }
+                    else {
+                        spans[n++] = x0;
+                        spans[n++] = x1;
+                    }
+                }
+            }
+            sum += ((crxo & 0x1) == 0x1) ? 1 : -1;
+            prev = crx;
+        }
+        numBandSpans = n;
+
+        return bandEnd;
+    }
+
+    /*
+     * Add the coverage of 'count' subpixel rows of the span [x0, x1)
+     * to the current row of rowAA, or of rowAAWide
+     */
+    private void accumulateSpan(int x0, int x1, int count) {
+        int x = x0 >> SUBPIXEL_LG_POSITIONS_X;
+        int xmaxm1 = (x1 - 1) >> SUBPIXEL_LG_POSITIONS_X;
+        int xmax = x1 >> SUBPIXEL_LG_POSITIONS_X;
+        int first = count*(SUBPIXEL_POSITIONS_X - (x0 & SUBPIXEL_MASK_X));
+        int full = count*SUBPIXEL_POSITIONS_X;
+        int lastv = count*(x1 & SUBPIXEL_MASK_X);
+        int offset = rowAAOffset;
+        if (wideAA) {
+            short[] rowAA = this.rowAAWide;
+            if (x == xmaxm1) {
+                rowAA[x + offset] += count*(x1 - x0);
+            } else {
+                rowAA[x++ + offset] += first;
+                while (x < xmax) {
+                    rowAA[x++ + offset] += full;
+                }
+                rowAA[x + offset] += lastv;
+            }
+        }
+        else {
+            byte[] rowAA = this.rowAA;
+            if (x == xmaxm1) {
+                rowAA[x + offset] += count*(x1 - x0);
+            } else {
+                rowAA[x++ + offset] += first;
+                while (x < xmax) {
+                    rowAA[x++ + offset] += full;
+                }
+                rowAA[x + offset] += lastv;
             }
-
-            // Free up any unusually large scratchpad memory used by the
-            // preceding primitive
-            crossingListFinished();
         }
     }
-    private void renderStrip() {
-        // Grow rowAA according to the raster width
-        int width = (rasterMaxX - rasterMinX + 1) >> SUBPIXEL_LG_POSITIONS_X;
+
+    /*
+     * Grow rowAA and the paint buffer according to the raster width
+     */
+    private void prepareAlphaRows(int width) {
         alphaWidth = width;
 
         // Allocate one extra entry in rowAA to avoid a conditional in
@@ -717,6 +2298,15 @@ public final class Renderer
             this.paintBufferOffset = 0;
             this.paintBufferStride = width;
         }
+        if (wideAA &&
+            (this.rowAAWide == null || this.rowAAWide.length < bufLen)) {
+            this.rowAAWide = new short[bufLen];
+        }
+    }
+
+    private void renderStrip() {
+        prepareAlphaRows((rasterMaxX - rasterMinX + 1) >>
+                         SUBPIXEL_LG_POSITIONS_X);
 
         // Mask to determine the relevant bit of the crossing sum
         // 0x1 if EVEN_ODD, all bits if NON_ZERO
@@ -744,7 +2334,7 @@ public final class Renderer
             for (int j = prevY + 1; j < y; j++) {
                 if (((j & SUBPIXEL_MASK_Y) == SUBPIXEL_MASK_Y) ||
                     (j == rasterMaxY)) {
-                    emitRow(0, -1, false);
+                    emitRow(0, -1);
                 }
             }
             prevY = y;
@@ -765,6 +2355,10 @@ public final class Renderer
 
             int sum = 0;
             int prev = rasterMinX;
+            // Run of adjacent spans, for the full coverage interval
+            int runStart = 0;
+            int runEnd = Integer.MIN_VALUE;
+            subFullL = subFullR = 0;
             while (crossingRowIndex < crossingRowCount) {
                 int crxo = crossings[crossingRowOffset + crossingRowIndex];
                 crossingRowIndex++;
@@ -778,8 +2372,24 @@ public final class Renderer
                     int x0 = prev > rasterMinX ? prev : rasterMinX;
                     int x1 =  crx < rasterMaxX ?  crx : rasterMaxX;
 
-                    // Empty spans
                     if (x1 > x0) {
+                        if (x0 == runEnd) {
+                            runEnd = x1;
+                        }
+                        else {
+                            if (runEnd > runStart) {
+                                addFullRun(runStart, runEnd);
+                            }
+                            runStart = x0;
+                            runEnd = x1;
+                        }
+                    }
+
+                    // Empty spans
+                    if (x1 > x0 && wideAA) {
+                        accumulateWide(x0 - rasterMinX, x1 - rasterMinX);
+                    }
+                    else if (x1 > x0) {
                         x0 -= rasterMinX;
                         x1 -= rasterMinX;
 
@@ -821,10 +2431,17 @@ public final class Renderer
                 prev = crx;
             }
 
+            if (runEnd > runStart) {
+                addFullRun(runStart, runEnd);
+            }
+            fullL = subFullL;
+            fullR = subFullR;
+            fullSubrows++;
+
             // Every SUBPIXEL_POSITIONS rows, output an antialiased row
             if (((y & SUBPIXEL_MASK_Y) == SUBPIXEL_MASK_Y) ||
                 (y == rasterMaxY)) {
-                emitRow(minX, maxX, false);
+                emitRow(minX, maxX);
                 minX = Integer.MAX_VALUE;
                 maxX = Integer.MIN_VALUE;
             }
@@ -834,15 +2451,378 @@ public final class Renderer
         for (int j = prevY + 1; j <= rasterMaxY; j++) {
             if (((j & SUBPIXEL_MASK_Y) == SUBPIXEL_MASK_Y) ||
                 (j == rasterMaxY)) {
-                emitRow(minX, maxX, false);
+                emitRow(minX, maxX);
+                minX = Integer.MAX_VALUE;
+                maxX = Integer.MIN_VALUE;
+            }
+        }
+
+        // Emit last bunch of rows
+        flushRows();
+    }
+
+    /*
+     * Render a strip of a y monotone primitive.  Each scanline holds
+     * the crossings of the two chains of the path, so the span between
+     * them is inside under either winding rule.
+     */
+    private void renderStripConvex() {
+        prepareAlphaRows((rasterMaxX - rasterMinX + 1) >>
+                         SUBPIXEL_LG_POSITIONS_X);
+
+        this.currY = rasterMinY >> SUBPIXEL_LG_POSITIONS_Y;
+        this.currX = rasterMinX >> SUBPIXEL_LG_POSITIONS_X;
+        this.currImageOffset = imageOffset +
+            currY*imageScanlineStride +
+            currX*imagePixelStride;
+        this.rowAAOffset = 0;
+        this.rowNum = 0;
+
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int[] crossings = convexCrossings;
+
+        for (int y = rasterMinY; y <= rasterMaxY; y++) {
+            if (y >= crossingMinY && y <= crossingMaxY) {
+                int index = (y - crossingMinY) << 1;
+                subFullL = subFullR = 0;
+                if (crossings[index + 1] != Integer.MIN_VALUE) {
+                    int lx = crossings[index];
+                    int hx = crossings[index + 1];
+                    if (lx > hx) {
+                        int tmp = lx;
+                        lx = hx;
+                        hx = tmp;
+                    }
+                    int x0 = lx > rasterMinX ? lx : rasterMinX;
+                    int x1 = hx < rasterMaxX ? hx : rasterMaxX;
+
+                    minX = Math.min(minX, (x0 - rasterMinX)
+                                    >> SUBPIXEL_LG_POSITIONS_X);
+                    maxX = Math.max(maxX, (x1 - rasterMinX)
+                                    >> SUBPIXEL_LG_POSITIONS_X);
+
+                    if (x1 > x0) {
+                        addFullRun(x0, x1);
+                        accumulateSpan(x0 - rasterMinX, x1 - rasterMinX, 1);
+                    }
+                }
+                fullL = subFullL;
+                fullR = subFullR;
+                fullSubrows++;
+            }
+
+            // Every SUBPIXEL_POSITIONS rows, output an antialiased row
+            if (((y & SUBPIXEL_MASK_Y) == SUBPIXEL_MASK_Y) ||
+                (y == rasterMaxY)) {
+                emitRow(minX, maxX);
                 minX = Integer.MAX_VALUE;
                 maxX = Integer.MIN_VALUE;
             }
         }
 
         // Emit last bunch of rows
-        if (rowAAOffset != 0) {
-            emitRow(minX, maxX, true);
+        flushRows();
+    }
+
+    /*
+     * Offer the run of subpixels [runStart, runEnd) as the full coverage
+     * interval of the current subpixel row.  Only whole pixels count,
+     * and after the first subpixel row only the part inside the
+     * interval of the rows above.  The widest candidate wins.
+     */
+    private void addFullRun(int runStart, int runEnd) {
+        int l = (runStart - rasterMinX + SUBPIXEL_MASK_X) >>
+            SUBPIXEL_LG_POSITIONS_X;
+        int r = (runEnd - rasterMinX) >> SUBPIXEL_LG_POSITIONS_X;
+        if (fullSubrows > 0) {
+            l = (l > fullL) ? l : fullL;
+            r = (r < fullR) ? r : fullR;
+        }
+        if (r - l > subFullR - subFullL) {
+            subFullL = l;
+            subFullR = r;
+        }
+    }
+
+    /*
+     * Render the edge list with exact area coverage, one pixel row at
+     * a time.  Each active edge deposits its signed area into the
+     * accumulation row, and a running sum over the row then yields
+     * the coverage of every pixel.
+     */
+    private void renderArea() {
+        int minY = (edgeMinY > boundsMinY) ? edgeMinY : boundsMinY;
+        int maxY = (edgeMaxY < boundsMaxY) ? edgeMaxY : boundsMaxY;
+
+        int edgeMinX = Integer.MAX_VALUE;
+        int edgeMaxX = Integer.MIN_VALUE;
+        int numEdges = edgeIdx/EDGE_STRIDE;
+        if (areaSlopes == null || areaSlopes.length < numEdges) {
+            areaSlopes = new double[Math.max(numEdges, INITIAL_EDGES)];
+        }
+        for (int index = 0; index < edgeIdx; index += EDGE_STRIDE) {
+            int ex0 = edges[index];
+            int ex1 = edges[index + 2];
+            edgeMinX = Math.min(edgeMinX, Math.min(ex0, ex1));
+            edgeMaxX = Math.max(edgeMaxX, Math.max(ex0, ex1));
+            areaSlopes[index/EDGE_STRIDE] = (double)(ex1 - ex0)/
+                (edges[index + 3] - edges[index + 1]);
+        }
+        if (areaExtentsSet) {
+            edgeMinX = areaEdgeMinX;
+            edgeMaxX = areaEdgeMaxX;
+        }
+
+        int rowMin = minY >> 16;
+        int rowMax = (maxY - 1) >> 16;
+        int colMin = Math.max(edgeMinX, boundsMinX) >> 16;
+        int colMax = (Math.min(edgeMaxX, boundsMaxX) - 1) >> 16;
+
+        if (rowMin > rowMax || colMin > colMax) {
+            bboxX0 = bboxY0 = 0;
+            bboxX1 = bboxY1 = -1;
+            return;
+        }
+
+        int width = colMax - colMin + 1;
+        prepareAlphaRows(width);
+        areaWidth = width;
+
+        if (areaAcc == null || areaAcc.length < width + 2) {
+            areaAcc = new float[width + 2];
+        }
+
+        this.currY = rowMin;
+        this.currX = colMin;
+        this.currImageOffset = imageOffset +
+            currY*imageScanlineStride +
+            currX*imagePixelStride;
+        this.rowAAOffset = 0;
+        this.rowNum = 0;
+
+        bboxX0 = Integer.MAX_VALUE;
+        bboxX1 = Integer.MIN_VALUE;
+        bboxY0 = rowMin;
+        bboxY1 = rowMax + 1;
+
+        boolean evenOdd = (windingRule == WIND_EVEN_ODD);
+        double originX = (double)colMin*65536;
+
+        this.numActiveEdges = 0;
+        this.edgeBucketNext = edgeBucketMin;
+        for (int row = rowMin; row <= rowMax; row++) {
+            addActiveEdges(row);
+
+            int rowTop = row << 16;
+            int rowBottom = rowTop + 0x10000;
+            areaMinCell = Integer.MAX_VALUE;
+            areaMaxCell = Integer.MIN_VALUE;
+
+            int live = 0;
+            for (int i = 0; i < numActiveEdges; i++) {
+                int index = activeEdges[i];
+                int ey0 = edges[index + 1];
+                int ey1 = edges[index + 3];
+
+                int sy0 = (ey0 > rowTop) ? ey0 : rowTop;
+                int sy1 = (ey1 < rowBottom) ? ey1 : rowBottom;
+                if (sy1 > sy0) {
+                    double slope = areaSlopes[index/EDGE_STRIDE];
+                    int ex0 = edges[index];
+                    double x0 = (ex0 + (sy0 - ey0)*slope - originX)/65536;
+                    double x1 = (ex0 + (sy1 - ey0)*slope - originX)/65536;
+                    accumulateArea(x0, (sy0 - rowTop)/65536.0,
+                                   x1, (sy1 - rowTop)/65536.0,
+                                   edges[index + 4]);
+                }
+
+                if (ey1 > rowBottom) {
+                    activeEdges[live++] = index;
+                }
+            }
+            numActiveEdges = live;
+
+            int minX = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE;
+            if (areaMaxCell >= areaMinCell) {
+                float[] acc = areaAcc;
+                int last = Math.min(areaMaxCell, width - 1);
+                float sum = 0.0f;
+                for (int x = areaMinCell; x <= last; x++) {
+                    sum += acc[x];
+                    acc[x] = 0.0f;
+
+                    float cov = (sum < 0) ? -sum : sum;
+                    if (evenOdd) {
+                        cov -= 2*(int)(cov*0.5f);
+                        if (cov > 1.0f) {
+                            cov = 2.0f - cov;
+                        }
+                    }
+                    else if (cov > 1.0f) {
+                        cov = 1.0f;
+                    }
+                    rowAA[rowAAOffset + x] = (byte)(int)(cov*255 + 0.5f);
+                }
+                for (int x = last + 1; x <= areaMaxCell; x++) {
+                    acc[x] = 0.0f;
+                }
+
+                if (last >= areaMinCell) {
+                    minX = areaMinCell;
+                    maxX = last;
+                    bboxX0 = Math.min(bboxX0, colMin + minX);
+                    bboxX1 = Math.max(bboxX1, colMin + maxX + 1);
+                }
+            }
+
+            emitRow(minX, maxX);
+        }
+
+        // Emit last bunch of rows
+        flushRows();
+        if (bboxX0 > bboxX1) {
+            bboxX0 = bboxY0 = 0;
+            bboxX1 = bboxY1 = -1;
+        }
+    }
+
+    /*
+     * Accumulate a segment lying within the current pixel row, in
+     * pixel units relative to the row.  Pieces left of the row are
+     * moved onto its left edge, where they still cover every pixel to
+     * their right; pieces right of the row only need to stay out of
+     * the way.  Segments crossing either border are split first so
+     * that this keeps the area inside the row exact.
+     */
+    private void accumulateArea(double x0, double y0,
+                                double x1, double y1,
+                                int orientation)
+    {
+        double w = areaWidth;
+        if ((x0 < 0 && x1 > 0) || (x0 > 0 && x1 < 0)) {
+            double ym = y0 + (0 - x0)*(y1 - y0)/(x1 - x0);
+            accumulateArea(x0, y0, 0, ym, orientation);
+            accumulateArea(0, ym, x1, y1, orientation);
+            return;
+        }
+        if ((x0 < w && x1 > w) || (x0 > w && x1 < w)) {
+            double ym = y0 + (w - x0)*(y1 - y0)/(x1 - x0);
+            accumulateArea(x0, y0, w, ym, orientation);
+            accumulateArea(w, ym, x1, y1, orientation);
+            return;
+        }
+        if (x0 <= 0 && x1 <= 0) {
+            x0 = x1 = 0;
+        }
+        else if (x0 >= w && x1 >= w) {
+            x0 = x1 = w;
+        }
+
+        float[] acc = areaAcc;
+        double d = orientation*(y1 - y0);
+        double lo = (x0 < x1) ? x0 : x1;
+        double hi = (x0 < x1) ? x1 : x0;
+        int loCell = (int)lo;
+        int hiCell = (int)Math.ceil(hi);
+
+        if (hiCell <= loCell + 1) {
+            // Segment lies within a single pixel; split the area at
+            // its mean x
+            double xmf = 0.5*(x0 + x1) - loCell;
+            acc[loCell] += (float)(d - d*xmf);
+            acc[loCell + 1] += (float)(d*xmf);
+            hiCell = loCell + 1;
+        }
+        else {
+            // Coverage ramps up linearly between lo and hi, with
+            // partial triangles in the first and last pixel
+            double s = 1.0/(hi - lo);
+            double lof = lo - loCell;
+            double a0 = 0.5*s*(1 - lof)*(1 - lof);
+            double hif = hi - hiCell + 1;
+            double am = 0.5*s*hif*hif;
+            acc[loCell] += (float)(d*a0);
+            if (hiCell == loCell + 2) {
+                acc[loCell + 1] += (float)(d*(1 - a0 - am));
+            }
+            else {
+                double a1 = s*(1.5 - lof);
+                acc[loCell + 1] += (float)(d*(a1 - a0));
+                float ds = (float)(d*s);
+                for (int x = loCell + 2; x < hiCell - 1; x++) {
+                    acc[x] += ds;
+                }
+                double a2 = a1 + (hiCell - loCell - 3)*s;
+                acc[hiCell - 1] += (float)(d*(1 - a2 - am));
+            }
+            acc[hiCell] += (float)(d*am);
+        }
+
+        if (loCell < areaMinCell) {
+            areaMinCell = loCell;
+        }
+        if (hiCell > areaMaxCell) {
+            areaMaxCell = hiCell;
+        }
+    }
+
+    /*
+     * Fill the strip without antialiasing.  Each crossing row is a
+     * pixel row, and the spans inside the path go straight to the
+     * surface.
+     */
+    private void renderStripAliased() {
+        // Mask to determine the relevant bit of the crossing sum
+        // 0x1 if EVEN_ODD, all bits if NON_ZERO
+        int mask = (windingRule == WIND_EVEN_ODD) ? 0x1 : ~0x0;
+        int aval = alphaMap[MAX_AA_ALPHA];
+
+        iterateCrossings();
+        while (hasMoreCrossingRows()) {
+            int rowOffset = imageOffset + crossingY*imageScanlineStride;
+
+            int sum = 0;
+            int prev = rasterMinX;
+            while (crossingRowIndex < crossingRowCount) {
+                int crxo = crossings[crossingRowOffset + crossingRowIndex];
+                crossingRowIndex++;
+
+                int crx = crxo >> 1;
+                if ((sum & mask) != 0) {
+                    int x0 = prev > rasterMinX ? prev : rasterMinX;
+                    int x1 =  crx < rasterMaxX ?  crx : rasterMaxX;
+                    if (x1 > x0) {
+                        Blit.fillSpan(imageData, imageType,
+                                      rowOffset + x0*imagePixelStride,
+                                      imagePixelStride, x1 - x0,
+                                      cred, cgreen, cblue, aval);
+                    }
+                }
+                sum += ((crxo & 0x1) == 0x1) ? 1 : -1;
+                prev = crx;
+            }
+        }
+    }
+
+    /*
+     * Same as the span accumulation of renderStrip, for rowAAWide
+     */
+    private void accumulateWide(int x0, int x1) {
+        short[] rowAA = this.rowAAWide;
+        int x = x0 >> SUBPIXEL_LG_POSITIONS_X;
+        int xmaxm1 = (x1 - 1) >> SUBPIXEL_LG_POSITIONS_X;
+        if (x == xmaxm1) {
+            rowAA[x + rowAAOffset] += x1 - x0;
+        } else {
+            rowAA[x++ + rowAAOffset] += SUBPIXEL_POSITIONS_X -
+                (x0 & SUBPIXEL_MASK_X);
+            int xmax = x1 >> SUBPIXEL_LG_POSITIONS_X;
+            while (x < xmax) {
+                rowAA[x++ + rowAAOffset] += SUBPIXEL_POSITIONS_X;
+            }
+            rowAA[x + rowAAOffset] += x1 & SUBPIXEL_MASK_X;
         }
     }
 
@@ -869,45 +2849,60 @@ public final class Renderer
         }
     }
     
-    private void emitRow(int minX, int maxX, boolean forceOutput) {
-        // Copy rowAA data into the cache if one is present
+    private void emitRow(int minX, int maxX) {
+        // Scale wide coverage into rowAA, clearing the accumulator
+        if (wideAA && maxX >= minX) {
+            int shift = WIDE_AA_SHIFT;
+            int round = 1 << (shift - 1);
+            int idx = rowAAOffset + minX;
+            int end = rowAAOffset + maxX;
+            for (; idx <= end; idx++) {
+                rowAA[idx] = (byte)((rowAAWide[idx]*255 + round) >> shift);
+                rowAAWide[idx] = 0;
+            }
+        }
+
+        // Copy rowAA data into the cache if one is present.  Rows are
+        // recorded with image x coordinates, since strips differ in
+        // origin and width, and rows skipped between strips are
+        // recorded empty.
         if (cache != null) {
-            if (cache.alphaWidth == 0) {
-                cache.alphaWidth = alphaWidth;
-            } else {
-                if (alphaWidth != cache.alphaWidth) {
-                    throw new IllegalStateException("alphaWidth changed!");
-                }
+            int y = currY + rowNum;
+            if (cache.alphaHeight == 0) {
+                cache.bboxY0 = y;
+                cache.fullAlpha = MAX_AA_ALPHA;
+            }
+            while (cache.bboxY0 + cache.alphaHeight < y) {
+                cache.addRow(Integer.MAX_VALUE, cache.alphaRLELength);
             }
 
-            int len = -1;
             int dstIdx = cache.alphaRLELength;
-            if (maxX >= minX) {
+            int lastX = (maxX < alphaWidth) ? maxX : alphaWidth - 1;
+            if (lastX >= minX) {
                 int srcIdx = rowAAOffset + minX;
-                len = maxX - minX + 1;
+                int len = lastX - minX + 1;
 
                 // Perform run-length encoding
                 // and store results in the cache
-                byte startVal = rowAA[srcIdx];
+                int startVal = rowAA[srcIdx] & 0xff;
                 int runLen = 1;
                 for (int x = 1; x < len; x++) {
-                    byte nextVal = rowAA[srcIdx + x];
-                    if (nextVal == startVal && runLen < 255) {
+                    int nextVal = rowAA[srcIdx + x] & 0xff;
+                    if (nextVal == startVal) {
                         ++runLen;
                     } else {
-                        cache.addRLERun(startVal, runLen);
+                        cache.addRun(startVal, runLen);
 
                         runLen = 1;
                         startVal = nextVal;
                     }                    
                 }
-                if (runLen > 0) {
-                    cache.addRLERun(startVal, runLen);
-                }
-                cache.addRLERun((byte)0, 0);
+                cache.addRun(startVal, runLen);
+                cache.addRow(minX + currX, dstIdx);
+            }
+            else {
+                cache.addRow(Integer.MAX_VALUE, dstIdx);
             }
-
-            cache.addRow(minX, dstIdx);
         }
 
         // Record values for later blitting
@@ -916,33 +2911,79 @@ public final class Renderer
         this.maxTouched[rowNum] = maxX;
         this.rowOffsets[rowNum] = rowAAOffset;
 
+        if (fullSubrows == SUBPIXEL_POSITIONS_Y && fullR > fullL) {
+            this.fullMinTouched[rowNum] = fullL;
+            this.fullMaxTouched[rowNum] = fullR - 1;
+            this.rowsHaveFull = true;
+        }
+        else {
+            this.fullMinTouched[rowNum] = 0;
+            this.fullMaxTouched[rowNum] = -1;
+        }
+        fullSubrows = 0;
+
         rowAAOffset += alphaWidth;
         rowNum++;
-        if (forceOutput || rowNum == NUM_ALPHA_ROWS) {
-            emitRows(rowNum);
-            clearAlpha(rowAA, 0,
-                       alphaWidth, rowNum,
-                       minTouched, maxTouched, rowOffsets);
+        if (rowNum == NUM_ALPHA_ROWS) {
+            flushRows();
+        }
+    }
 
-            currY += rowNum;
-            currImageOffset += rowNum*imageScanlineStride;
-            rowAAOffset = 0;
-            rowNum = 0;
+    /*
+     * Blit the rows emitted since the last flush
+     */
+    private void flushRows() {
+        if (rowNum == 0) {
+            return;
         }
+        emitRows(rowNum);
+        clearAlpha(rowAA, 0,
+                   alphaWidth, rowNum,
+                   minTouched, maxTouched, rowOffsets);
+
+        currY += rowNum;
+        currImageOffset += rowNum*imageScanlineStride;
+        rowAAOffset = 0;
+        rowNum = 0;
     }
 
     private void emitRows(int alphaHeight) {
-        if (paintMode == PAINT_FLAT_COLOR) {
+        boolean full = rowsHaveFull;
+        rowsHaveFull = false;
+        if (!blendsSrcOver()) {
+            int[] paintData = null;
+            if (paintMode != PAINT_FLAT_COLOR) {
+                paint.paint(currX + originX, currY + originY,
+                            alphaWidth, alphaHeight,
+                            minTouched, maxTouched,
+                            paintBuffer, paintBufferOffset, paintBufferStride);
+                paintData = paintBuffer;
+            }
+            Blit.blitComposite(imageData, imageType,
+                               currImageOffset, imageScanlineStride,
+                               imagePixelStride,
+                               rowAA, 0,
+                               alphaWidth, alphaHeight,
+                               minTouched, maxTouched, rowOffsets,
+                               compositeRule, cargb,
+                               paintData, paintBufferOffset, paintBufferStride,
+                               coverageMap);
+        }
+        else if (full && paintMode == PAINT_FLAT_COLOR) {
+            emitRowsSplit(alphaHeight);
+        }
+        else if (paintMode == PAINT_FLAT_COLOR) {
             Blit.blit(imageData, imageType,
                       currImageOffset, imageScanlineStride, imagePixelStride,
                       rowAA, 0,
                       alphaWidth, alphaHeight,
                       minTouched, maxTouched, rowOffsets,
-                      compositeRule,
+                      COMPOSITE_SRC_OVER,
                       cred, cgreen, cblue, calpha, alphaMap);
         }
         else {
-            paint.paint(currX, currY, alphaWidth, alphaHeight,
+            paint.paint(currX + originX, currY + originY,
+                        alphaWidth, alphaHeight,
                         minTouched, maxTouched,
                         paintBuffer, paintBufferOffset, paintBufferStride);
             
@@ -951,14 +2992,65 @@ public final class Renderer
                       rowAA, 0,
                       alphaWidth, alphaHeight,
                       minTouched, maxTouched, rowOffsets,
-                      compositeRule,
+                      COMPOSITE_SRC_OVER,
                       paintBuffer, paintBufferOffset, paintBufferStride,
                       alphaMap);
         }
     }
 
+    /*
+     * Blit a flat color with the fully covered interval of each row
+     * filled directly, so only the pixels left and right of it are
+     * blended through the alpha plane
+     */
+    private void emitRowsSplit(int alphaHeight) {
+        for (int j = 0; j < alphaHeight; j++) {
+            int fmin = fullMinTouched[j];
+            int fmax = fullMaxTouched[j];
+            if (fmax >= fmin) {
+                edgeMaxTouched[j] = fmin - 1;
+                edgeMinTouched[j] = fmax + 1;
+            }
+            else {
+                edgeMaxTouched[j] = maxTouched[j];
+                edgeMinTouched[j] = maxTouched[j] + 1;
+            }
+        }
+
+        // Pixels left of the full interval, or the complete row
+        Blit.blit(imageData, imageType,
+                  currImageOffset, imageScanlineStride, imagePixelStride,
+                  rowAA, 0,
+                  alphaWidth, alphaHeight,
+                  minTouched, edgeMaxTouched, rowOffsets,
+                  COMPOSITE_SRC_OVER,
+                  cred, cgreen, cblue, calpha, alphaMap);
+        // Pixels right of the full interval
+        Blit.blit(imageData, imageType,
+                  currImageOffset, imageScanlineStride, imagePixelStride,
+                  rowAA, 0,
+                  alphaWidth, alphaHeight,
+                  edgeMinTouched, maxTouched, rowOffsets,
+                  COMPOSITE_SRC_OVER,
+                  cred, cgreen, cblue, calpha, alphaMap);
+
+        int aval = alphaMap[MAX_AA_ALPHA];
+        int offset = currImageOffset;
+        for (int j = 0; j < alphaHeight; j++) {
+            int fmin = fullMinTouched[j];
+            int fmax = fullMaxTouched[j];
+            if (fmax >= fmin) {
+                Blit.fillSpan(imageData, imageType,
+                              offset + fmin*imagePixelStride,
+                              imagePixelStride, fmax - fmin + 1,
+                              cred, cgreen, cblue, aval);
+            }
+            offset += imageScanlineStride;
+        }
+    }
+
     private void addEdge(int x0, int y0, int x1, int y1) {
-        int newLen = edgeIdx + 5;
+        int newLen = edgeIdx + EDGE_STRIDE;
         if (edges.length < newLen) {
             int[] tmp = new int[Math.max(11*edges.length/10, newLen)];
             System.arraycopy(edges, 0, tmp, 0, edgeIdx);
@@ -974,24 +3066,46 @@ public final class Renderer
             orientation = -1;
         }
 
-        // Skip edges that don't cross a subsampled scanline
+        // Skip edges that don't cross a subsampled scanline.  Every
+        // edge of nonzero height contributes to the coverage computed
+        // by the area mode.
         int eminY = ((y0 + HYSTEP) & YMASK);
         int emaxY = ((y1 - HYSTEP) & YMASK);
+        if (antialiasingMode == AA_EXACT_AREA) {
+            eminY = y0;
+            emaxY = y1 - 1;
+        }
         if (eminY > emaxY) {
             return;
         }
         else {
+            if (x0 != x1) {
+                rectilinear = false;
+            }
             if (orientation == -1) {
                 int tmp = x0;
                 x0 = x1;
                 x1 = tmp;
             }
 
-            edges[edgeIdx++] = x0;
-            edges[edgeIdx++] = y0;
-            edges[edgeIdx++] = x1;
-            edges[edgeIdx++] = y1;
-            edges[edgeIdx++] = orientation;
+            int index = edgeIdx;
+            edges[index    ] = x0;
+            edges[index + 1] = y0;
+            edges[index + 2] = x1;
+            edges[index + 3] = y1;
+            edges[index + 4] = orientation;
+            /*
+             * x at the first scanline is computed when the edge is
+             * first scan converted; only the slope is needed here
+             */
+            edges[index + EDGE_NEXT_Y] = Integer.MIN_VALUE;
+            long num = (long)YSTEP*(x1 - x0);
+            int dy = y1 - y0;
+            setLong(index + EDGE_STEP_X,
+                    ((num/dy) << 16) + ((num%dy) << 16)/dy);
+            edgeIdx += EDGE_STRIDE;
+
+            bucketEdge(index, eminY);
         
             // Update Y bounds of primitive
             if (y0 < edgeMinY) {
@@ -1003,10 +3117,50 @@ public final class Renderer
         }
     }
 
+    /*
+     * Link the edge at 'index' into the bucket of the pixel row
+     * holding its first subpixel scanline 'eminY'
+     */
+    private void bucketEdge(int index, int eminY) {
+        int link = index/EDGE_STRIDE;
+        if (edgeLinks.length <= link) {
+            int[] tmp = new int[Math.max(11*edgeLinks.length/10, link + 1)];
+            System.arraycopy(edgeLinks, 0, tmp, 0, link);
+            this.edgeLinks = tmp;
+        }
+
+        int bucket = (eminY >> 16) - (boundsMinY >> 16);
+        if (bucket < 0) {
+            bucket = 0;
+        }
+        else if (bucket >= edgeBuckets.length) {
+            bucket = edgeBuckets.length - 1;
+        }
+
+        edgeLinks[link] = edgeBuckets[bucket];
+        edgeBuckets[bucket] = index + 1;
+
+        if (bucket < edgeBucketMin) {
+            edgeBucketMin = bucket;
+        }
+        if (bucket > edgeBucketMax) {
+            edgeBucketMax = bucket;
+        }
+    }
+
     private void resetEdges() {
         this.edgeIdx = 0;
+        this.rectilinear = true;
         this.edgeMinY = Integer.MAX_VALUE;
         this.edgeMaxY = Integer.MIN_VALUE;
+
+        // Only the buckets used by the previous primitive need clearing
+        for (int i = edgeBucketMin; i <= edgeBucketMax; i++) {
+            edgeBuckets[i] = 0;
+        }
+        this.edgeBucketMin = Integer.MAX_VALUE;
+        this.edgeBucketMax = Integer.MIN_VALUE;
+        this.numActiveEdges = 0;
     }
 
     private void setCrossingsExtents(int minY, int maxY, int maxXEntries) {
@@ -1028,6 +3182,24 @@ public final class Renderer
         resetCrossings();
     }
 
+    /*
+     * Clear the convex crossings of subpixel scanlines minY to maxY
+     */
+    private void setConvexExtents(int minY, int maxY) {
+        int size = 2*(maxY - minY + 1);
+        if (convexCrossings == null || convexCrossings.length < size) {
+            this.convexCrossings = new int[Math.max(size,
+                                                    DEFAULT_INDICES_SIZE)];
+        }
+        for (int i = 0; i < size; i++) {
+            convexCrossings[i] = Integer.MIN_VALUE;
+        }
+        this.crossingMinY = minY;
+        this.crossingMaxY = maxY;
+        crossingMinX = Integer.MAX_VALUE;
+        crossingMaxX = Integer.MIN_VALUE;
+    }
+
     private void resetCrossings() {
         int yextent = crossingMaxY - crossingMinY + 1;
         int start = 0;
@@ -1043,15 +3215,32 @@ public final class Renderer
 
     // Free sorting arrays if larger than maximum size
     private void crossingListFinished() {
-        if (crossings.length > DEFAULT_CROSSINGS_SIZE) {
+        if (crossings != null && crossings.length > DEFAULT_CROSSINGS_SIZE) {
             crossings = new int[DEFAULT_CROSSINGS_SIZE];
         }
-        if (crossingIndices.length > DEFAULT_INDICES_SIZE) {
+        if (crossingIndices != null &&
+            crossingIndices.length > DEFAULT_INDICES_SIZE) {
             crossingIndices = new int[DEFAULT_INDICES_SIZE];
         }
+        if (convexCrossings != null &&
+            convexCrossings.length > DEFAULT_INDICES_SIZE) {
+            convexCrossings = null;
+        }
+        if (sortBuffer != null && sortBuffer.length > DEFAULT_INDICES_SIZE) {
+            sortBuffer = null;
+        }
     }
 
     private void sortCrossings(int[] x, int off, int len) {
+        if (len > MAX_INSERTION_SORT) {
+            radixSortCrossings(x, off, len);
+        }
+        else {
+            insertionSortCrossings(x, off, len);
+        }
+    }
+
+    private void insertionSortCrossings(int[] x, int off, int len) {
         for (int i = off + 1; i < off + len; i++) {
             int j = i;
             int xj = x[j];
@@ -1065,6 +3254,76 @@ public final class Renderer
         }
     }
 
+    /*
+     * LSD radix sort of a long crossing row, one byte per pass.  Rows
+     * that are already in order, as is common when edges are added in
+     * path order, are detected and left alone.  Values are sorted
+     * relative to the row minimum so only the bytes spanned by the
+     * range of the row need a pass.
+     */
+    private void radixSortCrossings(int[] x, int off, int len) {
+        int end = off + len;
+        int min = x[off];
+        int max = min;
+        boolean sorted = true;
+        for (int i = off + 1; i < end; i++) {
+            int xi = x[i];
+            if (xi < max) {
+                sorted = false;
+                if (xi < min) {
+                    min = xi;
+                }
+            }
+            else {
+                max = xi;
+            }
+        }
+        if (sorted) {
+            return;
+        }
+
+        if (sortBuffer == null || sortBuffer.length < len) {
+            sortBuffer = new int[Math.max(len, DEFAULT_INDICES_SIZE/8)];
+        }
+        int[] counts = sortCounts;
+        int[] src = x;
+        int srcOff = off;
+        int[] dst = sortBuffer;
+        int dstOff = 0;
+
+        int range = max - min;
+        for (int shift = 0; shift < 32 && (range >>> shift) != 0; shift += 8) {
+            for (int i = 0; i < 256; i++) {
+                counts[i] = 0;
+            }
+            int srcEnd = srcOff + len;
+            for (int i = srcOff; i < srcEnd; i++) {
+                counts[((src[i] - min) >>> shift) & 0xff]++;
+            }
+            int sum = dstOff;
+            for (int i = 0; i < 256; i++) {
+                int c = counts[i];
+                counts[i] = sum;
+                sum += c;
+            }
+            for (int i = srcOff; i < srcEnd; i++) {
+                int v = src[i];
+                dst[counts[((v - min) >>> shift) & 0xff]++] = v;
+            }
+
+            int[] tmp = src;
+            src = dst;
+            dst = tmp;
+            int tmpOff = srcOff;
+            srcOff = dstOff;
+            dstOff = tmpOff;
+        }
+
+        if (src != x) {
+            System.arraycopy(src, srcOff, x, off, len);
+        }
+    }
+
     private void sortCrossings() {
         int start = 0;
         for (int i = 0; i <= crossingMaxY - crossingMinY; i++) {
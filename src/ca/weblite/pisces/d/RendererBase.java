@@ -32,6 +32,16 @@ public abstract class RendererBase
 
     public static final int DEFAULT_SUBPIXEL_LG_POSITIONS_X = 3;
     public static final int DEFAULT_SUBPIXEL_LG_POSITIONS_Y = 3;
+    public static final int MAX_SUBPIXEL_LG_POSITIONS = 4;
+    /**
+     * Antialiasing quality levels.  The value of each level is the
+     * base 2 log of its subpixel positions per axis, so that it may be
+     * passed to setAntialiasing(int, int) directly.
+     */
+    public static final int QUALITY_NONE = 0;
+    public static final int QUALITY_4X4 = 2;
+    public static final int QUALITY_8X8 = 3;
+    public static final int QUALITY_16X16 = 4;
 
     /**
      * @defgroup CompositingRules Compositing rules supported by PISCES 
@@ -59,10 +69,77 @@ public abstract class RendererBase
      * mixture of glass and objects colors. Composite color is alpha-weigth average 
      * of source and destination.
      * @see setCompositeRule(int), Pisces.setComposite(int, float)    
+     * @def COMPOSITE_DST_OVER
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_DST_OVER. The destination is drawn over
+     * the source: the source shows only where the destination is
+     * transparent.
+     * @def COMPOSITE_SRC_IN
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_SRC_IN. The source is kept where the
+     * destination is opaque, and the destination is discarded.
+     * @def COMPOSITE_DST_IN
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_DST_IN. The destination is kept where the
+     * source is opaque.
+     * @def COMPOSITE_SRC_OUT
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_SRC_OUT. The source is kept where the
+     * destination is transparent, and the destination is discarded.
+     * @def COMPOSITE_DST_OUT
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_DST_OUT. The destination is kept where the
+     * source is transparent; the source erases the destination.
+     * @def COMPOSITE_SRC_ATOP
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_SRC_ATOP. The source is drawn over the
+     * destination only where the destination is opaque.
+     * @def COMPOSITE_DST_ATOP
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_DST_ATOP. The destination is drawn over the
+     * source only where the source is opaque.
+     * @def COMPOSITE_XOR
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_XOR. Source and destination are kept only
+     * where the other is transparent.
+     * @def COMPOSITE_DST
+     * @ingroup CompositingRules
+     * Compositing rule COMPOSITE_DST. The destination is left unchanged.
+     *
+     * Coverage of the primitive acts as a clip: a pixel partially
+     * covered is interpolated between its previous value and the
+     * composited value.  Surfaces without alpha are opaque.
      */
     public static final int COMPOSITE_CLEAR    = 0;
     public static final int COMPOSITE_SRC      = 1;
     public static final int COMPOSITE_SRC_OVER = 2;
+    public static final int COMPOSITE_DST_OVER = 3;
+    public static final int COMPOSITE_SRC_IN   = 4;
+    public static final int COMPOSITE_DST_IN   = 5;
+    public static final int COMPOSITE_SRC_OUT  = 6;
+    public static final int COMPOSITE_DST_OUT  = 7;
+    public static final int COMPOSITE_SRC_ATOP = 8;
+    public static final int COMPOSITE_DST_ATOP = 9;
+    public static final int COMPOSITE_XOR      = 10;
+    public static final int COMPOSITE_DST      = 11;
+
+    /**
+     * Scan conversion modes.  SCAN_STRIPS rescans the complete edge
+     * list for every strip of the crossings table.  SCAN_ACTIVE_EDGES
+     * buckets edges by their first scanline as they are added, and
+     * visits only the edges that are live in the current strip.
+     */
+    public static final int SCAN_STRIPS = 0;
+    public static final int SCAN_ACTIVE_EDGES = 1;
+    /**
+     * Antialiasing modes.  AA_SUPERSAMPLE counts the covered samples of
+     * a grid of subpixel positions.  AA_EXACT_AREA computes the exact
+     * area of each pixel covered by the path, without a crossings
+     * table; coverage is approximate only where the winding changes
+     * inside a pixel (e.g. self-intersections).
+     */
+    public static final int AA_SUPERSAMPLE = 0;
+    public static final int AA_EXACT_AREA = 1;
     
     /**
      * Constant indicating 8/8/8 RGB pixel data stored in an
@@ -113,10 +190,26 @@ public abstract class RendererBase
 
     public abstract int getSubpixelLgPositionsY();
 
+    public abstract void setScanMode(int scanMode);
+
+    public abstract int getScanMode();
+
+    public abstract void setAntialiasingMode(int antialiasingMode);
+
+    public abstract int getAntialiasingMode();
+
+    public abstract void setParallelism(int parallelism);
+
+    public abstract int getParallelism();
+
     public abstract void setColor(int red, int green, int blue, int alpha);
 
     public abstract void setPaint(Paint paint);
 
+    public abstract void setCompositeRule(int compositeRule);
+
+    public abstract int getCompositeRule();
+
     public abstract void beginRendering(double boundsX, double boundsY,
                                         double boundsWidth, double boundsHeight,
                                         int windingRule);
@@ -140,6 +233,10 @@ public abstract class RendererBase
     public abstract void setCache(PiscesCache cache);
 
     public abstract void renderFromCache(PiscesCache cache);
+
+    public abstract void renderFromMask(PiscesMask mask, int dx, int dy,
+                                        int boundsX, int boundsY,
+                                        int boundsWidth, int boundsHeight);
     
     public abstract void clearRect(double x, double y, double w, double h);
 
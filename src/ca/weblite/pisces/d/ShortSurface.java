@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+/**
+ * An opaque USHORT 565 RGB {@link Surface$Sink}, in half the memory
+ * of INT ARGB.  Pixels read with {@link #getRGB} are opaque, and the
+ * alpha of pixels written with {@link #setRGB} is dropped.
+ */
+public class ShortSurface
+    extends Object
+    implements Surface.Sink.Short
+{
+
+    private final int width;
+    private final int height;
+    private final short[] data;
+
+
+    public ShortSurface(int width, int height) {
+        this(null, width, height);
+    }
+    public ShortSurface(short[] data, int width, int height) {
+        super();
+        this.data = (data != null) ? data : new short[width * height];
+        this.width = width;
+        this.height = height;
+    }
+
+
+    /**
+     * @see Surface
+     */
+    public final int getWidth() {
+        return width;
+    }
+    /**
+     * @see Surface
+     */
+    public final int getHeight() {
+        return height;
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public int getDataType(){
+
+        return TYPE_USHORT_565_RGB;
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public short[] getData() {
+
+        return data;
+    }
+    /**
+     * @see Surface
+     */
+    public final void getRGB(int[] argb, int offset, int scanLength,
+                             int x, int y, int width, int height)
+    {
+        int dstX = 0;
+        int dstY = 0;
+
+        if (x < 0) {
+            dstX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            dstY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += dstY * scanLength + dstX;
+
+            int srcOffset = y * this.width + x;
+            int srcScanRest = this.width - width;
+            int dstScanRest = scanLength - width;
+
+            for (; height > 0; --height) {
+
+                for (int w = width; w > 0; --w) {
+
+                    argb[offset++] = ToRGB(data[srcOffset++]);
+                }
+                srcOffset += srcScanRest;
+                offset += dstScanRest;
+            }
+        }
+    }
+    /**
+     * @see Surface
+     */
+    public final void setRGB(int[] argb, int offset, int scanLength,
+                             int x, int y, int width, int height)
+    {
+        int srcX = 0;
+        int srcY = 0;
+
+        if (x < 0) {
+            srcX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            srcY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += srcY * scanLength + srcX;
+
+            int dstOffset = y * this.width + x;
+            int srcScanRest = scanLength - width;
+            int dstScanRest = this.width - width;
+
+            for (; height > 0; --height) {
+
+                for (int w = width; w > 0; --w) {
+
+                    data[dstOffset++] = To565(argb[offset++]);
+                }
+                offset += srcScanRest;
+                dstOffset += dstScanRest;
+            }
+        }
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public void blit(Surface ps,
+                     int srcX, int srcY,
+                     int dstX, int dstY,
+                     int width, int height,
+                     float opacity)
+    {
+        int srcW = ps.getWidth();
+        int srcH = ps.getHeight();
+
+        if (srcX < 0) {
+            dstX -= srcX;
+            width += srcX;
+            srcX = 0;
+        }
+
+        if (srcY < 0) {
+            dstY -= srcY;
+            height += srcY;
+            srcY = 0;
+        }
+
+        if ((srcX + width) > srcW) {
+            width = srcW - srcX;
+        }
+
+        if ((srcY + height) > srcH) {
+            height = srcH - srcY;
+        }
+
+        if (dstX < 0) {
+            srcX -= dstX;
+            width += dstX;
+            dstX = 0;
+        }
+
+        if (dstY < 0) {
+            srcY -= dstY;
+            height += dstY;
+            dstY = 0;
+        }
+
+        if ((dstX + width) > this.width) {
+            width = this.width - dstX;
+        }
+
+        if ((dstY + height) > this.height) {
+            height = this.height - dstY;
+        }
+
+        if ((width <= 0) || (height <= 0) || (opacity == 0)) {
+
+            return;
+        }
+        else if (ps instanceof ShortSurface && opacity >= 1) {
+            /*
+             * Opaque pixels of the same type are copied
+             */
+            short[] src = ((ShortSurface)ps).data;
+            int srcOffset = srcY * srcW + srcX;
+            int dstOffset = dstY * this.width + dstX;
+            for (; height > 0; --height) {
+                System.arraycopy(src, srcOffset, data, dstOffset, width);
+                srcOffset += srcW;
+                dstOffset += this.width;
+            }
+        }
+        else {
+            int[] srcRGB = new int[width * height];
+
+            ps.getRGB(srcRGB, 0, width, srcX, srcY, width, height);
+
+            this.blit(srcRGB, 0, width, dstX, dstY, width, height, opacity);
+        }
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public void blit(int[] argb, int offset, int scanLength,
+                     int x, int y, int width, int height, float opacity)
+    {
+        int srcX = 0;
+        int srcY = 0;
+
+        if (x < 0) {
+            srcX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            srcY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += srcY * scanLength + srcX;
+
+            int op = (int)(0x100 * opacity);
+
+            int dstOffset = y * this.width + x;
+            int srcScanRest = scanLength - width;
+            int dstScanRest = this.width - width;
+
+            for (; height > 0; --height) {
+
+                for (int w = width; w > 0; --w) {
+
+                    int srcVal = argb[offset++];
+                    int srcA = (((srcVal >> 24) & 0xff) * op) >> 8;
+
+                    if (srcA == 0xff) {
+
+                        data[dstOffset] = To565(srcVal);
+                    }
+                    else if (srcA != 0) {
+
+                        data[dstOffset] =
+                            To565(Blend(srcVal, ToRGB(data[dstOffset]), srcA));
+                    }
+                    dstOffset++;
+                }
+                offset += srcScanRest;
+                dstOffset += dstScanRest;
+            }
+        }
+    }
+    /**
+     * Opaque ARGB value of a 565 pixel
+     */
+    private static int ToRGB(short sval) {
+        int r5 = (sval >> 11) & 0x1f;
+        int g6 = (sval >> 5) & 0x3f;
+        int b5 = sval & 0x1f;
+        return (0xff000000 |
+                (((r5 << 3) | (r5 >> 2)) << 16) |
+                (((g6 << 2) | (g6 >> 4)) << 8) |
+                ((b5 << 3) | (b5 >> 2)));
+    }
+    /**
+     * 565 pixel of an ARGB value, without its alpha
+     */
+    private static short To565(int argb) {
+        return (short)((Blit.convert8To5[(argb >> 16) & 0xff] << 11) |
+                       (Blit.convert8To6[(argb >> 8) & 0xff] << 5) |
+                       Blit.convert8To5[argb & 0xff]);
+    }
+    /**
+     * Blend of the colors of src over the opaque dst, src weighing
+     * alpha in [0, 255]
+     */
+    private static int Blend(int src, int dst, int alpha) {
+        int inv = 255 - alpha;
+        int red = (((src >> 16) & 0xff) * alpha +
+                   ((dst >> 16) & 0xff) * inv + 127) / 255;
+        int green = (((src >> 8) & 0xff) * alpha +
+                     ((dst >> 8) & 0xff) * inv + 127) / 255;
+        int blue = ((src & 0xff) * alpha + (dst & 0xff) * inv + 127) / 255;
+        return (0xff000000 | (red << 16) | (green << 8) | blue);
+    }
+}
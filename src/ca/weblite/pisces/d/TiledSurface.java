@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+/**
+ * An INT ARGB {@link Surface$Sink} held in square tiles, for canvases
+ * too large for a single pixel array.  A tile is allocated when first
+ * drawn; until then it holds one value, transparent black or the
+ * color of the last clear covering it.
+ *
+ * <p> {@link Renderer} draws each primitive tile by tile, and
+ * {@link #getRGB} and {@link #setRGB} copy across tiles, so that
+ * large images are read in strips, as by the PNG encoder.  Exporters
+ * writing to buffers or files of their own may instead copy the
+ * surface tile by tile with {@link #getTile}.  Tiles are int arrays
+ * on the heap on every platform; there is no off-heap surface.
+ */
+public class TiledSurface
+    extends Object
+    implements Surface.Sink
+{
+    /**
+     * Width and height of the tiles by default
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+
+    private final int width;
+    private final int height;
+    private final int dataType;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    /*
+     * Pixels of each tile, row by row, or null while the tile holds
+     * its value in fills
+     */
+    private final int[][] tiles;
+    private final int[] fills;
+    /*
+     * Pixels of a tile opened but not drawn, kept for the next one
+     */
+    private int[] scratch;
+    private int allocated;
+
+
+    public TiledSurface(int width, int height) {
+        this(width, height, TYPE_INT_ARGB, DEFAULT_TILE_SIZE);
+    }
+    /**
+     * @param dataType One of <code>TYPE_INT_ARGB</code> and
+     * <code>TYPE_INT_ARGB_PRE</code>.
+     * @param tileSize Width and height of the tiles, at most
+     * <code>Renderer.MAX_FIXED_EXTENT</code>.
+     * @exception IllegalArgumentException Unsupported data type, or
+     * invalid size.
+     */
+    public TiledSurface(int width, int height, int dataType, int tileSize) {
+        super();
+        if (dataType != TYPE_INT_ARGB && dataType != TYPE_INT_ARGB_PRE) {
+            throw new IllegalArgumentException("Unsupported data type");
+        }
+        if (width < 0 || height < 0 ||
+            tileSize < 1 || tileSize > Renderer.MAX_FIXED_EXTENT)
+        {
+            throw new IllegalArgumentException("Invalid size");
+        }
+        this.width = width;
+        this.height = height;
+        this.dataType = dataType;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1)/tileSize;
+        this.rows = (height + tileSize - 1)/tileSize;
+        this.tiles = new int[columns*rows][];
+        this.fills = new int[columns*rows];
+    }
+
+
+    /**
+     * @see Surface
+     */
+    public final int getWidth() {
+        return width;
+    }
+    /**
+     * @see Surface
+     */
+    public final int getHeight() {
+        return height;
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public int getDataType(){
+
+        return dataType;
+    }
+    public final boolean isPremultiplied() {
+        return (dataType == TYPE_INT_ARGB_PRE);
+    }
+    /**
+     * @return Null, the pixels are held in tiles.
+     * @see Surface$Sink
+     */
+    public Object getData() {
+
+        return null;
+    }
+    public final int getTileSize() {
+        return tileSize;
+    }
+    /**
+     * @return Number of tiles allocated, out of
+     * <code>ceil(width/tileSize)*ceil(height/tileSize)</code>.
+     */
+    public final int getAllocatedTiles() {
+        return allocated;
+    }
+    public final int getTileColumns() {
+        return columns;
+    }
+    public final int getTileRows() {
+        return rows;
+    }
+    /**
+     * Copy the pixels of a tile, for exporting the surface tile by
+     * tile.  The copy is <code>tileSize*tileSize</code> pixels of the
+     * data type of this surface, row by row, and columns or rows
+     * beyond the edge of the surface are not defined.
+     *
+     * @param pixels Destination of at least <code>offset +
+     * tileSize*tileSize</code> pixels.
+     * @return False if the tile is not allocated, and every pixel
+     * copied has the value given by {@link #getTileValue}.
+     * @exception IllegalArgumentException Tile out of range.
+     */
+    public final boolean getTile(int column, int row,
+                                 int[] pixels, int offset)
+    {
+        int index = tileIndex(column, row);
+        int[] tile = tiles[index];
+        int count = tileSize*tileSize;
+        if (tile != null) {
+            System.arraycopy(tile, 0, pixels, offset, count);
+            return true;
+        }
+        else {
+            int value = fills[index];
+            for (int i = offset + count - 1; i >= offset; i--) {
+                pixels[i] = value;
+            }
+            return false;
+        }
+    }
+    /**
+     * @return Value of every pixel of a tile that is not allocated, in
+     * the data type of this surface.
+     * @exception IllegalArgumentException Tile out of range.
+     * @see #getTile
+     */
+    public final int getTileValue(int column, int row) {
+        return fills[tileIndex(column, row)];
+    }
+    private int tileIndex(int column, int row) {
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            throw new IllegalArgumentException("Invalid tile");
+        }
+        return row*columns + column;
+    }
+    /**
+     * @see Surface
+     */
+    public final void getRGB(int[] argb, int offset, int scanLength,
+                             int x, int y, int width, int height)
+    {
+        int dstX = 0;
+        int dstY = 0;
+
+        if (x < 0) {
+            dstX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            dstY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += dstY * scanLength + dstX;
+
+            int T = tileSize;
+            for (int ty = y - y % T; ty < y + height; ty += T) {
+                int y0 = Math.max(y, ty);
+                int y1 = Math.min(y + height, ty + T);
+
+                for (int tx = x - x % T; tx < x + width; tx += T) {
+                    int x0 = Math.max(x, tx);
+                    int x1 = Math.min(x + width, tx + T);
+
+                    int i = (ty/T)*columns + tx/T;
+                    int dstOffset = offset + (y0 - y)*scanLength + (x0 - x);
+                    if (tiles[i] != null) {
+                        NativeSurface.Copy(argb, dstOffset, scanLength,
+                                           tiles[i],
+                                           (y0 - ty)*T + (x0 - tx), T,
+                                           x1 - x0, y1 - y0);
+                    }
+                    else {
+                        Fill(argb, dstOffset, scanLength,
+                             x1 - x0, y1 - y0, fills[i]);
+                    }
+                }
+            }
+
+            if (dataType == TYPE_INT_ARGB_PRE) {
+                NativeSurface.Convert(argb, offset, scanLength,
+                                      width, height, false);
+            }
+        }
+    }
+    /**
+     * @see Surface
+     */
+    public final void setRGB(int[] argb, int offset, int scanLength,
+                             int x, int y, int width, int height)
+    {
+        int srcX = 0;
+        int srcY = 0;
+
+        if (x < 0) {
+            srcX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            srcY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += srcY * scanLength + srcX;
+
+            int T = tileSize;
+            for (int ty = y - y % T; ty < y + height; ty += T) {
+                int y0 = Math.max(y, ty);
+                int y1 = Math.min(y + height, ty + T);
+
+                for (int tx = x - x % T; tx < x + width; tx += T) {
+                    int x0 = Math.max(x, tx);
+                    int x1 = Math.min(x + width, tx + T);
+
+                    int[] tile = openTile(tx/T, ty/T);
+                    int tileOffset = (y0 - ty)*T + (x0 - tx);
+                    NativeSurface.Copy(tile, tileOffset, T,
+                                       argb,
+                                       offset + (y0 - y)*scanLength + (x0 - x),
+                                       scanLength,
+                                       x1 - x0, y1 - y0);
+                    if (dataType == TYPE_INT_ARGB_PRE) {
+                        NativeSurface.Convert(tile, tileOffset, T,
+                                              x1 - x0, y1 - y0, true);
+                    }
+                    closeTile(tx/T, ty/T, tile, true);
+                }
+            }
+        }
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public void blit(Surface ps,
+                     int srcX, int srcY,
+                     int dstX, int dstY,
+                     int width, int height,
+                     float opacity)
+    {
+        int srcW = ps.getWidth();
+        int srcH = ps.getHeight();
+
+        if (srcX < 0) {
+            dstX -= srcX;
+            width += srcX;
+            srcX = 0;
+        }
+
+        if (srcY < 0) {
+            dstY -= srcY;
+            height += srcY;
+            srcY = 0;
+        }
+
+        if ((srcX + width) > srcW) {
+            width = srcW - srcX;
+        }
+
+        if ((srcY + height) > srcH) {
+            height = srcH - srcY;
+        }
+
+        if ((width <= 0) || (height <= 0) || (opacity == 0)) {
+
+            return;
+        }
+        else if (ps instanceof NativeSurface &&
+                 ((NativeSurface)ps).getDataType() == this.dataType) {
+
+            NativeSurface ns = (NativeSurface)ps;
+
+            this.blit(ns.getData(),
+                      ns.getOffset() + srcY * ns.getScanLength() + srcX,
+                      ns.getScanLength(), dstX, dstY,
+                      width, height, opacity, true);
+        }
+        else {
+            if (dstX < 0) {
+                srcX -= dstX;
+                width += dstX;
+                dstX = 0;
+            }
+
+            if (dstY < 0) {
+                srcY -= dstY;
+                height += dstY;
+                dstY = 0;
+            }
+
+            if ((dstX + width) > this.width) {
+                width = this.width - dstX;
+            }
+
+            if ((dstY + height) > this.height) {
+                height = this.height - dstY;
+            }
+
+            if ((width <= 0) || (height <= 0)) {
+
+                return;
+            }
+            /*
+             * Copied in strips of rows, so that large surfaces need
+             * not be copied whole
+             */
+            int strip = Math.max(1, Math.min(height,
+                                             (tileSize*tileSize)/width));
+            int[] srcRGB = new int[width * strip];
+
+            for (int j = 0; j < height; j += strip) {
+                int h = Math.min(strip, height - j);
+
+                ps.getRGB(srcRGB, 0, width, srcX, srcY + j, width, h);
+
+                this.blit(srcRGB, 0, width, dstX, dstY + j, width, h,
+                          opacity, false);
+            }
+        }
+    }
+    /**
+     * @see Surface$Sink
+     */
+    public void blit(int[] argb, int offset, int scanLength,
+                     int x, int y, int width, int height, float opacity)
+    {
+        this.blit(argb, offset, scanLength, x, y, width, height, opacity,
+                  false);
+    }
+    /*
+     * Blit pixels in ARGB, or in the data type of this surface if
+     * native is true
+     */
+    private void blit(int[] argb, int offset, int scanLength,
+                      int x, int y, int width, int height, float opacity,
+                      boolean nativeType)
+    {
+        int srcX = 0;
+        int srcY = 0;
+
+        if (x < 0) {
+            srcX -= x;
+            width += x;
+            x = 0;
+        }
+
+        if (y < 0) {
+            srcY -= y;
+            height += y;
+            y = 0;
+        }
+
+        if ((x + width) > this.width) {
+            width = this.width - x;
+        }
+
+        if ((y + height) > this.height) {
+            height = this.height - y;
+        }
+
+        if ((width > 0) && (height > 0)) {
+
+            offset += srcY * scanLength + srcX;
+
+            int T = tileSize;
+            for (int ty = y - y % T; ty < y + height; ty += T) {
+                int y0 = Math.max(y, ty);
+                int y1 = Math.min(y + height, ty + T);
+
+                for (int tx = x - x % T; tx < x + width; tx += T) {
+                    int x0 = Math.max(x, tx);
+                    int x1 = Math.min(x + width, tx + T);
+
+                    int[] tile = openTile(tx/T, ty/T);
+                    int tileOffset = (y0 - ty)*T + (x0 - tx);
+                    int srcOffset = offset + (y0 - y)*scanLength + (x0 - x);
+                    if (dataType == TYPE_INT_ARGB_PRE) {
+                        NativeSurface.DrawPre(tile, tileOffset, T,
+                                              argb, srcOffset, scanLength,
+                                              x1 - x0, y1 - y0, opacity,
+                                              nativeType);
+                    }
+                    else {
+                        NativeSurface.Draw(tile, tileOffset, T,
+                                           argb, srcOffset, scanLength,
+                                           x1 - x0, y1 - y0, opacity);
+                    }
+                    closeTile(tx/T, ty/T, tile, true);
+                }
+            }
+        }
+    }
+    /*
+     * Pixels of a tile to draw on: its own, or, if it holds a single
+     * value, a scratch tile filled with it
+     */
+    int[] openTile(int column, int row) {
+        int i = row*columns + column;
+        int[] tile = tiles[i];
+        if (tile == null) {
+            tile = scratch;
+            this.scratch = null;
+            if (tile == null) {
+                tile = new int[tileSize*tileSize];
+            }
+            Fill(tile, 0, tileSize, tileSize, tileSize, fills[i]);
+        }
+        return tile;
+    }
+    /*
+     * Finish drawing on a tile from openTile.  A scratch tile becomes
+     * the tile once drawn, and is kept for reuse otherwise.
+     */
+    void closeTile(int column, int row, int[] tile, boolean drawn) {
+        int i = row*columns + column;
+        if (tiles[i] == null) {
+            if (drawn) {
+                tiles[i] = tile;
+                allocated++;
+            }
+            else {
+                this.scratch = tile;
+            }
+        }
+    }
+    /*
+     * Set every pixel of a tile to value, releasing its pixels
+     */
+    void fillTile(int column, int row, int value) {
+        int i = row*columns + column;
+        if (tiles[i] != null) {
+            this.scratch = tiles[i];
+            tiles[i] = null;
+            allocated--;
+        }
+        fills[i] = value;
+    }
+    /**
+     * Pixel fill procedure
+     */
+    private static void Fill(int[] dstRGB, int dstOffset, int dstScanLength,
+                             int width, int height, int value)
+    {
+        int dstScanRest = dstScanLength - width;
+
+        for (; height > 0; --height) {
+
+            for (int w = width; w > 0; --w) {
+
+                dstRGB[dstOffset++] = value;
+            }
+            dstOffset += dstScanRest;
+        }
+    }
+}
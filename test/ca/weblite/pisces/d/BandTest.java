@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+import java.util.Random;
+
+/**
+ * Primitives rendered in bands by several threads are identical to
+ * primitives rendered whole.
+ */
+public class BandTest
+    extends AbstractTest
+{
+    private static final int W = 320, H = 320;
+
+
+    public boolean runTest() throws Exception {
+        int[] qualities = {
+            RendererBase.QUALITY_4X4,
+            RendererBase.QUALITY_8X8,
+            RendererBase.QUALITY_16X16
+        };
+        for (int rule = 0; rule < 2; rule++) {
+            for (int q = 0; q < qualities.length; q++) {
+                testBands(qualities[q], RendererBase.AA_SUPERSAMPLE, rule);
+            }
+            testBands(RendererBase.QUALITY_8X8, RendererBase.AA_EXACT_AREA,
+                      rule);
+        }
+        return true;
+    }
+
+    private void testBands(int quality, int mode, int windingRule) {
+        int[] expected = render(quality, mode, windingRule, 1);
+        for (int parallelism = 2; parallelism <= 4; parallelism++) {
+            int[] banded = render(quality, mode, windingRule, parallelism);
+            assertBool(same(expected, banded),
+                       "Bands of quality "+quality+", mode "+mode+
+                       ", rule "+windingRule+" on "+parallelism+" threads");
+        }
+    }
+
+    /*
+     * Render a random polygon twice, so that the second one reuses the
+     * band threads of the first
+     */
+    private static int[] render(int quality, int mode, int windingRule,
+                                int parallelism)
+    {
+        Pisces pisces = new Pisces(new NativeSurface(W, H));
+        pisces.setAntialiasingQuality(quality);
+        pisces.setAntialiasingMode(mode);
+        pisces.setParallelism(parallelism);
+        pisces.setFill();
+        try {
+            for (int k = 0; k < 2; k++) {
+                pisces.setColor(new Color(255, 255, 255, 255));
+                pisces.clearRect(0, 0, W, H);
+                pisces.setColor(new Color(200, 200, 30, 40));
+                pisces.beginRendering(windingRule);
+                Random random = new Random(7);
+                pisces.moveTo(2.5, 3.25);
+                for (int i = 0; i < 800; i++) {
+                    pisces.lineTo(1.3 + random.nextDouble()*(W - 3),
+                                  2.7 + random.nextDouble()*(H - 5));
+                }
+                pisces.close();
+                pisces.endRendering();
+            }
+            return (int[])pisces.getData();
+        }
+        finally {
+            pisces.dispose();
+        }
+    }
+
+    private static boolean same(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
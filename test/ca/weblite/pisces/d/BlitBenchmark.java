@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import com.codename1.system.NativeLookup;
+
+import java.util.Random;
+
+/**
+ * Times the blend loops of large translucent fills and of full
+ * surface blits.  The premultiplied fill, which blends channels in
+ * pairs, is timed against the per channel loop it replaced, and the
+ * portable loops against the blend kernels of the platform.  The vector kernels of JavaSE
+ * are timed when native/javase and native/javase-vector are on the
+ * class path and the JVM runs with
+ * <code>--add-modules jdk.incubator.vector</code>.
+ */
+public class BlitBenchmark {
+
+    private static final int W = 1024, H = 1024;
+    private static final int ROUNDS = 5, REPS = 20;
+
+
+    public static void main(String[] args) {
+        boolean vector = registerKernels();
+        System.out.println("Blend kernels: "+
+                           (vector ? "available" : "not available"));
+
+        Blit.setNativeKernels(false);
+        System.out.println("Per channel loops, paired portable loops:");
+        timePairedFill("TYPE_INT_ARGB_PRE fill",
+                       RendererBase.TYPE_INT_ARGB_PRE);
+
+        System.out.println("Portable loops, blend kernels:");
+        timeFill("TYPE_INT_RGB fill", RendererBase.TYPE_INT_RGB, vector);
+        timeFill("TYPE_INT_ARGB fill", RendererBase.TYPE_INT_ARGB, vector);
+        timeDraw("TYPE_INT_ARGB blit", vector);
+    }
+
+    private static boolean registerKernels() {
+        try {
+            Class<?> impl = Class.forName("ca.weblite.pisces.d.NativeBlitImpl");
+            NativeLookup.register(NativeBlit.class, impl);
+            Blit.setNativeKernels(true);
+            return Blit.hasNativeKernels();
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    /*
+     * Fill the whole surface with a translucent color at full coverage
+     */
+    private static void timeFill(String name, int type, boolean vector) {
+        int[] data = pixels(1, type);
+        compare(name, data, fill(data, type), vector);
+    }
+
+    private static Runnable fill(final int[] data, final int type) {
+        final byte[] alpha = new byte[W*H];
+        for (int i = 0; i < alpha.length; i++) {
+            alpha[i] = (byte)255;
+        }
+        final int[] minTouched = new int[H];
+        final int[] maxTouched = new int[H];
+        final int[] rowOffsets = new int[H];
+        for (int j = 0; j < H; j++) {
+            maxTouched[j] = W - 1;
+            rowOffsets[j] = j*W;
+        }
+        final int[] alphaMap = alphaMap();
+        return new Runnable() {
+            public void run() {
+                Blit.blit(data, type, 0, W, 1, alpha, 0, W, H,
+                          minTouched, maxTouched, rowOffsets,
+                          Blit.COMPOSITE_SRC_OVER, 200, 30, 40,
+                          200, alphaMap);
+            }
+        };
+    }
+
+    /*
+     * Coverage of a color of alpha 200
+     */
+    private static int[] alphaMap() {
+        int[] alphaMap = new int[256];
+        for (int i = 0; i < 256; i++) {
+            alphaMap[i] = (i*200*256 + 255*255/2)/(255*255);
+        }
+        return alphaMap;
+    }
+
+    /*
+     * The fill of timeFill with the per channel blend
+     */
+    private static void timePairedFill(String name, final int type) {
+        final int[] data = pixels(1, type);
+        final byte[] alpha = new byte[W*H];
+        for (int i = 0; i < alpha.length; i++) {
+            alpha[i] = (byte)255;
+        }
+        final int[] alphaMap = alphaMap();
+        final int cval = 0xff000000 | (200 << 16) | (30 << 8) | 40;
+        Runnable perChannel = new Runnable() {
+            public void run() {
+                for (int i = 0; i < data.length; i++) {
+                    int aval = alphaMap[alpha[i] & 0xff];
+                    if (aval == 0) {
+                        continue;
+                    }
+                    else if (aval == 256) {
+                        data[i] = cval;
+                    }
+                    else {
+                        blend8888Pre(data, i, aval, 200, 30, 40);
+                    }
+                }
+            }
+        };
+        compareLoops(name, data, perChannel, fill(data, type));
+    }
+
+    /*
+     * Time the per channel and the paired loops from the same pixels,
+     * and check that both give the same pixels
+     */
+    private static void compareLoops(String name, int[] data,
+                                     Runnable perChannel, Runnable paired)
+    {
+        int[] initial = new int[data.length];
+        System.arraycopy(data, 0, initial, 0, data.length);
+
+        // warm both loops up before timing either
+        time(data, initial, perChannel);
+        time(data, initial, paired);
+
+        double before = time(data, initial, perChannel);
+        double after = time(data, initial, paired);
+
+        // compare one pass, as differences in rounding compound over
+        // the repeated passes
+        System.arraycopy(initial, 0, data, 0, data.length);
+        perChannel.run();
+        int[] expected = new int[data.length];
+        System.arraycopy(data, 0, expected, 0, data.length);
+        System.arraycopy(initial, 0, data, 0, data.length);
+        paired.run();
+        int diff = diff(expected, data);
+        System.out.println(name+": per channel "+format(before)+
+                           " ms, paired "+format(after)+" ms, "+
+                           describe(diff)+
+                           ((diff == 0) ? "" :
+                            " by at most "+maxChannelDiff(expected, data)));
+    }
+
+    private static int maxChannelDiff(int[] a, int[] b) {
+        int max = 0;
+        for (int i = 0; i < a.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int d = ((a[i] >>> shift) & 0xff) - ((b[i] >>> shift) & 0xff);
+                max = Math.max(max, Math.abs(d));
+            }
+        }
+        return max;
+    }
+
+    /*
+     * Blit a whole surface of random pixels at 60% opacity
+     */
+    private static void timeDraw(String name, boolean vector) {
+        final int[] src = pixels(2, RendererBase.TYPE_INT_ARGB);
+        final int[] data = pixels(3, RendererBase.TYPE_INT_ARGB);
+        final NativeSurface surface = new NativeSurface(data, W, H);
+        Runnable draw = new Runnable() {
+            public void run() {
+                surface.blit(src, 0, W, 0, 0, W, H, 0.6f);
+            }
+        };
+        compare(name, data, draw, vector);
+    }
+
+    /*
+     * Time a blend with the portable loops and with the kernels, from
+     * the same pixels, and check that both give the same pixels
+     */
+    private static void compare(String name, int[] data, Runnable blend,
+                                boolean vector)
+    {
+        int[] initial = new int[data.length];
+        System.arraycopy(data, 0, initial, 0, data.length);
+
+        Blit.setNativeKernels(false);
+        double scalar = time(data, initial, blend);
+        int[] expected = new int[data.length];
+        System.arraycopy(data, 0, expected, 0, data.length);
+        if (!vector) {
+            System.out.println(name+": "+format(scalar)+" ms");
+            return;
+        }
+        Blit.setNativeKernels(true);
+        double kernels = time(data, initial, blend);
+        Blit.setNativeKernels(false);
+        System.out.println(name+": portable "+format(scalar)+
+                           " ms, kernels "+format(kernels)+" ms, "+
+                           describe(diff(expected, data)));
+    }
+
+    private static int diff(int[] a, int[] b) {
+        int diff = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                diff++;
+            }
+        }
+        return diff;
+    }
+
+    private static String describe(int diff) {
+        return (diff == 0) ? "identical" : diff+" pixels differ";
+    }
+
+    /*
+     * Best time in ms of a blend, over rounds of REPS blends from the
+     * initial pixels.  The pixels of the last round are left in data.
+     */
+    private static double time(int[] data, int[] initial, Runnable blend) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            System.arraycopy(initial, 0, data, 0, data.length);
+            long start = System.currentTimeMillis();
+            for (int rep = 0; rep < REPS; rep++) {
+                blend.run();
+            }
+            best = Math.min(best, System.currentTimeMillis() - start);
+        }
+        return (double)best/REPS;
+    }
+
+    /*
+     * Random pixels of the image type
+     */
+    private static int[] pixels(long seed, int type) {
+        Random random = new Random(seed);
+        int[] data = new int[W*H];
+        for (int i = 0; i < data.length; i++) {
+            int argb = random.nextInt();
+            if (type == RendererBase.TYPE_INT_RGB) {
+                argb |= 0xff000000;
+            }
+            else if (type == RendererBase.TYPE_INT_ARGB_PRE) {
+                int a = argb >>> 24;
+                argb = (a << 24) |
+                    ((((argb >> 16) & 0xff)*a/255) << 16) |
+                    ((((argb >> 8) & 0xff)*a/255) << 8) |
+                    ((argb & 0xff)*a/255);
+            }
+            data[i] = argb;
+        }
+        return data;
+    }
+
+    /*
+     * The blend of Blit before channels were blended in pairs
+     */
+    private static void blend8888Pre(int[] intData, int iidx,
+                                     int aval,
+                                     int sred, int sgreen, int sblue)
+    {
+        int ival = intData[iidx];
+        int ia = 256 - aval;
+
+        int oalpha = (255*aval + (ival >>> 24)*ia + 128) >> 8;
+        int ored = (sred*aval + ((ival >> 16) & 0xff)*ia + 128) >> 8;
+        int ogreen = (sgreen*aval + ((ival >> 8) & 0xff)*ia + 128) >> 8;
+        int oblue = (sblue*aval + (ival & 0xff)*ia + 128) >> 8;
+
+        intData[iidx] = (oalpha << 24) | (ored << 16) | (ogreen << 8) | oblue;
+    }
+
+    private static String format(double ms) {
+        return String.valueOf(Math.floor(ms*100 + 0.5)/100);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+import java.util.Random;
+
+/**
+ * Every Porter-Duff rule composites as its weights of source and
+ * destination, and the general compositing loop blends
+ * COMPOSITE_SRC_OVER as the fast blits do.
+ */
+public class CompositeTest
+    extends AbstractTest
+{
+    private static final int W = 32, H = 32;
+
+    /*
+     * A translucent and an opaque source, which COMPOSITE_SRC draws
+     * with the fast blits
+     */
+    private static final int[] SOURCES = { 0x96c81e6e, 0xff3c8cdc };
+
+
+    public boolean runTest() throws Exception {
+        for (int rule = RendererBase.COMPOSITE_CLEAR;
+             rule <= RendererBase.COMPOSITE_DST; rule++)
+        {
+            for (int s = 0; s < SOURCES.length; s++) {
+                testRendered(rule, SOURCES[s], RendererBase.TYPE_INT_ARGB);
+                testRendered(rule, SOURCES[s],
+                             RendererBase.TYPE_INT_ARGB_PRE);
+                testCoverage(rule, SOURCES[s]);
+            }
+        }
+        testSrcOver();
+        return true;
+    }
+
+    /*
+     * A rectangle covering the surface, drawn with the rule
+     */
+    private void testRendered(int rule, int src, int type) {
+        int[] dst = destination(type);
+        int[] data = new int[W*H];
+        System.arraycopy(dst, 0, data, 0, data.length);
+        Pisces pisces = new Pisces(new NativeSurface(data, W, H, type));
+        pisces.setCompositeRule(rule);
+        pisces.setColor(new Color(src >>> 24, (src >> 16) & 0xff,
+                                  (src >> 8) & 0xff, src & 0xff));
+        pisces.setFill();
+        pisces.fillRect(0, 0, W, H);
+        for (int i = 0; i < data.length; i++) {
+            int d = (type == RendererBase.TYPE_INT_ARGB_PRE) ?
+                Blit.unpremultiply(dst[i]) : dst[i];
+            assertBool(close(data[i], reference(rule, src, d, 1), type),
+                       "Rule "+rule+" of "+Integer.toHexString(src)+
+                       " over "+Integer.toHexString(dst[i])+
+                       " on type "+type+": "+Integer.toHexString(data[i]));
+        }
+    }
+
+    /*
+     * The rule under partial coverage, which interpolates between the
+     * destination and the composited pixel
+     */
+    private void testCoverage(int rule, int src) {
+        int[] coverages = { 0, 1, 64, 128, 200, 254, 255 };
+        int[] dst = destination(RendererBase.TYPE_INT_ARGB);
+        for (int c = 0; c < coverages.length; c++) {
+            int[] data = new int[W*H];
+            System.arraycopy(dst, 0, data, 0, data.length);
+            composite(data, rule, src, coverages[c]);
+            double coverage = ((coverages[c]*256 + 127)/255)/256.0;
+            for (int i = 0; i < data.length; i++) {
+                assertBool(close(data[i],
+                                 reference(rule, src, dst[i], coverage),
+                                 RendererBase.TYPE_INT_ARGB),
+                           "Rule "+rule+" at coverage "+coverages[c]);
+            }
+        }
+    }
+
+    /*
+     * The general loop and the fast blit of COMPOSITE_SRC_OVER differ
+     * at most by their rounding, as the fast blit folds coverage into
+     * the source alpha and truncates the blend
+     */
+    private void testSrcOver() {
+        int[] dst = destination(RendererBase.TYPE_INT_ARGB);
+        for (int s = 0; s < SOURCES.length; s++) {
+            int src = SOURCES[s];
+            for (int cov = 0; cov < 256; cov += 17) {
+                int[] general = new int[W*H];
+                System.arraycopy(dst, 0, general, 0, general.length);
+                composite(general, RendererBase.COMPOSITE_SRC_OVER, src, cov);
+
+                int[] fast = new int[W*H];
+                System.arraycopy(dst, 0, fast, 0, fast.length);
+                int[] alphaMap = new int[256];
+                for (int i = 0; i < 256; i++) {
+                    alphaMap[i] = (i*(src >>> 24)*256 + 255*255/2)/(255*255);
+                }
+                Blit.blit(fast, RendererBase.TYPE_INT_ARGB, 0, W, 1,
+                          coverage(cov), 0, W, H,
+                          new int[H], maxTouched(), rowOffsets(),
+                          RendererBase.COMPOSITE_SRC_OVER,
+                          (src >> 16) & 0xff, (src >> 8) & 0xff, src & 0xff,
+                          src >>> 24, alphaMap);
+
+                for (int i = 0; i < fast.length; i++) {
+                    assertBool(close(fast[i], general[i], 2, 2,
+                                     RendererBase.TYPE_INT_ARGB),
+                               "Source over of "+Integer.toHexString(src)+
+                               " at coverage "+cov+": "+
+                               Integer.toHexString(fast[i])+" and "+
+                               Integer.toHexString(general[i]));
+                }
+            }
+        }
+    }
+
+    /*
+     * Composite a flat color at the same coverage on every pixel
+     */
+    private static void composite(int[] data, int rule, int src, int cov) {
+        int[] coverageMap = new int[256];
+        for (int i = 0; i < 256; i++) {
+            coverageMap[i] = (i*256 + 127)/255;
+        }
+        Blit.blitComposite(data, RendererBase.TYPE_INT_ARGB, 0, W, 1,
+                           coverage(cov), 0, W, H,
+                           new int[H], maxTouched(), rowOffsets(),
+                           rule, src, null, 0, 0, coverageMap);
+    }
+
+    private static byte[] coverage(int cov) {
+        byte[] alpha = new byte[W*H];
+        for (int i = 0; i < alpha.length; i++) {
+            alpha[i] = (byte)cov;
+        }
+        return alpha;
+    }
+
+    private static int[] maxTouched() {
+        int[] maxTouched = new int[H];
+        for (int j = 0; j < H; j++) {
+            maxTouched[j] = W - 1;
+        }
+        return maxTouched;
+    }
+
+    private static int[] rowOffsets() {
+        int[] rowOffsets = new int[H];
+        for (int j = 0; j < H; j++) {
+            rowOffsets[j] = j*W;
+        }
+        return rowOffsets;
+    }
+
+    /*
+     * Random pixels of every alpha, premultiplied for TYPE_INT_ARGB_PRE
+     */
+    private static int[] destination(int type) {
+        Random random = new Random(3);
+        int[] data = new int[W*H];
+        for (int i = 0; i < data.length; i++) {
+            int argb = random.nextInt();
+            if (i < 3) {
+                argb = (i == 0) ? 0 : (i == 1) ? (argb | 0xff000000) :
+                    (argb & 0x00ffffff);
+            }
+            data[i] = (type == RendererBase.TYPE_INT_ARGB_PRE) ?
+                Blit.premultiply(argb) : argb;
+        }
+        return data;
+    }
+
+    /*
+     * The ARGB result of the rule, computed on premultiplied colors
+     * in floating point, and interpolated from dst by coverage
+     */
+    private static int reference(int rule, int src, int dst,
+                                 double coverage)
+    {
+        double sa = (src >>> 24)/255.0;
+        double da = (dst >>> 24)/255.0;
+        double fs, fd;
+        switch (rule) {
+        case RendererBase.COMPOSITE_CLEAR:    fs = 0;      fd = 0;      break;
+        case RendererBase.COMPOSITE_SRC:      fs = 1;      fd = 0;      break;
+        case RendererBase.COMPOSITE_SRC_OVER: fs = 1;      fd = 1 - sa; break;
+        case RendererBase.COMPOSITE_DST_OVER: fs = 1 - da; fd = 1;      break;
+        case RendererBase.COMPOSITE_SRC_IN:   fs = da;     fd = 0;      break;
+        case RendererBase.COMPOSITE_DST_IN:   fs = 0;      fd = sa;     break;
+        case RendererBase.COMPOSITE_SRC_OUT:  fs = 1 - da; fd = 0;      break;
+        case RendererBase.COMPOSITE_DST_OUT:  fs = 0;      fd = 1 - sa; break;
+        case RendererBase.COMPOSITE_SRC_ATOP: fs = da;     fd = 1 - sa; break;
+        case RendererBase.COMPOSITE_DST_ATOP: fs = 1 - da; fd = sa;     break;
+        case RendererBase.COMPOSITE_XOR:      fs = 1 - da; fd = 1 - sa; break;
+        default:                              fs = 0;      fd = 1;      break;
+        }
+        double oa = fs*sa + fd*da;
+        oa = da + (oa - da)*coverage;
+        if (oa <= 0) {
+            return 0;
+        }
+        int result = ((int)(oa*255 + 0.5)) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            double sc = ((src >> shift) & 0xff)*sa;
+            double dc = ((dst >> shift) & 0xff)*da;
+            double oc = dc + (fs*sc + fd*dc - dc)*coverage;
+            int c = (int)(oc/oa + 0.5);
+            result |= Math.min(c, 255) << shift;
+        }
+        return result;
+    }
+
+    private static boolean close(int argb, int expected, int type) {
+        return close(argb, expected, 1, 2, type);
+    }
+
+    /*
+     * Alphas and colors within the given levels, colors only where
+     * they are visible.  Premultiplied pixels are compared as ARGB.
+     */
+    private static boolean close(int argb, int expected,
+                                 int alphaLevels, int colorLevels, int type)
+    {
+        if (type == RendererBase.TYPE_INT_ARGB_PRE) {
+            argb = Blit.unpremultiply(argb);
+        }
+        int a = argb >>> 24;
+        if (Math.abs(a - (expected >>> 24)) > alphaLevels) {
+            return false;
+        }
+        if (a < 16 || (expected >>> 24) < 16) {
+            return true;
+        }
+        int tolerance = colorLevels +
+            ((type == RendererBase.TYPE_INT_ARGB_PRE) ? 255/a : 0);
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int c = (argb >> shift) & 0xff;
+            int e = (expected >> shift) & 0xff;
+            if (Math.abs(c - e) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
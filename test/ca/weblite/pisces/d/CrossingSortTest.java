@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+/**
+ * Rows of more than <code>Renderer.MAX_INSERTION_SORT</code>
+ * crossings, which are radix sorted, render the same pixels as the
+ * same shapes drawn one by one, whose rows are insertion sorted.
+ */
+public class CrossingSortTest
+    extends AbstractTest
+{
+    private static final int QUADS = 40;
+    private static final int W = 260, H = 160;
+
+
+    public boolean runTest() throws Exception {
+        assertBool(2*QUADS > Renderer.MAX_INSERTION_SORT,
+                   "Rows are radix sorted");
+        int[] qualities = {
+            RendererBase.QUALITY_NONE,
+            RendererBase.QUALITY_4X4,
+            RendererBase.QUALITY_8X8
+        };
+        for (int q = 0; q < qualities.length; q++) {
+            for (int rule = 0; rule < 2; rule++) {
+                int[] expected = render(qualities[q], rule, false, false);
+                assertBool(same(expected,
+                                render(qualities[q], rule, true, false)),
+                           "Quads in x order, quality "+qualities[q]+
+                           ", rule "+rule);
+                assertBool(same(expected,
+                                render(qualities[q], rule, true, true)),
+                           "Quads in reverse x order, quality "+
+                           qualities[q]+", rule "+rule);
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Slanted quads three pixels apart, so that no pixel is covered
+     * by two of them, in one path or one path each
+     */
+    private static int[] render(int quality, int windingRule,
+                                boolean onePath, boolean reverse)
+    {
+        Pisces pisces = new Pisces(new NativeSurface(W, H));
+        pisces.setAntialiasingQuality(quality);
+        pisces.setScanMode(RendererBase.SCAN_STRIPS);
+        pisces.setColor(new Color(255, 255, 255, 255));
+        pisces.clearRect(0, 0, W, H);
+        pisces.setColor(new Color(200, 200, 30, 40));
+        pisces.setFill();
+        try {
+            if (onePath) {
+                pisces.beginRendering(windingRule);
+            }
+            for (int k = 0; k < QUADS; k++) {
+                int i = reverse ? (QUADS - 1 - k) : k;
+                double x = 2.25 + i*5.5;
+                if (!onePath) {
+                    pisces.beginRendering(windingRule);
+                }
+                pisces.moveTo(x, 5.5);
+                pisces.lineTo(x + 2.5, 5.5);
+                pisces.lineTo(x + 22.5, 150.75);
+                pisces.lineTo(x + 20, 150.75);
+                pisces.close();
+                if (!onePath) {
+                    pisces.endRendering();
+                }
+            }
+            if (onePath) {
+                pisces.endRendering();
+            }
+            return (int[])pisces.getData();
+        }
+        finally {
+            pisces.dispose();
+        }
+    }
+
+    private static boolean same(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+/**
+ * The exact area mode covers each pixel by the area of the path
+ * inside it.
+ */
+public class ExactAreaTest
+    extends AbstractTest
+{
+    private static final int W = 100, H = 80;
+
+
+    public boolean runTest() throws Exception {
+        for (int rule = 0; rule < 2; rule++) {
+            testRectangle(rule);
+            testDiagonal(rule);
+            testPolygon(rule);
+        }
+        return true;
+    }
+
+    /*
+     * Edge pixels of a rectangle are covered by their fraction inside
+     * it
+     */
+    private void testRectangle(int windingRule) {
+        double x0 = 10.25, y0 = 20.5, x1 = 30.75, y1 = 40.125;
+        Pisces pisces = create(windingRule);
+        pisces.moveTo(x0, y0);
+        pisces.lineTo(x1, y0);
+        pisces.lineTo(x1, y1);
+        pisces.lineTo(x0, y1);
+        pisces.close();
+        pisces.endRendering();
+        int[] data = (int[])pisces.getData();
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                double area = overlap(x, x + 1, x0, x1)*
+                    overlap(y, y + 1, y0, y1);
+                assertBool(close(data[y*W + x] >>> 24, area),
+                           "Rectangle pixel "+x+","+y+", rule "+
+                           windingRule);
+            }
+        }
+    }
+
+    /*
+     * Pixels on the diagonal of a triangle are half covered
+     */
+    private void testDiagonal(int windingRule) {
+        Pisces pisces = create(windingRule);
+        pisces.moveTo(0, 0);
+        pisces.lineTo(H, 0);
+        pisces.lineTo(H, H);
+        pisces.close();
+        pisces.endRendering();
+        int[] data = (int[])pisces.getData();
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                double area = (x >= H) ? 0 : (x > y) ? 1 : (x == y) ? 0.5 : 0;
+                assertBool(close(data[y*W + x] >>> 24, area),
+                           "Diagonal pixel "+x+","+y+", rule "+
+                           windingRule);
+            }
+        }
+    }
+
+    /*
+     * The coverage of a convex polygon adds up to its area
+     */
+    private void testPolygon(int windingRule) {
+        Pisces pisces = create(windingRule);
+        int n = 13;
+        double area = 0;
+        double px = 0, py = 0;
+        for (int i = 0; i <= n; i++) {
+            double a = 2*Math.PI*i/n;
+            double x = 50.3 + 40.7*Math.cos(a);
+            double y = 40.1 + 35.2*Math.sin(a);
+            if (i == 0) {
+                pisces.moveTo(x, y);
+            }
+            else {
+                pisces.lineTo(x, y);
+                area += px*y - x*py;
+            }
+            px = x;
+            py = y;
+        }
+        pisces.close();
+        pisces.endRendering();
+        area /= 2;
+
+        int[] data = (int[])pisces.getData();
+        long sum = 0;
+        for (int i = 0; i < data.length; i++) {
+            sum += data[i] >>> 24;
+        }
+        double covered = sum/255.0;
+        assertBool(Math.abs(covered - area) < area/500,
+                   "Polygon of area "+area+" covers "+covered+
+                   ", rule "+windingRule);
+    }
+
+    private static Pisces create(int windingRule) {
+        Pisces pisces = new Pisces(new NativeSurface(W, H));
+        pisces.setAntialiasingMode(RendererBase.AA_EXACT_AREA);
+        pisces.setColor(new Color(255, 255, 255, 255));
+        pisces.setFill();
+        pisces.beginRendering(windingRule);
+        return pisces;
+    }
+
+    private static double overlap(double a0, double a1, double b0, double b1)
+    {
+        return Math.max(0, Math.min(a1, b1) - Math.max(a0, b0));
+    }
+
+    /*
+     * An alpha within the rounding of the coverage and of the blend
+     */
+    private static boolean close(int alpha, double area) {
+        return Math.abs(alpha - 255*area) <= 2;
+    }
+}
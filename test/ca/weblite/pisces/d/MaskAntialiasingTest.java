@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+/**
+ * Masks and caches recorded at one antialiasing level are drawn by
+ * renderers at every level as they were recorded.
+ */
+public class MaskAntialiasingTest
+    extends AbstractTest
+{
+    private static final int W = 64, H = 48;
+
+    private static final byte[] STAR = {
+        Constants.COMMAND_MOVE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_CLOSE
+    };
+    private static final double[] STAR_COORDS = {
+        32.3, 2.7,  51.1, 44.2,  3.6, 16.9,  60.4, 17.3,  12.8, 45.5
+    };
+
+    private static final int[] QUALITIES = {
+        RendererBase.QUALITY_4X4,
+        RendererBase.QUALITY_8X8,
+        RendererBase.QUALITY_16X16
+    };
+
+
+    public boolean runTest() throws Exception {
+        for (int q = 0; q < QUALITIES.length; q++) {
+            for (int alpha = 255; alpha > 0; alpha -= 127) {
+                testQuality(QUALITIES[q], alpha);
+            }
+        }
+        return true;
+    }
+
+    private void testQuality(int recorded, int alpha) {
+        PiscesCache cache = new PiscesCache();
+        Pisces pisces = create(recorded, RendererBase.AA_SUPERSAMPLE, alpha);
+        pisces.renderPath(STAR, STAR_COORDS, RendererBase.WIND_EVEN_ODD, cache);
+        assertBool(cache.isValid(), "Cache recorded");
+        int[] expected = (int[])pisces.getData();
+
+        for (int q = 0; q < QUALITIES.length; q++) {
+            Pisces other = create(QUALITIES[q], RendererBase.AA_SUPERSAMPLE,
+                                  alpha);
+            other.renderFromCache(cache, 0, 0);
+            assertBool(same(expected, (int[])other.getData()),
+                       "Cache of quality "+recorded+" drawn at quality "+
+                       QUALITIES[q]);
+
+            other = create(QUALITIES[q], RendererBase.AA_SUPERSAMPLE, alpha);
+            other.renderMask(cache.getMask(), 0, 0);
+            assertBool(same(expected, (int[])other.getData()),
+                       "Mask of quality "+recorded+" drawn at quality "+
+                       QUALITIES[q]);
+        }
+        Pisces area = create(RendererBase.QUALITY_8X8,
+                             RendererBase.AA_EXACT_AREA, alpha);
+        area.renderFromCache(cache, 0, 0);
+        assertBool(same(expected, (int[])area.getData()),
+                   "Cache of quality "+recorded+" drawn in exact area mode");
+    }
+
+    private static Pisces create(int quality, int mode, int alpha) {
+        Pisces pisces = new Pisces(new NativeSurface(W, H));
+        pisces.setAntialiasingQuality(quality);
+        pisces.setAntialiasingMode(mode);
+        pisces.setColor(new Color(255, 255, 255, 255));
+        pisces.clearRect(0, 0, W, H);
+        pisces.setColor(new Color(alpha, 200, 30, 40));
+        pisces.setFill();
+        return pisces;
+    }
+
+    private static boolean same(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+/**
+ * Rows of a cache decode to the runs recorded, whatever the size of
+ * their varint lengths, and a row equal to the row above shares its
+ * data.
+ */
+public class MaskEncodingTest
+    extends AbstractTest
+{
+    /*
+     * Run lengths taking one to three bytes, and coverage values
+     */
+    private static final int[] LENGTHS = {
+        1, 2, 63, 64, 65, 127, 128, 8191, 8192, 20000
+    };
+    private static final int[] VALUES = {
+        1, 17, 128, 254, 255
+    };
+
+
+    public boolean runTest() throws Exception {
+        testRuns(255);
+        testRuns(64);
+        testSharedRows();
+        testRecordedRows();
+        return true;
+    }
+
+    /*
+     * One row per value, each with a run of every length
+     */
+    private void testRuns(int fullAlpha) {
+        PiscesCache cache = new PiscesCache();
+        cache.fullAlpha = fullAlpha;
+        int width = 0;
+        for (int i = 0; i < LENGTHS.length; i++) {
+            width += LENGTHS[i];
+        }
+        for (int v = 0; v < VALUES.length; v++) {
+            int offset = cache.alphaRLELength;
+            for (int i = 0; i < LENGTHS.length; i++) {
+                cache.addRun((i & 1) == 0 ? VALUES[v] : fullAlpha,
+                             LENGTHS[i]);
+            }
+            cache.addRow(v, offset);
+        }
+        PiscesMask mask = seal(cache, width, VALUES.length);
+
+        byte[] row = new byte[width];
+        for (int v = 0; v < VALUES.length; v++) {
+            assertBool(mask.decodeRow(v, row, 0) == width,
+                       "Width of row "+v+", full alpha "+fullAlpha);
+            assertBool(mask.minTouched[v] == v,
+                       "Start of row "+v+", full alpha "+fullAlpha);
+            int x = 0;
+            for (int i = 0; i < LENGTHS.length; i++) {
+                int value = (i & 1) == 0 ? VALUES[v] : fullAlpha;
+                for (int end = x + LENGTHS[i]; x < end; x++) {
+                    assertBool((row[x] & 0xff) == value,
+                               "Run "+LENGTHS[i]+" of "+value+
+                               ", full alpha "+fullAlpha);
+                }
+            }
+        }
+    }
+
+    /*
+     * Equal rows, including empty ones, are stored once, and rows
+     * equal in data but starting elsewhere are not shared
+     */
+    private void testSharedRows() {
+        PiscesCache cache = new PiscesCache();
+        int[] starts = { 5, 5, 5, 6, Integer.MAX_VALUE, Integer.MAX_VALUE };
+        int[] lengths = new int[starts.length];
+        for (int j = 0; j < starts.length; j++) {
+            int offset = cache.alphaRLELength;
+            if (starts[j] != Integer.MAX_VALUE) {
+                cache.addRun(100, 300);
+                cache.addRun(255, 40);
+            }
+            cache.addRow(starts[j], offset);
+            lengths[j] = cache.alphaRLELength;
+        }
+        PiscesMask mask = seal(cache, 340, starts.length);
+
+        int[] offsets = mask.rowOffsetsRLE;
+        assertBool(offsets[1] == offsets[0] && offsets[2] == offsets[0],
+                   "Equal rows share their data");
+        assertBool(lengths[2] == lengths[0], "Equal rows add no data");
+        assertBool(offsets[3] != offsets[2], "Rows starting elsewhere");
+        assertBool(offsets[5] == offsets[4] && lengths[5] == lengths[4],
+                   "Empty rows share their data");
+        assertBool(mask.rowAARLE.length == lengths[5],
+                   "Sealed to the data recorded");
+
+        byte[] row = new byte[340];
+        for (int j = 0; j < starts.length; j++) {
+            int width = mask.decodeRow(j, row, 0);
+            assertBool(width == (starts[j] == Integer.MAX_VALUE ? 0 : 340),
+                       "Width of row "+j);
+        }
+    }
+
+    /*
+     * A recorded rectangle stores its first, inner and last rows once,
+     * and draws from the cache as it was drawn
+     */
+    private void testRecordedRows() {
+        int w = 400, h = 300;
+        Pisces pisces = create(w, h);
+        byte[] commands = {
+            Constants.COMMAND_MOVE_TO,
+            Constants.COMMAND_LINE_TO,
+            Constants.COMMAND_LINE_TO,
+            Constants.COMMAND_LINE_TO,
+            Constants.COMMAND_CLOSE
+        };
+        double[] coords = {
+            10.5, 20.25,  390.75, 20.25,  390.75, 280.5,  10.5, 280.5
+        };
+        PiscesCache cache = new PiscesCache();
+        pisces.renderPath(commands, coords, RendererBase.WIND_NON_ZERO,
+                          cache);
+        assertBool(cache.isValid(), "Cache recorded");
+        PiscesMask mask = cache.getMask();
+        assertBool(mask.rowAARLE.length < 32,
+                   "Rows of a rectangle stored once, "+
+                   mask.rowAARLE.length+" bytes");
+
+        Pisces other = create(w, h);
+        other.renderMask(mask, 0, 0);
+        int[] expected = (int[])pisces.getData();
+        int[] drawn = (int[])other.getData();
+        for (int i = 0; i < expected.length; i++) {
+            assertBool(expected[i] == drawn[i], "Pixel "+i+" of the mask");
+        }
+    }
+
+    private static PiscesMask seal(PiscesCache cache, int width, int height) {
+        cache.bboxX0 = 0;
+        cache.bboxY0 = 0;
+        cache.bboxX1 = width;
+        cache.bboxY1 = height;
+        cache.alphaWidth = width;
+        cache.seal();
+        cache.isValid = true;
+        return cache.getMask();
+    }
+
+    private static Pisces create(int w, int h) {
+        Pisces pisces = new Pisces(new NativeSurface(w, h));
+        pisces.setColor(new Color(255, 255, 255, 255));
+        pisces.clearRect(0, 0, w, h);
+        pisces.setColor(new Color(200, 200, 30, 40));
+        pisces.setFill();
+        return pisces;
+    }
+}
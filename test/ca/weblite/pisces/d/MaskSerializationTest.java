@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Masks and mask caches read back as they were written, and data of
+ * another format is rejected.
+ */
+public class MaskSerializationTest
+    extends AbstractTest
+{
+    private static final int W = 64, H = 48;
+
+    private static final byte[] STAR = {
+        Constants.COMMAND_MOVE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_CLOSE
+    };
+    private static final double[] STAR_COORDS = {
+        32.3, 2.7,  51.1, 44.2,  3.6, 16.9,  60.4, 17.3,  12.8, 45.5
+    };
+
+
+    public boolean runTest() throws Exception {
+        testMask();
+        testInvalidCache();
+        testMaskCache();
+        testRejected();
+        testCorruptRows();
+        return true;
+    }
+
+    /*
+     * A mask read back draws the pixels of the mask written
+     */
+    private void testMask() throws IOException {
+        PiscesCache cache = new PiscesCache();
+        Pisces pisces = create();
+        pisces.renderPath(STAR, STAR_COORDS, RendererBase.WIND_EVEN_ODD,
+                          cache);
+        PiscesMask mask = cache.getMask();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mask.write(new DataOutputStream(bytes));
+        PiscesMask read = PiscesMask.read(input(bytes.toByteArray()));
+        assertBool(read.getX() == mask.getX() &&
+                   read.getY() == mask.getY() &&
+                   read.getWidth() == mask.getWidth() &&
+                   read.getHeight() == mask.getHeight(),
+                   "Bounds of the mask read");
+        assertBool(read.fullAlpha == mask.fullAlpha &&
+                   read.clipped == mask.clipped,
+                   "Coverage of the mask read");
+
+        Pisces other = create();
+        other.renderMask(read, 0, 0);
+        assertBool(same((int[])pisces.getData(), (int[])other.getData()),
+                   "Pixels of the mask read");
+
+        PiscesCache readCache =
+            PiscesCache.read(input(bytes.toByteArray()));
+        assertBool(readCache.isValid(), "Cache of the mask read");
+        other = create();
+        other.renderFromCache(readCache, 0, 0);
+        assertBool(same((int[])pisces.getData(), (int[])other.getData()),
+                   "Pixels of the cache read");
+    }
+
+    /*
+     * A cache not rendered into reads back invalid, and is no mask
+     */
+    private void testInvalidCache() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new PiscesCache().write(new DataOutputStream(bytes));
+        assertBool(!PiscesCache.read(input(bytes.toByteArray())).isValid(),
+                   "Invalid cache read back");
+        assertBool(rejected(bytes.toByteArray(), false),
+                   "Invalid cache read as a mask");
+    }
+
+    /*
+     * A mask cache read back holds the masks written, and draws the
+     * paths as they were drawn
+     */
+    private void testMaskCache() throws IOException {
+        MaskCache masks = new MaskCache();
+        PathStore path = new PathStore();
+        path.moveTo(STAR_COORDS[0], STAR_COORDS[1]);
+        for (int i = 2; i < STAR_COORDS.length; i += 2) {
+            path.lineTo(STAR_COORDS[i], STAR_COORDS[i + 1]);
+        }
+        path.close();
+        path.end();
+
+        Pisces pisces = create();
+        pisces.setMaskCache(masks);
+        for (int k = 0; k < 2; k++) {
+            pisces.renderPath(path, RendererBase.WIND_NON_ZERO);
+        }
+        assertBool(masks.getCount() == 1, "Mask cached");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        masks.write(new DataOutputStream(bytes));
+        MaskCache read = new MaskCache();
+        read.read(input(bytes.toByteArray()));
+        assertBool(read.getCount() == masks.getCount() &&
+                   read.getSize() == masks.getSize(),
+                   "Masks of the cache read");
+
+        Pisces direct = create();
+        direct.renderPath(path, RendererBase.WIND_NON_ZERO);
+        Pisces cached = create();
+        cached.setMaskCache(read);
+        cached.renderPath(path, RendererBase.WIND_NON_ZERO);
+        assertBool(read.getCount() == 1, "Mask of the cache read reused");
+        assertBool(same((int[])direct.getData(), (int[])cached.getData()),
+                   "Pixels of the cache read");
+    }
+
+    /*
+     * Wrong magic numbers, versions and fields are rejected
+     */
+    private void testRejected() throws IOException {
+        PiscesCache cache = new PiscesCache();
+        create().renderPath(STAR, STAR_COORDS, RendererBase.WIND_EVEN_ODD,
+                            cache);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cache.getMask().write(new DataOutputStream(bytes));
+        byte[] data = bytes.toByteArray();
+
+        assertBool(!rejected(data, false), "Mask accepted");
+        assertBool(rejected(change(data, 0, 0x7f), false), "Bad magic");
+        assertBool(rejected(change(data, 7, 2), false), "Bad version");
+        /*
+         * Full coverage value, the int after the magic, version,
+         * flags and six ints of bounds
+         */
+        assertBool(rejected(change(data, 8 + 2 + 24 + 3, 0), false),
+                   "No full coverage");
+        /*
+         * Data offset of the first row, after the length and the
+         * run-length data, and the start x of the row
+         */
+        int offset = 42 + getInt(data, 38) + 4;
+        assertBool(rejected(change(data, offset, 0x7f), false),
+                   "Row offset out of range");
+
+        bytes = new ByteArrayOutputStream();
+        new MaskCache().write(new DataOutputStream(bytes));
+        data = bytes.toByteArray();
+        assertBool(!rejected(data, true), "Mask cache accepted");
+        assertBool(rejected(change(data, 0, 0x7f), true),
+                   "Bad mask cache magic");
+        assertBool(rejected(change(data, 7, 2), true),
+                   "Bad mask cache version");
+    }
+
+    /*
+     * Rows whose runs leave the data or the bounding box, or that
+     * start outside the bounding box, are rejected
+     */
+    private void testCorruptRows() throws IOException {
+        PiscesCache cache = new PiscesCache();
+        create().renderPath(STAR, STAR_COORDS, RendererBase.WIND_EVEN_ODD,
+                            cache);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cache.getMask().write(new DataOutputStream(bytes));
+        byte[] data = bytes.toByteArray();
+        /*
+         * Bounds after the magic, version and flags, run-length data
+         * after its length, then the start x and data offset of each
+         * row
+         */
+        int bboxX0 = getInt(data, 10);
+        int bboxX1 = getInt(data, 18);
+        int length = getInt(data, 38);
+        int row = 42 + length;
+        int first = 42 + getInt(data, row + 4);
+
+        /*
+         * A run of one pixel before the final terminator takes it as
+         * its coverage, and the next header is past the end
+         */
+        byte[] past = change(data, 42 + length - 2, 2);
+        past = setInt(past, row + 4, length - 2);
+        assertBool(rejected(past, false), "Run past the end of the data");
+        assertBool(!rejected(setInt(data, row + 4, length - 1), false),
+                   "Empty row at the end of the data");
+
+        /*
+         * The first run of the first row made 63 pixels, more than
+         * are left in the row
+         */
+        assertBool(rejected(change(data, first, (data[first] & 1) | 0x7e),
+                            false),
+                   "Runs wider than the row");
+
+        assertBool(rejected(setInt(data, row, bboxX1), false),
+                   "Row starting right of the bounding box");
+        assertBool(rejected(setInt(data, row, bboxX0 - 1), false),
+                   "Row starting left of the bounding box");
+        assertBool(rejected(setInt(data, row, Integer.MAX_VALUE), false),
+                   "Empty row with runs");
+        assertBool(!rejected(setInt(data, row, bboxX0), false),
+                   "Row starting at the left of the bounding box");
+    }
+
+    private static boolean rejected(byte[] data, boolean maskCache)
+        throws IOException
+    {
+        try {
+            if (maskCache) {
+                new MaskCache().read(input(data));
+            }
+            else {
+                PiscesMask.read(input(data));
+            }
+            return false;
+        }
+        catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static byte[] change(byte[] data, int index, int value) {
+        byte[] copy = new byte[data.length];
+        System.arraycopy(data, 0, copy, 0, data.length);
+        copy[index] = (byte)value;
+        return copy;
+    }
+
+    private static int getInt(byte[] data, int index) {
+        return ((data[index] & 0xff) << 24) |
+            ((data[index + 1] & 0xff) << 16) |
+            ((data[index + 2] & 0xff) << 8) |
+            (data[index + 3] & 0xff);
+    }
+
+    private static byte[] setInt(byte[] data, int index, int value) {
+        byte[] copy = change(data, index, value >>> 24);
+        copy[index + 1] = (byte)(value >>> 16);
+        copy[index + 2] = (byte)(value >>> 8);
+        copy[index + 3] = (byte)value;
+        return copy;
+    }
+
+    private static DataInputStream input(byte[] data) {
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    private static Pisces create() {
+        Pisces pisces = new Pisces(new NativeSurface(W, H));
+        pisces.setColor(new Color(255, 255, 255, 255));
+        pisces.clearRect(0, 0, W, H);
+        pisces.setColor(new Color(200, 200, 30, 40));
+        pisces.setFill();
+        return pisces;
+    }
+
+    private static boolean same(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
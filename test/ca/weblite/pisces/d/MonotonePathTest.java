@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+import java.util.Random;
+
+/**
+ * Y monotone paths, rendered without a crossing table, give the same
+ * pixels as the general scanner.  The general scanner is forced by a
+ * closed subpath of zero area, a diagonal line drawn there and back,
+ * which covers no pixel but is a second contour.
+ */
+public class MonotonePathTest
+    extends AbstractTest
+{
+    private static final int W = 160, H = 120;
+
+    private static final int[] QUALITIES = {
+        RendererBase.QUALITY_4X4,
+        RendererBase.QUALITY_8X8,
+        RendererBase.QUALITY_16X16
+    };
+
+
+    public boolean runTest() throws Exception {
+        for (int q = 0; q < QUALITIES.length; q++) {
+            for (int rule = 0; rule < 2; rule++) {
+                for (int scene = 0; scene < 3; scene++) {
+                    assertBool(same(render(QUALITIES[q], rule, scene, false),
+                                    render(QUALITIES[q], rule, scene, true)),
+                               "Monotone path "+scene+" of quality "+
+                               QUALITIES[q]+", rule "+rule);
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * An oval, small ovals drawn one by one, and a convex polygon
+     */
+    private static int[] render(int quality, int windingRule, int scene,
+                                boolean general)
+    {
+        Pisces pisces = new Pisces(new NativeSurface(W, H));
+        pisces.setAntialiasingQuality(quality);
+        pisces.setColor(new Color(255, 255, 255, 255));
+        pisces.clearRect(0, 0, W, H);
+        pisces.setColor(new Color(160, 200, 30, 40));
+        pisces.setFill();
+        Random random = new Random(5);
+        try {
+            switch (scene) {
+            case 0:
+                pisces.beginRendering(windingRule);
+                oval(pisces, 10.3, 7.6, 131.5, 97.25);
+                if (general) {
+                    sliver(pisces);
+                }
+                pisces.endRendering();
+                break;
+            case 1:
+                for (int i = 0; i < 20; i++) {
+                    pisces.beginRendering(windingRule);
+                    oval(pisces, random.nextDouble()*(W - 20),
+                         random.nextDouble()*(H - 20),
+                         0.5 + random.nextDouble()*20,
+                         0.5 + random.nextDouble()*20);
+                    if (general) {
+                        sliver(pisces);
+                    }
+                    pisces.endRendering();
+                }
+                break;
+            default:
+                pisces.beginRendering(windingRule);
+                int n = 17;
+                for (int i = 0; i < n; i++) {
+                    double a = 2*Math.PI*i/n;
+                    double x = 80.3 + 70.1*Math.cos(a);
+                    double y = 60.6 + 55.4*Math.sin(a);
+                    if (i == 0) {
+                        pisces.moveTo(x, y);
+                    }
+                    else {
+                        pisces.lineTo(x, y);
+                    }
+                }
+                pisces.close();
+                if (general) {
+                    sliver(pisces);
+                }
+                pisces.endRendering();
+                break;
+            }
+            return (int[])pisces.getData();
+        }
+        finally {
+            pisces.dispose();
+        }
+    }
+
+    private static void oval(Pisces pisces, double x, double y,
+                             double w, double h)
+    {
+        double k = 0.5522847498307933;
+        double cx = x + w/2, cy = y + h/2;
+        double rx = w/2, ry = h/2;
+        pisces.moveTo(cx + rx, cy);
+        pisces.cubicTo(cx + rx, cy + k*ry, cx + k*rx, cy + ry, cx, cy + ry);
+        pisces.cubicTo(cx - k*rx, cy + ry, cx - rx, cy + k*ry, cx - rx, cy);
+        pisces.cubicTo(cx - rx, cy - k*ry, cx - k*rx, cy - ry, cx, cy - ry);
+        pisces.cubicTo(cx + k*rx, cy - ry, cx + rx, cy - k*ry, cx + rx, cy);
+        pisces.close();
+    }
+
+    /*
+     * A diagonal line and back, enclosing no area
+     */
+    private static void sliver(Pisces pisces) {
+        pisces.moveTo(1.5, 1.25);
+        pisces.lineTo(W - 1.75, H - 1.5);
+        pisces.close();
+    }
+
+    private static boolean same(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
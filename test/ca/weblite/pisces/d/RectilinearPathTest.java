@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+import java.util.Random;
+
+/**
+ * Axis aligned paths, rendered band by band, give the same pixels as
+ * the general scanner.  The general scanner is forced by a closed
+ * subpath of zero area, a diagonal line drawn there and back, which
+ * covers no pixel but is not vertical.
+ */
+public class RectilinearPathTest
+    extends AbstractTest
+{
+    private static final int W = 160, H = 120;
+
+    private static final int[] QUALITIES = {
+        RendererBase.QUALITY_4X4,
+        RendererBase.QUALITY_8X8,
+        RendererBase.QUALITY_16X16
+    };
+
+
+    public boolean runTest() throws Exception {
+        for (int q = 0; q < QUALITIES.length; q++) {
+            for (int rule = 0; rule < 2; rule++) {
+                for (int scene = 0; scene < 2; scene++) {
+                    assertBool(same(render(QUALITIES[q], rule, scene, false),
+                                    render(QUALITIES[q], rule, scene, true)),
+                               "Rectangles "+scene+" of quality "+
+                               QUALITIES[q]+", rule "+rule);
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Overlapping rectangles in one path, each drawn clockwise or
+     * not, and rectangles drawn one by one
+     */
+    private static int[] render(int quality, int windingRule, int scene,
+                                boolean general)
+    {
+        Pisces pisces = new Pisces(new NativeSurface(W, H));
+        pisces.setAntialiasingQuality(quality);
+        pisces.setColor(new Color(255, 255, 255, 255));
+        pisces.clearRect(0, 0, W, H);
+        pisces.setColor(new Color(160, 200, 30, 40));
+        pisces.setFill();
+        Random random = new Random(5);
+        try {
+            switch (scene) {
+            case 0:
+                pisces.beginRendering(windingRule);
+                for (int i = 0; i < 30; i++) {
+                    double x0 = random.nextDouble()*(W - 10);
+                    double y0 = random.nextDouble()*(H - 10);
+                    double x1 = x0 + 0.3 + random.nextDouble()*(W - x0);
+                    double y1 = y0 + 0.3 + random.nextDouble()*(H - y0);
+                    if ((i & 1) == 0) {
+                        rectangle(pisces, x0, y0, x1, y1);
+                    }
+                    else {
+                        rectangle(pisces, x1, y0, x0, y1);
+                    }
+                }
+                if (general) {
+                    sliver(pisces);
+                }
+                pisces.endRendering();
+                break;
+            default:
+                for (int i = 0; i < 30; i++) {
+                    double x0 = random.nextDouble()*(W - 4);
+                    double y0 = random.nextDouble()*(H - 4);
+                    double x1 = x0 + 0.2 + random.nextDouble()*12;
+                    double y1 = y0 + 0.2 + random.nextDouble()*12;
+                    pisces.beginRendering(windingRule);
+                    rectangle(pisces, x0, y0, x1, y1);
+                    if (general) {
+                        sliver(pisces);
+                    }
+                    pisces.endRendering();
+                }
+                break;
+            }
+            return (int[])pisces.getData();
+        }
+        finally {
+            pisces.dispose();
+        }
+    }
+
+    private static void rectangle(Pisces pisces, double x0, double y0,
+                                  double x1, double y1)
+    {
+        pisces.moveTo(x0, y0);
+        pisces.lineTo(x1, y0);
+        pisces.lineTo(x1, y1);
+        pisces.lineTo(x0, y1);
+        pisces.close();
+    }
+
+    /*
+     * A diagonal line and back, enclosing no area
+     */
+    private static void sliver(Pisces pisces) {
+        pisces.moveTo(1.5, 1.25);
+        pisces.lineTo(W - 1.75, H - 1.5);
+        pisces.close();
+    }
+
+    private static boolean same(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
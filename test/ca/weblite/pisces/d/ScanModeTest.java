@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+import java.util.Random;
+
+/**
+ * The active edge table scanner renders the same pixels as the strip
+ * scanner, which rescans every edge for each strip.
+ */
+public class ScanModeTest
+    extends AbstractTest
+{
+    private static final int W = 200, H = 160;
+
+    private static final int[] QUALITIES = {
+        RendererBase.QUALITY_NONE,
+        RendererBase.QUALITY_4X4,
+        RendererBase.QUALITY_8X8,
+        RendererBase.QUALITY_16X16
+    };
+
+
+    public boolean runTest() throws Exception {
+        for (int q = 0; q < QUALITIES.length; q++) {
+            for (int rule = 0; rule < 2; rule++) {
+                for (int scene = 0; scene < 3; scene++) {
+                    int[] strips = render(QUALITIES[q], rule, scene,
+                                          RendererBase.SCAN_STRIPS);
+                    int[] active = render(QUALITIES[q], rule, scene,
+                                          RendererBase.SCAN_ACTIVE_EDGES);
+                    assertBool(same(strips, active),
+                               "Scene "+scene+" of quality "+QUALITIES[q]+
+                               ", rule "+rule);
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * A random polygon, many small ovals, and a stroked curve, each
+     * starting its edges on many different rows
+     */
+    private static int[] render(int quality, int windingRule, int scene,
+                                int scanMode)
+    {
+        Pisces pisces = new Pisces(new NativeSurface(W, H));
+        pisces.setAntialiasingQuality(quality);
+        pisces.setScanMode(scanMode);
+        pisces.setColor(new Color(255, 255, 255, 255));
+        pisces.clearRect(0, 0, W, H);
+        pisces.setColor(new Color(200, 200, 30, 40));
+        Random random = new Random(11);
+        try {
+            switch (scene) {
+            case 0:
+                pisces.setFill();
+                pisces.beginRendering(windingRule);
+                pisces.moveTo(3.5, 2.25);
+                for (int i = 0; i < 300; i++) {
+                    pisces.lineTo(1.3 + random.nextDouble()*(W - 3),
+                                  2.7 + random.nextDouble()*(H - 5));
+                }
+                pisces.close();
+                pisces.endRendering();
+                break;
+            case 1:
+                pisces.setFill();
+                for (int i = 0; i < 60; i++) {
+                    pisces.fillOval(random.nextDouble()*(W - 20),
+                                    random.nextDouble()*(H - 20),
+                                    2 + random.nextDouble()*18,
+                                    2 + random.nextDouble()*18);
+                }
+                break;
+            default:
+                pisces.setStroke(3.5, Constants.CAP_ROUND,
+                                 Constants.JOIN_ROUND, 10, null, 0);
+                pisces.beginRendering(windingRule);
+                pisces.moveTo(10.5, 150.25);
+                pisces.cubicTo(60, -40, 140, 200, 190.75, 12.5);
+                pisces.quadTo(100, 80, 20.25, 30.5);
+                pisces.end();
+                pisces.endRendering();
+                break;
+            }
+            return (int[])pisces.getData();
+        }
+        finally {
+            pisces.dispose();
+        }
+    }
+
+    private static boolean same(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
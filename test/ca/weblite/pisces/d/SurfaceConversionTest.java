@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+/**
+ * RGB565 and gray surfaces convert ARGB to their pixels and back as
+ * documented, copy between surfaces of their type as they blit ARGB,
+ * and render as INT ARGB surfaces do, within their quantization.
+ */
+public class SurfaceConversionTest
+    extends AbstractTest
+{
+    private static final int W = 64, H = 48;
+
+    private static final byte[] STAR = {
+        Constants.COMMAND_MOVE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_LINE_TO,
+        Constants.COMMAND_CLOSE
+    };
+    private static final double[] STAR_COORDS = {
+        32.3, 2.7,  51.1, 44.2,  3.6, 16.9,  60.4, 17.3,  12.8, 45.5
+    };
+
+
+    public boolean runTest() throws Exception {
+        test565();
+        testGray();
+        testCopy();
+        testRendered(RendererBase.TYPE_USHORT_565_RGB);
+        testRendered(RendererBase.TYPE_BYTE_GRAY);
+        testClear();
+        return true;
+    }
+
+    /*
+     * Every 565 pixel widens by bit replication and narrows back to
+     * itself, and 8 bit channels narrow to the nearest level
+     */
+    private void test565() {
+        ShortSurface surface = new ShortSurface(256, 256);
+        short[] data = surface.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short)i;
+        }
+        int[] argb = new int[data.length];
+        surface.getRGB(argb, 0, 256, 0, 0, 256, 256);
+        for (int i = 0; i < data.length; i++) {
+            int r5 = i >> 11, g6 = (i >> 5) & 0x3f, b5 = i & 0x1f;
+            int expected = 0xff000000 |
+                (((r5 << 3) | (r5 >> 2)) << 16) |
+                (((g6 << 2) | (g6 >> 4)) << 8) |
+                ((b5 << 3) | (b5 >> 2));
+            assertBool(argb[i] == expected, "Widened 565 pixel "+i);
+        }
+        surface.setRGB(argb, 0, 256, 0, 0, 256, 256);
+        for (int i = 0; i < data.length; i++) {
+            assertBool((data[i] & 0xffff) == i, "Narrowed 565 pixel "+i);
+        }
+
+        for (int c = 0; c < 256; c++) {
+            argb[c] = (c << 16) | (c << 8) | c;
+        }
+        surface.setRGB(argb, 0, 256, 0, 0, 256, 1);
+        surface.getRGB(argb, 0, 256, 0, 0, 256, 1);
+        for (int c = 0; c < 256; c++) {
+            assertBool(Math.abs(((argb[c] >> 16) & 0xff) - c) <= 4 &&
+                       Math.abs(((argb[c] >> 8) & 0xff) - c) <= 2 &&
+                       Math.abs((argb[c] & 0xff) - c) <= 4,
+                       "Channels "+c+" in 565, without alpha");
+        }
+    }
+
+    /*
+     * Gray pixels widen to opaque gray and back to themselves, and
+     * colors narrow to their luminance
+     */
+    private void testGray() {
+        ByteSurface surface = new ByteSurface(256, 2);
+        byte[] data = surface.getData();
+        for (int g = 0; g < 256; g++) {
+            data[g] = (byte)g;
+        }
+        int[] argb = new int[512];
+        surface.getRGB(argb, 0, 256, 0, 0, 256, 1);
+        for (int g = 0; g < 256; g++) {
+            assertBool(argb[g] == (0xff000000 | (g << 16) | (g << 8) | g),
+                       "Widened gray "+g);
+        }
+        surface.setRGB(argb, 0, 256, 0, 0, 256, 1);
+        for (int g = 0; g < 256; g++) {
+            assertBool((data[g] & 0xff) == g, "Narrowed gray "+g);
+        }
+
+        for (int i = 0; i < 256; i++) {
+            argb[256 + i] = (i << 24) | ((i*7) & 0xff) << 16 |
+                ((i*13) & 0xff) << 8 | ((i*31) & 0xff);
+        }
+        surface.setRGB(argb, 256, 256, 0, 1, 256, 1);
+        for (int i = 0; i < 256; i++) {
+            int r = (i*7) & 0xff, g = (i*13) & 0xff, b = (i*31) & 0xff;
+            double luminance = 0.3*r + 0.59*g + 0.11*b;
+            assertBool(Math.abs((data[256 + i] & 0xff) - luminance) <= 1,
+                       "Luminance of "+Integer.toHexString(argb[256 + i]));
+        }
+    }
+
+    /*
+     * Opaque blits between surfaces of one type copy rows, as the
+     * ARGB blit of their pixels does
+     */
+    private void testCopy() {
+        int[] argb = new int[W*H];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = i*0x9e3779b9;
+        }
+        ShortSurface short0 = new ShortSurface(W, H);
+        short0.setRGB(argb, 0, W, 0, 0, W, H);
+        ShortSurface copied = new ShortSurface(W, H);
+        copied.blit(short0, 5, 3, 7, 2, 40, 30, 1);
+        ShortSurface blitted = new ShortSurface(W, H);
+        short0.getRGB(argb, 0, W, 0, 0, W, H);
+        blitted.blit(argb, 3*W + 5, W, 7, 2, 40, 30, 1);
+        short[] a = copied.getData(), b = blitted.getData();
+        for (int i = 0; i < a.length; i++) {
+            assertBool(a[i] == b[i], "Copied 565 pixel "+i);
+        }
+
+        ByteSurface byte0 = new ByteSurface(W, H);
+        byte0.setRGB(argb, 0, W, 0, 0, W, H);
+        ByteSurface copiedGray = new ByteSurface(W, H);
+        copiedGray.blit(byte0, 5, 3, 7, 2, 40, 30, 1);
+        ByteSurface blittedGray = new ByteSurface(W, H);
+        byte0.getRGB(argb, 0, W, 0, 0, W, H);
+        blittedGray.blit(argb, 3*W + 5, W, 7, 2, 40, 30, 1);
+        byte[] c = copiedGray.getData(), d = blittedGray.getData();
+        for (int i = 0; i < c.length; i++) {
+            assertBool(c[i] == d[i], "Copied gray pixel "+i);
+        }
+    }
+
+    /*
+     * Translucent strokes and fills over a light background render
+     * as on INT ARGB, up to the rounding of gray, or the quantization
+     * of 565, up to 4 levels for each of the three layers blended
+     * over a quantized pixel
+     */
+    private void testRendered(int type) {
+        Surface.Sink sink = (type == RendererBase.TYPE_USHORT_565_RGB) ?
+            (Surface.Sink)new ShortSurface(W, H) :
+            (Surface.Sink)new ByteSurface(W, H);
+        int[] expected = render(new NativeSurface(W, H));
+        render(sink);
+        int[] argb = new int[W*H];
+        sink.getRGB(argb, 0, W, 0, 0, W, H);
+        for (int i = 0; i < argb.length; i++) {
+            int e = expected[i];
+            if (type == RendererBase.TYPE_BYTE_GRAY) {
+                e = Blit.toGray(e);
+            }
+            assertBool(close(argb[i], e,
+                             (type == RendererBase.TYPE_BYTE_GRAY) ? 3 : 12),
+                       "Pixel "+i+" of type "+type+": "+
+                       Integer.toHexString(argb[i])+" for "+
+                       Integer.toHexString(e));
+        }
+    }
+
+    private static int[] render(Surface.Sink sink) {
+        Pisces pisces = new Pisces(sink);
+        pisces.setColor(new Color(255, 230, 220, 200));
+        pisces.clearRect(0, 0, W, H);
+        pisces.setFill();
+        pisces.setColor(new Color(160, 200, 30, 40));
+        pisces.renderPath(STAR, STAR_COORDS, RendererBase.WIND_NON_ZERO,
+                          null);
+        pisces.setColor(new Color(120, 20, 90, 230));
+        pisces.fillOval(10.5, 8.25, 30.5, 20.75);
+        pisces.setStroke(2.5, Constants.CAP_ROUND, Constants.JOIN_ROUND,
+                         10, null, 0);
+        pisces.setColor(new Color(255, 10, 120, 30));
+        pisces.drawLine(2.5, 40.25, 60.75, 4.5);
+        int[] argb = new int[W*H];
+        pisces.getRGB(argb, 0, W, 0, 0, W, H);
+        return argb;
+    }
+
+    /*
+     * A clear stores the color once converted to 565
+     */
+    private void testClear() {
+        ShortSurface surface = new ShortSurface(W, H);
+        Pisces pisces = new Pisces(surface);
+        pisces.setColor(new Color(255, 200, 30, 40));
+        pisces.clearRect(0, 0, W, H);
+        int[] argb = new int[W*H];
+        surface.getRGB(argb, 0, W, 0, 0, W, H);
+        for (int i = 0; i < argb.length; i++) {
+            assertBool(close(argb[i], 0xffc81e28, 4),
+                       "Cleared 565 pixel "+Integer.toHexString(argb[i]));
+        }
+    }
+
+    private static boolean close(int argb, int expected, int levels) {
+        if ((argb >>> 24) != 0xff) {
+            return false;
+        }
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int c = (argb >> shift) & 0xff;
+            int e = (expected >> shift) & 0xff;
+            if (Math.abs(c - e) > levels) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
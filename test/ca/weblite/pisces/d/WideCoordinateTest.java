@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2010 John Pritchard
+ * Copyright  1990-2008 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License version
+ * 2 only, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included at /legal/license.txt).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ * Please contact Sun Microsystems, Inc., 4150 Network Circle, Santa
+ * Clara, CA 95054 or visit www.sun.com if you need additional
+ * information or have any questions.
+ */
+package ca.weblite.pisces.d;
+
+import ca.weblite.pisces.Color;
+
+import com.codename1.testing.AbstractTest;
+
+/**
+ * Coordinates beyond the S15.16 range of the edges are clipped, or
+ * rendered tile by tile, to the same pixels as equivalent geometry
+ * inside the range.
+ */
+public class WideCoordinateTest
+    extends AbstractTest
+{
+    private static final int W = 120, H = 100;
+    private static final int WIDE = 40000;
+
+
+    public boolean runTest() throws Exception {
+        for (int rule = 0; rule < 2; rule++) {
+            testFarVertices(rule);
+            for (int reach = 17000; reach <= 31000; reach += 7000) {
+                testLongSegments(rule, reach);
+            }
+            testLongEdge(rule);
+            testWideSurface(rule, 33000);
+            testWideSurface(rule, Renderer.MAX_FIXED_EXTENT - 30);
+        }
+        return true;
+    }
+
+    /*
+     * A triangle with vertices at x = +/-100000, against one with
+     * vertices at x = +/-1000 on the same lines
+     */
+    private void testFarVertices(int windingRule) {
+        Pisces near = create(new NativeSurface(W, H), windingRule);
+        triangle(near, 1000);
+        near.endRendering();
+
+        Pisces far = create(new NativeSurface(W, H), windingRule);
+        triangle(far, 100000);
+        far.endRendering();
+
+        assertBool(same((int[])near.getData(), 0, W,
+                        (int[])far.getData(), 0, W, W, H),
+                   "Triangle with far vertices, rule "+windingRule);
+    }
+
+    /*
+     * An edge from x = -reach to x = reach on the line x = reach*(y - 50)/10
+     * + 1/16, ends inside the S15.16 range but further apart than the
+     * difference of two S15.16 ints holds, against a short piece of the
+     * same line
+     */
+    private void testLongSegments(int windingRule, int reach) {
+        double k = reach/10, d = 0.0625;
+        Pisces near = create(new NativeSurface(W, H), windingRule);
+        near.moveTo(d - k, 49);
+        near.lineTo(d + k, 51);
+        near.lineTo(d + k, 90);
+        near.lineTo(d - k, 90);
+        near.close();
+        near.endRendering();
+
+        Pisces far = create(new NativeSurface(W, H), windingRule);
+        far.moveTo(d - reach, 40);
+        far.lineTo(d + reach, 60);
+        far.lineTo(d + reach, 90);
+        far.lineTo(d - reach, 90);
+        far.close();
+        far.endRendering();
+
+        assertBool(same((int[])near.getData(), 0, W,
+                        (int[])far.getData(), 0, W, W, H),
+                   "Edge reaching "+reach+", rule "+windingRule);
+    }
+
+    /*
+     * An edge across a surface too wide for the edges, from x = 0 to
+     * x = 40000 on the line x = 500*(y - 10) + 1/16, against a short
+     * piece of the same line
+     */
+    private void testLongEdge(int windingRule) {
+        Pisces wide = create(new NativeSurface(WIDE, H), windingRule);
+        wide.moveTo(0.0625, 10);
+        wide.lineTo(WIDE + 0.0625, 90);
+        wide.lineTo(0.0625, 90);
+        wide.close();
+        wide.endRendering();
+
+        Pisces narrow = create(new NativeSurface(W, H), windingRule);
+        narrow.moveTo(-999.9375, 48);
+        narrow.lineTo(1000.0625, 52);
+        narrow.lineTo(1000.0625, 90);
+        narrow.lineTo(-999.9375, 90);
+        narrow.close();
+        narrow.endRendering();
+
+        assertBool(same((int[])narrow.getData(), 0, W,
+                        (int[])wide.getData(), WIDE/2, WIDE, W, H),
+                   "Long edge, rule "+windingRule);
+    }
+
+    /*
+     * A triangle with its apex at (60.5, 80.5), on the lines y = x + 20
+     * and y = 141 - x, closed far above the surface
+     */
+    private static void triangle(Pisces pisces, double reach) {
+        pisces.moveTo(-reach, 20 - reach);
+        pisces.lineTo(reach, 141 - reach);
+        pisces.lineTo(60.5, 80.5);
+        pisces.close();
+    }
+
+    /*
+     * An oval and a polygon drawn at x on a surface too wide for the
+     * edges, against the same drawn at x = 10 on a narrow surface
+     */
+    private void testWideSurface(int windingRule, int x) {
+        Pisces narrow = create(new NativeSurface(W, H), windingRule);
+        shapes(narrow, 10);
+        narrow.endRendering();
+
+        Pisces wide = create(new NativeSurface(WIDE, H), windingRule);
+        shapes(wide, x);
+        wide.endRendering();
+
+        assertBool(same((int[])narrow.getData(), 0, W,
+                        (int[])wide.getData(), x - 10, WIDE, W, H),
+                   "Shapes at x = "+x+", rule "+windingRule);
+    }
+
+    private static void shapes(Pisces pisces, int x) {
+        double cx = x + 40.5, cy = 45.25, r = 35.5;
+        double k = 0.5522847498307933*r;
+        pisces.moveTo(cx + r, cy);
+        pisces.cubicTo(cx + r, cy + k, cx + k, cy + r, cx, cy + r);
+        pisces.cubicTo(cx - k, cy + r, cx - r, cy + k, cx - r, cy);
+        pisces.cubicTo(cx - r, cy - k, cx - k, cy - r, cx, cy - r);
+        pisces.cubicTo(cx + k, cy - r, cx + r, cy - k, cx + r, cy);
+        pisces.close();
+
+        pisces.moveTo(x + 60.3, 5.1);
+        pisces.lineTo(x + 105.7, 30.6);
+        pisces.lineTo(x + 70.2, 94.4);
+        pisces.lineTo(x + 95.9, 12.8);
+        pisces.close();
+    }
+
+    private static Pisces create(NativeSurface surface, int windingRule) {
+        Pisces pisces = new Pisces(surface);
+        pisces.setAntialiasingQuality(RendererBase.QUALITY_8X8);
+        pisces.setColor(new Color(180, 200, 30, 40));
+        pisces.setFill();
+        pisces.beginRendering(windingRule);
+        return pisces;
+    }
+
+    private static boolean same(int[] a, int aOffset, int aScan,
+                                int[] b, int bOffset, int bScan,
+                                int width, int height)
+    {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (a[aOffset + y*aScan + x] != b[bOffset + y*bScan + x]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}